@@ -31,10 +31,13 @@ import android.widget.Toast;
 import com.google.ar.core.Frame;
 import com.google.ar.core.Session;
 import com.google.ar.core.examples.java.computervision.rendering.BackgroundRenderer;
+import com.google.ar.core.examples.java.computervision.utility.AnalysisScheduler;
 import com.google.ar.core.examples.java.computervision.utility.CameraImageBuffer;
 import com.google.ar.core.examples.java.computervision.utility.CameraPermissionHelper;
 import com.google.ar.core.examples.java.computervision.utility.DisplayRotationHelper;
-import com.google.ar.core.examples.java.computervision.utility.EdgeDetector;
+import com.google.ar.core.examples.java.computervision.utility.FrameHandoff;
+import com.google.ar.core.examples.java.computervision.utility.MotionDetector;
+import com.google.ar.core.examples.java.computervision.utility.ParallelEdgeDetector;
 import com.google.ar.core.examples.java.computervision.utility.TextureReader;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
 import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
@@ -54,8 +57,35 @@ public class MainActivity extends AppCompatActivity implements GLSurfaceView.Ren
   private DisplayRotationHelper displayRotationHelper;
 
   private final BackgroundRenderer backgroundRenderer = new BackgroundRenderer();
-  private final CameraImageBuffer edgeImage = new CameraImageBuffer();
   private final TextureReader textureReader = new TextureReader();
+  private FrameHandoff frameHandoff;
+
+  // Edge images are triple buffered: the handoff worker writes one, the renderer displays another
+  // and the third holds the latest result which has not been displayed yet.
+  private final Object edgeImageLock = new Object();
+  private CameraImageBuffer workerEdgeImage = new CameraImageBuffer();
+  private CameraImageBuffer readyEdgeImage = new CameraImageBuffer();
+  private CameraImageBuffer displayedEdgeImage = new CameraImageBuffer();
+  private boolean edgeImageReady = false;
+
+  // Edge detection runs on one worker thread per available core.
+  private final ParallelEdgeDetector edgeDetector =
+      new ParallelEdgeDetector(Runtime.getRuntime().availableProcessors());
+
+  // Edges are only detected again if the scene moved within the last three analyzed frames. Motion
+  // is measured on 128 x 64 downscaled frames in blocks of 8 x 8 pixels.
+  private static final int MOTION_HISTORY_LENGTH = 3;
+  private static final int MOTION_SCALE = 8;
+  private static final int MOTION_BLOCK_SIZE = 8;
+  private static final int MOTION_BLOCK_THRESHOLD = 6;
+  private static final float MIN_MOTION_SCORE = 0.02f;
+
+  // Only used on the handoff worker thread.
+  private final MotionDetector motionDetector =
+      new MotionDetector(
+          MOTION_HISTORY_LENGTH, MOTION_SCALE, MOTION_BLOCK_SIZE, MOTION_BLOCK_THRESHOLD);
+  private final CameraImageBuffer motionMask = new CameraImageBuffer();
+  private boolean edgesDetected = false;
 
   // ArCore full resolution texture has a size of 1920 x 1080.
   private static final int TEXTURE_WIDTH = 1920;
@@ -65,7 +95,22 @@ public class MainActivity extends AppCompatActivity implements GLSurfaceView.Ren
   private static final int IMAGE_WIDTH = 1024;
   private static final int IMAGE_HEIGHT = 512;
 
-  private int frameBufferIndex = -1;
+  // Each frame queued for or processed by the handoff worker holds one reader buffer, and one more
+  // buffer is needed for the frame being read back.
+  private static final int HANDOFF_QUEUE_CAPACITY = 1;
+  private static final int HANDOFF_WORKER_COUNT = 1;
+  private static final int READER_BUFFER_COUNT =
+      HANDOFF_QUEUE_CAPACITY + HANDOFF_WORKER_COUNT + 1;
+
+  // Edges are detected at most 10 times per second. If detection takes longer than 30 ms on
+  // average, the rate is lowered further so that rendering keeps its share of the CPU.
+  private static final float ANALYSIS_RATE = 10.0f;
+  private static final long ANALYSIS_BUDGET_NANOS = 30000000L;
+
+  private final AnalysisScheduler analysisScheduler =
+      new AnalysisScheduler(ANALYSIS_RATE, ANALYSIS_BUDGET_NANOS);
+  // Frames dropped by the handoff which were already reported to the scheduler.
+  private long reportedDroppedFrameCount = 0;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -186,12 +231,28 @@ public class MainActivity extends AppCompatActivity implements GLSurfaceView.Ren
     // to query the session. If Session is paused before GLSurfaceView, GLSurfaceView may
     // still call session.update() and get a SessionPausedException.
     displayRotationHelper.onPause();
+    // The handoff holds mapped buffers of the texture reader, which die with the OpenGL context, so
+    // it is released on the OpenGL thread before the surface goes away. Queued events run before
+    // the thread pauses. Releasing waits for the workers, so none is left reading a mapped buffer.
+    surfaceView.queueEvent(
+        new Runnable() {
+          @Override
+          public void run() {
+            releaseFrameHandoff();
+          }
+        });
     surfaceView.onPause();
     if (session != null) {
       session.pause();
     }
   }
 
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    edgeDetector.release();
+  }
+
   @Override
   public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] results) {
     if (!CameraPermissionHelper.hasCameraPermission(this)) {
@@ -234,9 +295,34 @@ public class MainActivity extends AppCompatActivity implements GLSurfaceView.Ren
       session.setCameraTextureName(backgroundRenderer.getTextureId());
     }
 
+    // A new context needs a new texture reader, so a handoff still using the old one is dropped.
+    releaseFrameHandoff();
+
     // The image format can be either IMAGE_FORMAT_RGBA or IMAGE_FORMAT_I8.
     // Set keepAspectRatio to false so that the output image covers the whole viewport.
-    textureReader.create(CameraImageBuffer.IMAGE_FORMAT_I8, IMAGE_WIDTH, IMAGE_HEIGHT, false);
+    // Frames are skipped while all buffers are held by the edge detection worker.
+    textureReader.create(
+        CameraImageBuffer.IMAGE_FORMAT_I8,
+        IMAGE_WIDTH,
+        IMAGE_HEIGHT,
+        false,
+        READER_BUFFER_COUNT,
+        TextureReader.FULL_POLICY_SKIP);
+
+    // Detect edges on a worker thread, reading the mapped buffers in place.
+    frameHandoff =
+        new FrameHandoff(
+            textureReader,
+            new FrameHandoff.FrameConsumer() {
+              @Override
+              public void onFrame(CameraImageBuffer image) {
+                detectEdges(image);
+              }
+            },
+            HANDOFF_QUEUE_CAPACITY,
+            HANDOFF_WORKER_COUNT,
+            FrameHandoff.MODE_LEND);
+    reportedDroppedFrameCount = 0;
   }
 
   @Override
@@ -259,25 +345,33 @@ public class MainActivity extends AppCompatActivity implements GLSurfaceView.Ren
     try {
       Frame frame = session.update();
 
-      // If there is a frame being requested previously, acquire the pixels and process it.
-      if (frameBufferIndex >= 0) {
-        CameraImageBuffer imageBuffer = textureReader.acquireFrame(frameBufferIndex);
-
-        // Detect the edges from the captured grayscale image.
-        if (EdgeDetector.detect(edgeImage, imageBuffer)) {
-          // Set the edge image to renderer as overlay.
-          backgroundRenderer.setOverlayImage(edgeImage);
+      // Hand the frame read back earlier over to the edge detection worker and, if the scheduler
+      // picks the current frame for analysis, request its texture. This never blocks the rendering
+      // thread.
+      // The handoff is gone between a pause request and the next surface creation.
+      if (frameHandoff != null) {
+        boolean analyze = analysisScheduler.shouldAnalyze(System.nanoTime());
+        boolean submitted =
+            frameHandoff.update(
+                backgroundRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT, analyze);
+        if (analyze && !submitted) {
+          analysisScheduler.reportNotSubmitted();
         }
-
-        // You should always release frame buffer after using. Otherwise the next call to
-        // submitFrame() may fail.
-        textureReader.releaseFrame(frameBufferIndex);
+        long handoffDroppedFrameCount = frameHandoff.getDroppedFrameCount();
+        analysisScheduler.reportDropped(handoffDroppedFrameCount - reportedDroppedFrameCount);
+        reportedDroppedFrameCount = handoffDroppedFrameCount;
       }
 
-      // Submit request for the texture from the current frame.
-      frameBufferIndex =
-          textureReader.submitFrame(
-              backgroundRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT);
+      // Set the latest edge image to renderer as overlay.
+      synchronized (edgeImageLock) {
+        if (edgeImageReady) {
+          CameraImageBuffer edgeImage = displayedEdgeImage;
+          displayedEdgeImage = readyEdgeImage;
+          readyEdgeImage = edgeImage;
+          edgeImageReady = false;
+          backgroundRenderer.setOverlayImage(displayedEdgeImage);
+        }
+      }
 
       // Draw background video.
       backgroundRenderer.draw(frame);
@@ -288,6 +382,37 @@ public class MainActivity extends AppCompatActivity implements GLSurfaceView.Ren
     }
   }
 
+  /** Stops the handoff workers and returns the reader buffers they hold. On the OpenGL thread. */
+  private void releaseFrameHandoff() {
+    if (frameHandoff != null) {
+      frameHandoff.release();
+      frameHandoff = null;
+    }
+  }
+
+  /** Detects the edges from a captured grayscale image. Called on the handoff worker thread. */
+  private void detectEdges(CameraImageBuffer image) {
+    long startNanos = System.nanoTime();
+    // Keep the previous edge image while the scene is static.
+    boolean moving =
+        !motionDetector.detect(motionMask, image)
+            || motionDetector.getMotionScore() >= MIN_MOTION_SCORE;
+    boolean detected = (moving || !edgesDetected) && edgeDetector.detect(workerEdgeImage, image);
+    analysisScheduler.reportProcessingTime(System.nanoTime() - startNanos);
+    if (!detected) {
+      return;
+    }
+    edgesDetected = true;
+
+    // Publish the result; a result which has not been displayed yet is replaced.
+    synchronized (edgeImageLock) {
+      CameraImageBuffer edgeImage = readyEdgeImage;
+      readyEdgeImage = workerEdgeImage;
+      workerEdgeImage = edgeImage;
+      edgeImageReady = true;
+    }
+  }
+
   private void showSnackbarMessage(String message, boolean finishOnDismiss) {
     messageSnackbar =
         Snackbar.make(
@@ -50,6 +50,8 @@ public class BackgroundRenderer {
   private int quadSplitterUniform;
   private int backgroundTextureId = -1;
   private int overlayTextureId = -1;
+  private int overlayTextureWidth = 0;
+  private int overlayTextureHeight = 0;
   private float splitterPosition = 0.5f;
 
   private CameraImageBuffer overlayImageBuffer;
@@ -80,7 +82,10 @@ public class BackgroundRenderer {
     GLES20.glTexParameteri(
         GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
 
+    // The new overlay texture has no storage yet, so the next overlay image allocates it.
     overlayTextureId = textures[1];
+    overlayTextureWidth = 0;
+    overlayTextureHeight = 0;
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureId);
     GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
     GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
@@ -136,7 +141,7 @@ public class BackgroundRenderer {
 
   /**
    * Sets new overlay image buffer. This image buffer is used to render side by side with background
-   * video.
+   * video. A direct pixel buffer is uploaded without an intermediate copy.
    *
    * @param imageBuffer the new image buffer for the overlay texture.
    */
@@ -195,16 +200,33 @@ public class BackgroundRenderer {
 
       ByteBuffer pixelBuffer = overlayImageBuffer.buffer;
       pixelBuffer.position(0);
-      GLES20.glTexImage2D(
-          GLES20.GL_TEXTURE_2D,
-          0,
-          GLES20.GL_LUMINANCE,
-          overlayImageBuffer.width,
-          overlayImageBuffer.height,
-          0,
-          GLES20.GL_LUMINANCE,
-          GLES20.GL_UNSIGNED_BYTE,
-          pixelBuffer);
+      if (overlayImageBuffer.width == overlayTextureWidth
+          && overlayImageBuffer.height == overlayTextureHeight) {
+        // Same size as before, update the existing texture storage in place.
+        GLES20.glTexSubImage2D(
+            GLES20.GL_TEXTURE_2D,
+            0,
+            0,
+            0,
+            overlayImageBuffer.width,
+            overlayImageBuffer.height,
+            GLES20.GL_LUMINANCE,
+            GLES20.GL_UNSIGNED_BYTE,
+            pixelBuffer);
+      } else {
+        GLES20.glTexImage2D(
+            GLES20.GL_TEXTURE_2D,
+            0,
+            GLES20.GL_LUMINANCE,
+            overlayImageBuffer.width,
+            overlayImageBuffer.height,
+            0,
+            GLES20.GL_LUMINANCE,
+            GLES20.GL_UNSIGNED_BYTE,
+            pixelBuffer);
+        overlayTextureWidth = overlayImageBuffer.width;
+        overlayTextureHeight = overlayImageBuffer.height;
+      }
     }
 
     GLES20.glUseProgram(quadProgram);
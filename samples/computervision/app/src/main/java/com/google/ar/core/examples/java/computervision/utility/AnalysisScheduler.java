@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+/**
+ * Decides which rendered frames are analyzed, so that the analysis rate does not follow the
+ * rendering rate.
+ *
+ * <p>Frames are analyzed at most at the target rate. The processing time of each analysis is
+ * reported back and averaged; while the average exceeds the time budget, the analysis interval is
+ * stretched by the same ratio, so that the analysis keeps the CPU load it would have at the target
+ * rate within budget. The frames in between are skipped without being read back.
+ *
+ * <p>A frame picked for analysis may still not reach it, for example because no readback buffer is
+ * free. reportNotSubmitted() counts such a frame as dropped and keeps the schedule, so the next
+ * frame is picked one interval later as usual. reportDropped() counts frames lost after the
+ * readback, so that getDroppedFrameCount() covers both.
+ *
+ * <p>shouldAnalyze() is meant to be called on the rendering thread once per frame, and
+ * reportProcessingTime() on the thread which analyzes the frames. This class is thread-safe, and
+ * neither of these calls blocks for longer than a few field updates.
+ */
+public class AnalysisScheduler {
+  private static final long NANOS_PER_SECOND = 1000000000L;
+
+  // Weight of a new processing time in the average, and the period over which rates are measured.
+  private static final float PROCESSING_TIME_SMOOTHING = 0.2f;
+  private static final long RATE_PERIOD_NANOS = NANOS_PER_SECOND;
+
+  private final long targetIntervalNanos;
+  private final long budgetNanos;
+
+  private long nextFrameTimeNanos = Long.MIN_VALUE;
+  // Whether the last frame passed to shouldAnalyze() was picked and not yet reported as dropped.
+  private boolean lastFramePicked = false;
+  private float averageProcessingTimeNanos = 0;
+
+  private long frameCount = 0;
+  private long scheduledFrameCount = 0;
+  private long processedFrameCount = 0;
+  private long droppedFrameCount = 0;
+
+  // Counts at the start of the current rate period, and the rates of the last complete period.
+  private long rateStartNanos = Long.MIN_VALUE;
+  private long rateStartFrameCount = 0;
+  private long rateStartProcessedFrameCount = 0;
+  private float renderRate = 0;
+  private float analysisRate = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param targetRate the maximum number of frames analyzed per second.
+   * @param budgetNanos the processing time in nanoseconds an analysis may take before the rate is
+   *     lowered.
+   */
+  public AnalysisScheduler(float targetRate, long budgetNanos) {
+    if (targetRate <= 0 || budgetNanos <= 0) {
+      throw new RuntimeException("Invalid target rate or time budget.");
+    }
+    targetIntervalNanos = (long) (NANOS_PER_SECOND / targetRate);
+    this.budgetNanos = budgetNanos;
+  }
+
+  /**
+   * Decides whether the current frame is analyzed. This needs to be called once per rendered frame.
+   *
+   * @param nowNanos the current time, from System.nanoTime().
+   * @return true if the frame should be analyzed, false if it is skipped.
+   */
+  public synchronized boolean shouldAnalyze(long nowNanos) {
+    frameCount++;
+    updateRates(nowNanos);
+
+    if (nextFrameTimeNanos != Long.MIN_VALUE && nowNanos - nextFrameTimeNanos < 0) {
+      lastFramePicked = false;
+      return false;
+    }
+
+    scheduledFrameCount++;
+    // Schedule relative to the ideal time, unless the frame came so late that this would cause a
+    // burst of analyzed frames.
+    final long intervalNanos = getIntervalNanos();
+    long nextTime = nextFrameTimeNanos + intervalNanos;
+    if (nextFrameTimeNanos == Long.MIN_VALUE || nowNanos - nextTime >= 0) {
+      nextTime = nowNanos + intervalNanos;
+    }
+    nextFrameTimeNanos = nextTime;
+    lastFramePicked = true;
+    return true;
+  }
+
+  /**
+   * Reports that the frame shouldAnalyze() last picked could not be read back. The frame is counted
+   * as dropped; the schedule is kept, so a busy reader does not make the following frames be picked
+   * one after the other. This needs to be called on the rendering thread, before the next
+   * shouldAnalyze(). It has no effect if that frame was not picked or was already reported.
+   */
+  public synchronized void reportNotSubmitted() {
+    if (lastFramePicked) {
+      droppedFrameCount++;
+      lastFramePicked = false;
+    }
+  }
+
+  /**
+   * Reports frames which were read back but dropped before being analyzed, for example because the
+   * workers were busy. This can be called from any thread.
+   *
+   * @param count the number of dropped frames.
+   */
+  public synchronized void reportDropped(long count) {
+    droppedFrameCount += count;
+  }
+
+  /**
+   * Reports the time an analysis took. This can be called from any thread.
+   *
+   * @param processingTimeNanos the processing time in nanoseconds.
+   */
+  public synchronized void reportProcessingTime(long processingTimeNanos) {
+    processedFrameCount++;
+    if (processedFrameCount == 1) {
+      averageProcessingTimeNanos = processingTimeNanos;
+    } else {
+      averageProcessingTimeNanos +=
+          PROCESSING_TIME_SMOOTHING * (processingTimeNanos - averageProcessingTimeNanos);
+    }
+  }
+
+  /** Returns the current interval between analyzed frames in nanoseconds. */
+  public synchronized long getIntervalNanos() {
+    if (averageProcessingTimeNanos <= budgetNanos) {
+      return targetIntervalNanos;
+    }
+    return (long) (targetIntervalNanos * (averageProcessingTimeNanos / budgetNanos));
+  }
+
+  /** Returns the average processing time in nanoseconds. */
+  public synchronized long getAverageProcessingTimeNanos() {
+    return (long) averageProcessingTimeNanos;
+  }
+
+  /** Returns the number of frames passed to shouldAnalyze(). */
+  public synchronized long getFrameCount() {
+    return frameCount;
+  }
+
+  /** Returns the number of frames which were skipped. */
+  public synchronized long getSkippedFrameCount() {
+    return frameCount - scheduledFrameCount;
+  }
+
+  /**
+   * Returns the number of frames picked for analysis which were not analyzed, either because they
+   * could not be read back or because they were dropped afterwards.
+   */
+  public synchronized long getDroppedFrameCount() {
+    return droppedFrameCount;
+  }
+
+  /** Returns the number of frames whose processing time was reported. */
+  public synchronized long getProcessedFrameCount() {
+    return processedFrameCount;
+  }
+
+  /** Returns the number of frames rendered per second, measured over the last second. */
+  public synchronized float getRenderRate() {
+    return renderRate;
+  }
+
+  /** Returns the number of frames analyzed per second, measured over the last second. */
+  public synchronized float getAnalysisRate() {
+    return analysisRate;
+  }
+
+  private void updateRates(long nowNanos) {
+    if (rateStartNanos == Long.MIN_VALUE) {
+      // The current frame starts the period, so only the frames after it are counted.
+      rateStartNanos = nowNanos;
+      rateStartFrameCount = frameCount;
+      rateStartProcessedFrameCount = processedFrameCount;
+      return;
+    }
+
+    long elapsedNanos = nowNanos - rateStartNanos;
+    if (elapsedNanos < RATE_PERIOD_NANOS) {
+      return;
+    }
+
+    float seconds = (float) elapsedNanos / NANOS_PER_SECOND;
+    renderRate = (frameCount - rateStartFrameCount) / seconds;
+    analysisRate = (processedFrameCount - rateStartProcessedFrameCount) / seconds;
+    rateStartNanos = nowNanos;
+    rateStartFrameCount = frameCount;
+    rateStartProcessedFrameCount = processedFrameCount;
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a task split into bands on a fixed set of threads. The calling thread runs band 0 itself
+ * and dedicated worker threads run the others; execute() returns once all bands are done. Workers
+ * are woken and joined with {@link LockSupport}, so no objects are allocated per call.
+ *
+ * <p>execute() must not be called concurrently. Call release() to stop the worker threads.
+ */
+final class BandExecutor {
+  /** A task which processes one band out of bandCount. */
+  interface Task {
+    void run(int band, int bandCount);
+  }
+
+  private final Worker[] workers;
+  private final AtomicInteger pendingBands = new AtomicInteger();
+  private volatile Task task;
+  private volatile Thread waitingThread;
+  private volatile Throwable workerError;
+  private volatile boolean released = false;
+
+  /** Worker thread which runs one band each time the generation is bumped. */
+  private class Worker extends Thread {
+    private final int band;
+    private volatile int generation = 0;
+    private int processedGeneration = 0;
+
+    Worker(String name, int band) {
+      super(name + "-" + band);
+      this.band = band;
+      setDaemon(true);
+    }
+
+    void wake() {
+      generation++;
+      LockSupport.unpark(this);
+    }
+
+    @Override
+    public void run() {
+      while (!released) {
+        if (processedGeneration == generation) {
+          LockSupport.park(this);
+          continue;
+        }
+        processedGeneration = generation;
+
+        try {
+          task.run(band, workers.length + 1);
+        } catch (Throwable t) {
+          workerError = t;
+        }
+
+        if (pendingBands.decrementAndGet() == 0) {
+          LockSupport.unpark(waitingThread);
+        }
+      }
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param threadCount the number of threads running a task, including the calling thread. This is
+   *     also the number of bands.
+   * @param name the name prefix of the worker threads.
+   */
+  BandExecutor(int threadCount, String name) {
+    if (threadCount < 1) {
+      throw new RuntimeException("Invalid thread count.");
+    }
+
+    workers = new Worker[threadCount - 1];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Worker(name, i + 1);
+      workers[i].start();
+    }
+  }
+
+  /** Returns the number of bands, which is the number of threads. */
+  int getBandCount() {
+    return workers.length + 1;
+  }
+
+  /**
+   * Runs all bands of the task and waits for them to finish.
+   *
+   * @throws RuntimeException if a band threw an exception.
+   */
+  void execute(Task task) {
+    if (released) {
+      throw new RuntimeException("Band executor has been released.");
+    }
+
+    // The volatile writes in wake() publish the task to the workers.
+    this.task = task;
+    waitingThread = Thread.currentThread();
+    workerError = null;
+    pendingBands.set(workers.length);
+    for (Worker worker : workers) {
+      worker.wake();
+    }
+
+    Throwable error = null;
+    try {
+      task.run(0, workers.length + 1);
+    } catch (Throwable t) {
+      error = t;
+    }
+
+    // Wait for all workers even if interrupted; the caller may reuse its buffers right away.
+    boolean interrupted = false;
+    while (pendingBands.get() != 0) {
+      LockSupport.park(this);
+      interrupted |= Thread.interrupted();
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    this.task = null;
+
+    if (error == null) {
+      error = workerError;
+    }
+    if (error != null) {
+      throw new RuntimeException("Band task failed.", error);
+    }
+  }
+
+  /** Stops the worker threads. The executor cannot be used after this call. */
+  void release() {
+    released = true;
+    for (Worker worker : workers) {
+      LockSupport.unpark(worker);
+    }
+  }
+}
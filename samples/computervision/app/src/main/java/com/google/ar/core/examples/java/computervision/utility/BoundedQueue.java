@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for any number of producers and consumers. Each slot carries a sequence
+ * number which tells producers and consumers whose turn it is, so offer() and poll() only need a
+ * compare-and-set on the tail or head counter and never allocate.
+ *
+ * @param <E> the type of the queued elements.
+ */
+final class BoundedQueue<E> {
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param minCapacity the minimum capacity, rounded up to a power of two.
+   */
+  BoundedQueue(int minCapacity) {
+    if (minCapacity < 1) {
+      throw new RuntimeException("Invalid queue capacity.");
+    }
+    int capacity = Integer.highestOneBit(minCapacity);
+    if (capacity < minCapacity) {
+      capacity <<= 1;
+    }
+    elements = new AtomicReferenceArray<>(capacity);
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+    mask = capacity - 1;
+  }
+
+  /**
+   * Adds an element to the tail of the queue.
+   *
+   * @return false if the queue is full.
+   */
+  boolean offer(E element) {
+    while (true) {
+      long position = tail.get();
+      int slot = (int) position & mask;
+      long difference = sequences.get(slot) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.set(slot, element);
+          sequences.set(slot, position + 1);
+          return true;
+        }
+      } else if (difference < 0) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Removes the element at the head of the queue.
+   *
+   * @return the element, or null if the queue is empty.
+   */
+  E poll() {
+    while (true) {
+      long position = head.get();
+      int slot = (int) position & mask;
+      long difference = sequences.get(slot) - (position + 1);
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          E element = elements.get(slot);
+          elements.set(slot, null);
+          sequences.set(slot, position + mask + 1);
+          return element;
+        }
+      } else if (difference < 0) {
+        return null;
+      }
+    }
+  }
+}
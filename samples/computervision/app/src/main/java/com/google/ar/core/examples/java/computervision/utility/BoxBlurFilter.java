@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+
+/**
+ * Blurs a grayscale image with a 3x3 box filter. Pixels outside of the image are replaced with the
+ * nearest edge pixel.
+ *
+ * <p>The horizontal sums of the last three rows are kept in a sliding window, so every input pixel
+ * is read once. The window only grows, so the filter does not allocate in steady state.
+ */
+public class BoxBlurFilter implements LookupTableFusable {
+  private static final String TAG = BoxBlurFilter.class.getSimpleName();
+
+  // Lookup table applied to the output pixels, or null.
+  private final LookupTableFilter outputFilter;
+
+  private int[] rowSums = new int[0];
+
+  /** Creates a 3x3 box blur. */
+  public BoxBlurFilter() {
+    this(null);
+  }
+
+  private BoxBlurFilter(LookupTableFilter outputFilter) {
+    this.outputFilter = outputFilter;
+  }
+
+  @Override
+  public BoxBlurFilter fuse(LookupTableFilter next) {
+    return new BoxBlurFilter(outputFilter == null ? next : outputFilter.fuse(next));
+  }
+
+  @Override
+  public int getOutputWidth(int inputWidth) {
+    return inputWidth;
+  }
+
+  @Override
+  public int getOutputHeight(int inputHeight) {
+    return inputHeight;
+  }
+
+  @Override
+  public boolean process(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
+    if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_I8) {
+      Log.e(TAG, "Invalid input image!");
+      return false;
+    }
+
+    if (outputImage == null || outputImage == inputImage) {
+      Log.e(TAG, "Invalid output image!");
+      return false;
+    }
+
+    final int width = inputImage.width;
+    final int height = inputImage.height;
+    outputImage.resize(width, height, inputImage.format);
+
+    if (rowSums.length < 3 * width) {
+      rowSums = new int[3 * width];
+    }
+
+    ByteBuffer inputBuffer = inputImage.buffer;
+    ByteBuffer outputBuffer = outputImage.buffer;
+
+    final byte[] table = outputFilter == null ? null : outputFilter.lookupTable;
+
+    // Horizontal sums of row r are kept in slot r % 3.
+    loadRowSums(inputBuffer, 0, width);
+    if (height > 1) {
+      loadRowSums(inputBuffer, 1, width);
+    }
+
+    for (int j = 0; j < height; j++) {
+      if (j > 0 && j + 1 < height) {
+        loadRowSums(inputBuffer, j + 1, width);
+      }
+      int aboveOffset = (Math.max(j - 1, 0) % 3) * width;
+      int rowOffset = (j % 3) * width;
+      int belowOffset = (Math.min(j + 1, height - 1) % 3) * width;
+      int outputOffset = j * width;
+      for (int i = 0; i < width; i++) {
+        int sum = rowSums[aboveOffset + i] + rowSums[rowOffset + i] + rowSums[belowOffset + i];
+        int value = (sum + 4) / 9;
+        outputBuffer.put(outputOffset + i, table == null ? (byte) value : table[value]);
+      }
+    }
+
+    return true;
+  }
+
+  /** Computes the horizontal 3 pixel sums of input row j into slot j % 3 of the window. */
+  private void loadRowSums(ByteBuffer inputBuffer, int j, int width) {
+    int inputOffset = j * width;
+    int windowOffset = (j % 3) * width;
+    int left = inputBuffer.get(inputOffset) & 0xFF;
+    int center = left;
+    for (int i = 0; i < width; i++) {
+      int right = i + 1 < width ? inputBuffer.get(inputOffset + i + 1) & 0xFF : center;
+      rowSums[windowOffset + i] = left + center + right;
+      left = center;
+      center = right;
+    }
+  }
+}
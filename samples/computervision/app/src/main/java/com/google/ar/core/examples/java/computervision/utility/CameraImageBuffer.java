@@ -24,6 +24,27 @@ public class CameraImageBuffer {
   /** The id corresponding to grayscale. */
   public static final int IMAGE_FORMAT_I8 = 1;
 
+  /**
+   * The id corresponding to a packed binary image. Each row stores 8 pixels per byte, the leftmost
+   * pixel in the most significant bit, and is padded to a whole number of bytes.
+   */
+  public static final int IMAGE_FORMAT_BINARY = 2;
+
+  /**
+   * The id corresponding to NV21: a full resolution luma plane followed by a half resolution plane
+   * of interleaved V and U samples.
+   */
+  public static final int IMAGE_FORMAT_NV21 = 3;
+
+  /**
+   * The id corresponding to I420: a full resolution luma plane followed by half resolution U and V
+   * planes.
+   */
+  public static final int IMAGE_FORMAT_I420 = 4;
+
+  /** The id corresponding to RGB565, stored as little endian 16 bit values. */
+  public static final int IMAGE_FORMAT_RGB565 = 5;
+
   /** The width of the image, in pixels. */
   public int width;
 
@@ -33,7 +54,7 @@ public class CameraImageBuffer {
   /** The image buffer. */
   public ByteBuffer buffer;
 
-  /** Pixel format. Can be either IMAGE_FORMAT_RGBA or IMAGE_FORMAT_I8. */
+  /** Pixel format. Can be any of the IMAGE_FORMAT_* values. */
   public int format;
 
   /** Default constructor. */
@@ -57,7 +78,7 @@ public class CameraImageBuffer {
       throw new RuntimeException("Invalid image size.");
     }
 
-    if (imgFormat != IMAGE_FORMAT_RGBA && imgFormat != IMAGE_FORMAT_I8) {
+    if (imgFormat < IMAGE_FORMAT_RGBA || imgFormat > IMAGE_FORMAT_RGB565) {
       throw new RuntimeException("Invalid image format.");
     }
 
@@ -70,4 +91,56 @@ public class CameraImageBuffer {
     format = imgFormat;
     buffer = imgBuffer;
   }
+
+  /**
+   * Returns the number of bytes needed to store an image.
+   *
+   * @param imgWidth the width of the image, in pixels.
+   * @param imgHeight the height of the image, in pixels.
+   * @param imgFormat the format of the image.
+   * @return the size of the pixel buffer, in bytes.
+   */
+  public static int getBufferSize(int imgWidth, int imgHeight, int imgFormat) {
+    switch (imgFormat) {
+      case IMAGE_FORMAT_RGBA:
+        return imgWidth * imgHeight * 4;
+      case IMAGE_FORMAT_I8:
+        return imgWidth * imgHeight;
+      case IMAGE_FORMAT_BINARY:
+        return ((imgWidth + 7) / 8) * imgHeight;
+      case IMAGE_FORMAT_NV21:
+      case IMAGE_FORMAT_I420:
+        return imgWidth * imgHeight + 2 * ((imgWidth + 1) / 2) * ((imgHeight + 1) / 2);
+      case IMAGE_FORMAT_RGB565:
+        return imgWidth * imgHeight * 2;
+      default:
+        throw new RuntimeException("Invalid image format.");
+    }
+  }
+
+  /**
+   * Changes the size and format of the image. The current pixel buffer is kept if it is writable
+   * and large enough, otherwise a new direct buffer is allocated. In both cases the pixel values
+   * are undefined afterwards and the buffer limit is set to the image size.
+   *
+   * @param imgWidth the new width of the image, in pixels.
+   * @param imgHeight the new height of the image, in pixels.
+   * @param imgFormat the new format of the image.
+   */
+  public void resize(int imgWidth, int imgHeight, int imgFormat) {
+    if (imgWidth <= 0 || imgHeight <= 0) {
+      throw new RuntimeException("Invalid image size.");
+    }
+
+    final int bufferSize = getBufferSize(imgWidth, imgHeight, imgFormat);
+    if (buffer == null || buffer.isReadOnly() || buffer.capacity() < bufferSize) {
+      buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    width = imgWidth;
+    height = imgHeight;
+    format = imgFormat;
+    buffer.clear();
+    buffer.limit(bufferSize);
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Pool of image buffers backed by direct byte buffers. Images are handed out by best fit on buffer
+ * capacity, so a fixed set of image sizes reaches a steady state in which nothing is allocated.
+ * This class is thread-safe.
+ */
+public class CameraImageBufferPool {
+  private final ArrayList<CameraImageBuffer> freeImages = new ArrayList<>();
+
+  /**
+   * Acquires an image of the given size and format. The pixel values are undefined.
+   *
+   * @param width the width of the image, in pixels.
+   * @param height the height of the image, in pixels.
+   * @param format the format of the image.
+   * @return an image which should be returned with {@link #release} when no longer used.
+   */
+  public synchronized CameraImageBuffer acquire(int width, int height, int format) {
+    final int bufferSize = CameraImageBuffer.getBufferSize(width, height, format);
+
+    // Pick the smallest free image which is large enough, or else the largest one, which then has
+    // to grow.
+    int bestIndex = -1;
+    int bestCapacity = 0;
+    for (int i = 0; i < freeImages.size(); i++) {
+      int capacity = freeImages.get(i).buffer.capacity();
+      boolean fits = capacity >= bufferSize;
+      boolean bestFits = bestCapacity >= bufferSize;
+      if (bestIndex == -1
+          || (fits && (!bestFits || capacity < bestCapacity))
+          || (!fits && !bestFits && capacity > bestCapacity)) {
+        bestIndex = i;
+        bestCapacity = capacity;
+      }
+    }
+
+    if (bestIndex == -1) {
+      return new CameraImageBuffer(width, height, format, ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    // Swap with the last element so that removal does not shift the list.
+    int lastIndex = freeImages.size() - 1;
+    CameraImageBuffer image = freeImages.get(bestIndex);
+    freeImages.set(bestIndex, freeImages.get(lastIndex));
+    freeImages.remove(lastIndex);
+
+    image.resize(width, height, format);
+    return image;
+  }
+
+  /**
+   * Returns an image to the pool. The image must not be used by the caller afterwards.
+   *
+   * @param image an image acquired from this pool, or an image which the pool may take over.
+   */
+  public synchronized void release(CameraImageBuffer image) {
+    if (image == null || image.buffer == null || image.buffer.isReadOnly()) {
+      return;
+    }
+    freeImages.add(image);
+  }
+
+  /** Drops all free images. */
+  public synchronized void clear() {
+    freeImages.clear();
+  }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+
+/**
+ * Detects thin edges from a grayscale image with the Canny algorithm:
+ *
+ * <ol>
+ *   <li>a 5x5 Gaussian blur,
+ *   <li>the Sobel gradient magnitude |gx| + |gy| and its direction in four bins,
+ *   <li>non-maximum suppression along the gradient direction,
+ *   <li>hysteresis: pixels above the high threshold are edges, and so are pixels above the low
+ *       threshold which are 8-connected to an edge.
+ * </ol>
+ *
+ * <p>The output has 0xFF on edges and 0x1F elsewhere, like {@link EdgeDetector}. Pixels outside of
+ * the image are replaced with the nearest border pixel.
+ *
+ * <p>All intermediate results live in primitive arrays owned by the detector, which only grow, so
+ * the detector does not allocate in steady state. The blurred image and the gradient magnitude are
+ * padded with a border of one pixel, so the gradient and non-maximum suppression index their
+ * neighbours directly. Hysteresis is an iterative flood fill over an int stack of pixel indices.
+ * Heap input buffers are read through their backing array; direct input buffers are copied row by
+ * row into a scratch row, which the blur reads. The output is written with one bulk put, after
+ * which its position is 0. A detector must not be shared between threads without external
+ * synchronization.
+ */
+public class CannyEdgeDetector implements ImageFilter {
+  private static final String TAG = CannyEdgeDetector.class.getSimpleName();
+
+  /** The default low threshold of the gradient magnitude |gx| + |gy|. */
+  public static final int DEFAULT_LOW_THRESHOLD = 64;
+
+  /** The default high threshold of the gradient magnitude |gx| + |gy|. */
+  public static final int DEFAULT_HIGH_THRESHOLD = 128;
+
+  // Gradient direction bins, for a gradient pointing right (0), up and right (1), up (2), and up
+  // and left (3). Up is the row above.
+  private static final byte DIRECTION_0 = 0;
+  private static final byte DIRECTION_45 = 1;
+  private static final byte DIRECTION_90 = 2;
+  private static final byte DIRECTION_135 = 3;
+
+  // tan(22.5 degrees) and tan(67.5 degrees) in 8.8 fixed point.
+  private static final int TAN_22_5 = 106;
+  private static final int TAN_67_5 = 618;
+
+  // Pixel states after non-maximum suppression.
+  private static final byte STATE_NONE = 0;
+  private static final byte STATE_WEAK = 1;
+  private static final byte STATE_STRONG = 2;
+
+  private int lowThreshold;
+  private int highThreshold;
+
+  // One input row of a direct buffer, one padded input row, the horizontally blurred image, the
+  // blurred image with one replicated column on each side, the gradient magnitude with a zero
+  // border of one pixel, the gradient directions, the pixel states, which become the output, and
+  // the flood fill stack.
+  private byte[] inputRow = new byte[0];
+  private int[] paddedRow = new int[0];
+  private int[] horizontal = new int[0];
+  private int[] blurred = new int[0];
+  private int[] magnitude = new int[0];
+  private byte[] direction = new byte[0];
+  private byte[] state = new byte[0];
+  private int[] stack = new int[0];
+
+  // Offsets in the magnitude array of the neighbours before and after a pixel along each gradient
+  // direction bin, for the current image width.
+  private final int[] beforeOffsets = new int[4];
+  private final int[] afterOffsets = new int[4];
+
+  /** Constructor with the default thresholds. */
+  public CannyEdgeDetector() {
+    this(DEFAULT_LOW_THRESHOLD, DEFAULT_HIGH_THRESHOLD);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param lowThreshold the low threshold of the gradient magnitude |gx| + |gy|.
+   * @param highThreshold the high threshold, which is at least the low threshold.
+   */
+  public CannyEdgeDetector(int lowThreshold, int highThreshold) {
+    setThresholds(lowThreshold, highThreshold);
+  }
+
+  /**
+   * Sets the thresholds of the gradient magnitude |gx| + |gy|, which is at most 2040 for 8 bit
+   * images.
+   *
+   * @param lowThreshold pixels at or below this magnitude are never edges.
+   * @param highThreshold pixels above this magnitude are always edges, unless suppressed. It has
+   *     to be at least lowThreshold.
+   */
+  public void setThresholds(int lowThreshold, int highThreshold) {
+    if (lowThreshold < 0 || highThreshold < lowThreshold) {
+      throw new RuntimeException("Invalid edge thresholds.");
+    }
+    this.lowThreshold = lowThreshold;
+    this.highThreshold = highThreshold;
+  }
+
+  /**
+   * Detects edges from the input grayscale image.
+   *
+   * @param outputImage Output image buffer, resized to the input image size.
+   * @param inputImage Input grayscale image.
+   * @return False if either of the images is invalid, True otherwise.
+   */
+  public boolean detect(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
+    if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_I8) {
+      Log.e(TAG, "Invalid input image!");
+      return false;
+    }
+
+    if (outputImage == null || outputImage == inputImage) {
+      Log.e(TAG, "Invalid output image!");
+      return false;
+    }
+
+    final int width = inputImage.width;
+    final int height = inputImage.height;
+    outputImage.resize(width, height, inputImage.format);
+    ensureScratch(width, height);
+
+    blur(inputImage.buffer, width, height);
+    gradient(width, height);
+    int stackSize = suppressNonMaxima(width, height);
+    trace(width, height, stackSize);
+
+    final int pixelCount = width * height;
+    for (int p = 0; p < pixelCount; p++) {
+      state[p] = state[p] == STATE_STRONG ? (byte) 0xFF : (byte) 0x1F;
+    }
+    final ByteBuffer outputBuffer = outputImage.buffer;
+    outputBuffer.position(0);
+    outputBuffer.put(state, 0, pixelCount);
+    outputBuffer.position(0);
+
+    return true;
+  }
+
+  @Override
+  public int getOutputWidth(int inputWidth) {
+    return inputWidth;
+  }
+
+  @Override
+  public int getOutputHeight(int inputHeight) {
+    return inputHeight;
+  }
+
+  @Override
+  public boolean process(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
+    return detect(outputImage, inputImage);
+  }
+
+  private void ensureScratch(int width, int height) {
+    final int pixelCount = width * height;
+    if (paddedRow.length < width + 4) {
+      inputRow = new byte[width];
+      paddedRow = new int[width + 4];
+    }
+    if (horizontal.length < pixelCount) {
+      horizontal = new int[pixelCount];
+      direction = new byte[pixelCount];
+      state = new byte[pixelCount];
+      stack = new int[pixelCount];
+    }
+    if (blurred.length < (width + 2) * height) {
+      blurred = new int[(width + 2) * height];
+    }
+    if (magnitude.length < (width + 2) * (height + 2)) {
+      magnitude = new int[(width + 2) * (height + 2)];
+    }
+  }
+
+  /**
+   * Blurs the input with the separable 5x5 Gaussian kernel [1, 4, 6, 4, 1] / 16 into the blurred
+   * image, whose rows have one replicated pixel on each side.
+   */
+  private void blur(ByteBuffer inputBuffer, int width, int height) {
+    final boolean heapInput = inputBuffer.hasArray();
+    final byte[] source = heapInput ? inputBuffer.array() : inputRow;
+    final int[] row = paddedRow;
+    for (int j = 0; j < height; j++) {
+      final int inputOffset = j * width;
+      int sourceOffset = 0;
+      if (heapInput) {
+        sourceOffset = inputBuffer.arrayOffset() + inputOffset;
+      } else {
+        for (int i = 0; i < width; i++) {
+          inputRow[i] = inputBuffer.get(inputOffset + i);
+        }
+      }
+
+      // Pad the row with two replicated pixels on each side, so the loop needs no bounds checks.
+      for (int i = 0; i < width; i++) {
+        row[i + 2] = source[sourceOffset + i] & 0xFF;
+      }
+      row[0] = row[1] = row[2];
+      row[width + 3] = row[width + 2] = row[width + 1];
+
+      for (int i = 0; i < width; i++) {
+        horizontal[inputOffset + i] =
+            row[i] + 4 * row[i + 1] + 6 * row[i + 2] + 4 * row[i + 3] + row[i + 4];
+      }
+    }
+
+    final int stride = width + 2;
+    for (int j = 0; j < height; j++) {
+      final int above2 = Math.max(j - 2, 0) * width;
+      final int above1 = Math.max(j - 1, 0) * width;
+      final int center = j * width;
+      final int below1 = Math.min(j + 1, height - 1) * width;
+      final int below2 = Math.min(j + 2, height - 1) * width;
+      final int outputOffset = j * stride + 1;
+      for (int i = 0; i < width; i++) {
+        int sum =
+            horizontal[above2 + i]
+                + 4 * horizontal[above1 + i]
+                + 6 * horizontal[center + i]
+                + 4 * horizontal[below1 + i]
+                + horizontal[below2 + i];
+        blurred[outputOffset + i] = (sum + 128) >> 8;
+      }
+      blurred[outputOffset - 1] = blurred[outputOffset];
+      blurred[outputOffset + width] = blurred[outputOffset + width - 1];
+    }
+  }
+
+  /**
+   * Computes the gradient magnitude inside its zero border, and the gradient directions of the
+   * pixels above the low threshold.
+   */
+  private void gradient(int width, int height) {
+    final int stride = width + 2;
+    final int[] magnitude = this.magnitude;
+
+    // The magnitude outside of the image is 0, so it never suppresses a pixel on the border.
+    final int bottomOffset = (height + 1) * stride;
+    for (int i = 0; i < stride; i++) {
+      magnitude[i] = 0;
+      magnitude[bottomOffset + i] = 0;
+    }
+    for (int j = 1; j <= height; j++) {
+      magnitude[j * stride] = 0;
+      magnitude[j * stride + width + 1] = 0;
+    }
+
+    for (int j = 0; j < height; j++) {
+      final int aboveOffset = Math.max(j - 1, 0) * stride + 1;
+      final int rowOffset = j * stride + 1;
+      final int belowOffset = Math.min(j + 1, height - 1) * stride + 1;
+      final int magnitudeOffset = (j + 1) * stride + 1;
+      final int outputOffset = j * width;
+      for (int i = 0; i < width; i++) {
+        int a00 = blurred[aboveOffset + i - 1];
+        int a01 = blurred[aboveOffset + i];
+        int a02 = blurred[aboveOffset + i + 1];
+        int a10 = blurred[rowOffset + i - 1];
+        int a12 = blurred[rowOffset + i + 1];
+        int a20 = blurred[belowOffset + i - 1];
+        int a21 = blurred[belowOffset + i];
+        int a22 = blurred[belowOffset + i + 1];
+
+        int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+        int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+        int xAbs = Math.abs(xSum);
+        int yAbs = Math.abs(ySum);
+        int m = xAbs + yAbs;
+        magnitude[magnitudeOffset + i] = m;
+
+        // Non-maximum suppression only looks at the direction of pixels above the low threshold.
+        // Most pixels are below it, which spares their unpredictable direction branches.
+        if (m <= lowThreshold) {
+          continue;
+        }
+        byte bin;
+        if (256 * yAbs < TAN_22_5 * xAbs) {
+          bin = DIRECTION_0;
+        } else if (256 * yAbs > TAN_67_5 * xAbs) {
+          bin = DIRECTION_90;
+        } else {
+          bin = (xSum ^ ySum) >= 0 ? DIRECTION_45 : DIRECTION_135;
+        }
+        direction[outputOffset + i] = bin;
+      }
+    }
+  }
+
+  /**
+   * Keeps the pixels whose magnitude is above the low threshold and a maximum along the gradient
+   * direction, and pushes the strong ones onto the stack.
+   *
+   * @return the number of pixels on the stack.
+   */
+  private int suppressNonMaxima(int width, int height) {
+    final int stride = width + 2;
+    final int[] magnitude = this.magnitude;
+    beforeOffsets[DIRECTION_0] = -1;
+    afterOffsets[DIRECTION_0] = 1;
+    beforeOffsets[DIRECTION_45] = stride - 1;
+    afterOffsets[DIRECTION_45] = -stride + 1;
+    beforeOffsets[DIRECTION_90] = stride;
+    afterOffsets[DIRECTION_90] = -stride;
+    beforeOffsets[DIRECTION_135] = stride + 1;
+    afterOffsets[DIRECTION_135] = -stride - 1;
+
+    int stackSize = 0;
+    for (int j = 0; j < height; j++) {
+      final int rowOffset = j * width;
+      final int magnitudeOffset = (j + 1) * stride + 1;
+      for (int i = 0; i < width; i++) {
+        final int p = rowOffset + i;
+        final int q = magnitudeOffset + i;
+        final int m = magnitude[q];
+        if (m <= lowThreshold) {
+          state[p] = STATE_NONE;
+          continue;
+        }
+
+        // The neighbours along the gradient. Ties keep the first pixel of a plateau only.
+        final int bin = direction[p];
+        final int before = magnitude[q + beforeOffsets[bin]];
+        final int after = magnitude[q + afterOffsets[bin]];
+        if (m <= before || m < after) {
+          state[p] = STATE_NONE;
+        } else if (m > highThreshold) {
+          state[p] = STATE_STRONG;
+          stack[stackSize++] = p;
+        } else {
+          state[p] = STATE_WEAK;
+        }
+      }
+    }
+    return stackSize;
+  }
+
+  /** Promotes the weak pixels which are 8-connected to a strong pixel. */
+  private void trace(int width, int height, int stackSize) {
+    // Each pixel is pushed at most once, when it becomes strong, so the stack cannot overflow.
+    while (stackSize > 0) {
+      final int p = stack[--stackSize];
+      final int i = p % width;
+      final int j = p / width;
+      final int startX = Math.max(i - 1, 0);
+      final int endX = Math.min(i + 1, width - 1);
+      final int startY = Math.max(j - 1, 0);
+      final int endY = Math.min(j + 1, height - 1);
+      for (int y = startY; y <= endY; y++) {
+        for (int x = startX; x <= endX; x++) {
+          final int q = y * width + x;
+          if (state[q] == STATE_WEAK) {
+            state[q] = STATE_STRONG;
+            stack[stackSize++] = q;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+
+/**
+ * Halves the size of a grayscale image by averaging each 2x2 block of pixels. An odd last row or
+ * column is dropped; a dimension of one pixel is kept.
+ */
+public class DownscaleFilter implements LookupTableFusable {
+  private static final String TAG = DownscaleFilter.class.getSimpleName();
+
+  // Lookup table applied to the output pixels, or null.
+  private final LookupTableFilter outputFilter;
+
+  /** Creates a 2x2 downscale. */
+  public DownscaleFilter() {
+    this(null);
+  }
+
+  private DownscaleFilter(LookupTableFilter outputFilter) {
+    this.outputFilter = outputFilter;
+  }
+
+  @Override
+  public DownscaleFilter fuse(LookupTableFilter next) {
+    return new DownscaleFilter(outputFilter == null ? next : outputFilter.fuse(next));
+  }
+
+  @Override
+  public int getOutputWidth(int inputWidth) {
+    return Math.max(inputWidth / 2, 1);
+  }
+
+  @Override
+  public int getOutputHeight(int inputHeight) {
+    return Math.max(inputHeight / 2, 1);
+  }
+
+  @Override
+  public boolean process(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
+    if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_I8) {
+      Log.e(TAG, "Invalid input image!");
+      return false;
+    }
+
+    if (outputImage == null || outputImage == inputImage) {
+      Log.e(TAG, "Invalid output image!");
+      return false;
+    }
+
+    final int inputWidth = inputImage.width;
+    final int inputHeight = inputImage.height;
+    final int outputWidth = getOutputWidth(inputWidth);
+    final int outputHeight = getOutputHeight(inputHeight);
+    outputImage.resize(outputWidth, outputHeight, inputImage.format);
+
+    ByteBuffer inputBuffer = inputImage.buffer;
+    ByteBuffer outputBuffer = outputImage.buffer;
+
+    final byte[] table = outputFilter == null ? null : outputFilter.lookupTable;
+
+    // Offsets to the right and lower neighbours; zero for images which are one pixel thin.
+    final int rightStep = inputWidth > 1 ? 1 : 0;
+    final int belowStep = inputHeight > 1 ? inputWidth : 0;
+
+    for (int j = 0; j < outputHeight; j++) {
+      int inputOffset = (2 * j) * inputWidth;
+      int outputOffset = j * outputWidth;
+      for (int i = 0; i < outputWidth; i++) {
+        int offset = inputOffset + (2 * i);
+        int sum =
+            (inputBuffer.get(offset) & 0xFF)
+                + (inputBuffer.get(offset + rightStep) & 0xFF)
+                + (inputBuffer.get(offset + belowStep) & 0xFF)
+                + (inputBuffer.get(offset + belowStep + rightStep) & 0xFF);
+        int value = (sum + 2) >> 2;
+        outputBuffer.put(outputOffset + i, table == null ? (byte) value : table[value]);
+      }
+    }
+
+    return true;
+  }
+}
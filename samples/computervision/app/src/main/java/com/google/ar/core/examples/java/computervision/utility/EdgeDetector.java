@@ -18,21 +18,202 @@ package com.google.ar.core.examples.java.computervision.utility;
 import android.util.Log;
 import java.nio.ByteBuffer;
 
-/** Detects edges from input grayscale image. */
-public class EdgeDetector {
+/**
+ * Detects edges from input grayscale image.
+ *
+ * <p>The input pixels are read in place: heap buffers through their backing array, and direct
+ * buffers (such as the mapped PBO returned by {@link TextureReader#acquireFrame}) through a sliding
+ * window of three rows, so the frame is never copied as a whole. The output may be a heap or a
+ * direct buffer; direct outputs are written row by row and can be uploaded to OpenGL without an
+ * extra copy.
+ *
+ * <p>Each instance owns its scratch window, which only grows, so a detector does not allocate once
+ * it has seen the largest image width. Separate instances can be used concurrently from different
+ * threads; a single instance must not be shared between threads without external synchronization.
+ *
+ * <p>Input pixels are read as unsigned bytes. The inner loops compute the gradients without
+ * branches and are specialized per output mode, which keeps them simple enough for the compiler to
+ * unroll and vectorize:
+ *
+ * <ul>
+ *   <li>MODE_BINARY writes 0xFF on edges and 0x1F elsewhere.
+ *   <li>MODE_MAGNITUDE writes the gradient magnitude |gx| + |gy|, clamped to 255.
+ *   <li>MODE_ORIENTATION writes 0 for pixels which are not on an edge, and 1 + k for edges whose
+ *       gradient points into the 45 degree sector around k * 45 degrees, counted counter-clockwise
+ *       from the right, with 90 degrees pointing to the row above.
+ * </ul>
+ *
+ * <p>Pixels on the image border read their missing neighbours according to the border policy:
+ * BORDER_REPLICATE repeats the border pixels, BORDER_REFLECT mirrors the image at its border
+ * without repeating the border pixels, and BORDER_ZERO reads zeros. The border pixels are
+ * processed by a separate loop, so that the loops over the interior need no bounds checks.
+ *
+ * <p>An edge detector can be used as a stage of an {@link ImageFilterPipeline}.
+ */
+public class EdgeDetector implements ImageFilter {
   private static final String TAG = EdgeDetector.class.getSimpleName();
 
-  private static byte[] s_ImageBuffer = new byte[0];
-  private static int s_ImageBufferSize = 0;
+  /** Binary edge map, with 0xFF on edges and 0x1F elsewhere. */
+  public static final int MODE_BINARY = 0;
+
+  /** Gradient magnitude, clamped to 255. */
+  public static final int MODE_MAGNITUDE = 1;
+
+  /** Gradient orientation in eight bins, see the class documentation. */
+  public static final int MODE_ORIENTATION = 2;
+
+  /** Pixels outside of the image repeat the nearest border pixel. */
+  public static final int BORDER_REPLICATE = 0;
+
+  /** Pixels outside of the image mirror the image at the border, like dcb|abcd|cba. */
+  public static final int BORDER_REFLECT = 1;
+
+  /** Pixels outside of the image are zero. */
+  public static final int BORDER_ZERO = 2;
+
+  /** The default threshold of the gradient magnitude above which a pixel is on an edge. */
+  public static final int DEFAULT_THRESHOLD = 128;
+
+  // The magnitude sqrt(gx^2 + gy^2) is below 1443 for 8 bit images.
+  private static final int MAX_THRESHOLD = 1443;
+
+  // tan(22.5 degrees) and tan(67.5 degrees) in 8.8 fixed point, the bounds of the 45 degree bin.
+  private static final int TAN_22_5 = 106;
+  private static final int TAN_67_5 = 618;
+
+  private final int mode;
+  private final int border;
+  private int threshold = DEFAULT_THRESHOLD;
+  private byte[] rowWindow = new byte[0];
+
+  /** Constructor for a detector which writes binary edge maps and replicates the border. */
+  public EdgeDetector() {
+    this(MODE_BINARY);
+  }
+
+  /**
+   * Constructor for a detector which replicates the border.
+   *
+   * @param mode the output mode: MODE_BINARY, MODE_MAGNITUDE or MODE_ORIENTATION.
+   */
+  public EdgeDetector(int mode) {
+    this(mode, BORDER_REPLICATE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param mode the output mode: MODE_BINARY, MODE_MAGNITUDE or MODE_ORIENTATION.
+   * @param border the border policy: BORDER_REPLICATE, BORDER_REFLECT or BORDER_ZERO.
+   */
+  public EdgeDetector(int mode, int border) {
+    if (mode != MODE_BINARY && mode != MODE_MAGNITUDE && mode != MODE_ORIENTATION) {
+      throw new RuntimeException("Invalid edge detection mode.");
+    }
+    if (border != BORDER_REPLICATE && border != BORDER_REFLECT && border != BORDER_ZERO) {
+      throw new RuntimeException("Invalid border policy.");
+    }
+    this.mode = mode;
+    this.border = border;
+  }
+
+  /** Returns the output mode. */
+  public int getMode() {
+    return mode;
+  }
+
+  /** Returns the border policy. */
+  public int getBorder() {
+    return border;
+  }
+
+  /** Returns the edge threshold. */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Sets the threshold of the gradient magnitude sqrt(gx^2 + gy^2) above which a pixel is on an
+   * edge, for MODE_BINARY and MODE_ORIENTATION. The new threshold applies from the next call to
+   * detect(), which must not run concurrently.
+   *
+   * @param threshold the threshold, between 0 and 1443. The default is DEFAULT_THRESHOLD.
+   */
+  public void setThreshold(int threshold) {
+    if (threshold < 0 || threshold > MAX_THRESHOLD) {
+      throw new RuntimeException("Invalid edge threshold.");
+    }
+    this.threshold = threshold;
+  }
 
   /**
    * Detects edges from the input grayscale image.
    *
-   * @param outputImage Output image buffer, which has a size of width * height.
+   * @param outputImage Output image buffer. Its buffer is reused if it is writable and has room for
+   *     width * height pixels, which allows callers to supply direct or pooled buffers. Otherwise a
+   *     new direct buffer is allocated.
    * @param inputImage Input image.
    * @return False if the outputImage buffer is too small, True otherwise.
    */
-  public static boolean detect(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
+  public boolean detect(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
+    if (!prepareOutputImage(outputImage, inputImage)) {
+      return false;
+    }
+
+    sobel(outputImage.buffer, inputImage.buffer, inputImage.width, inputImage.height);
+
+    return true;
+  }
+
+  @Override
+  public int getOutputWidth(int inputWidth) {
+    return inputWidth;
+  }
+
+  @Override
+  public int getOutputHeight(int inputHeight) {
+    return inputHeight;
+  }
+
+  @Override
+  public boolean process(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
+    return detect(outputImage, inputImage);
+  }
+
+  /**
+   * Runs the Sobel filter over the whole image. Subclasses may override this to distribute the
+   * rows over several threads using {@link #sobelRows}.
+   *
+   * @param outputBuffer output pixels. Only absolute writes are issued.
+   * @param inputBuffer input pixels. Only absolute reads are issued.
+   * @param width the width of the image, in pixels.
+   * @param height the height of the image, in pixels.
+   */
+  protected void sobel(ByteBuffer outputBuffer, ByteBuffer inputBuffer, int width, int height) {
+    rowWindow = ensureRowWindow(rowWindow, width);
+    sobelRows(
+        outputBuffer,
+        inputBuffer,
+        rowWindow,
+        width,
+        height,
+        0,
+        height,
+        mode,
+        border,
+        threshold * threshold);
+  }
+
+  /**
+   * Validates the input image and updates the output image so that it matches the size and format
+   * of the input image. The output buffer is only reallocated if it is missing, read-only or too
+   * small; its limit is set to the image size.
+   *
+   * @param outputImage Output image buffer.
+   * @param inputImage Input image.
+   * @return False if either of the images is invalid, True otherwise.
+   */
+  static boolean prepareOutputImage(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
     if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_I8) {
       Log.e(TAG, "Invalid input image!");
       return false;
@@ -43,73 +224,366 @@ public class EdgeDetector {
       return false;
     }
 
-    // Recreate output image buffer if it is different from input image buffer.
-    if (outputImage.width != inputImage.width
-        || outputImage.height != inputImage.height
-        || outputImage.format != inputImage.format
-        || outputImage.buffer == null) {
-      outputImage.width = inputImage.width;
-      outputImage.height = inputImage.height;
-      outputImage.format = inputImage.format;
-      outputImage.buffer = ByteBuffer.allocate(inputImage.width * inputImage.height);
-    }
-
-    sobel(outputImage.buffer, inputImage.buffer, inputImage.width, inputImage.height);
+    // Direct buffers are used for new output images so that the result can be passed to OpenGL
+    // without copying.
+    outputImage.resize(inputImage.width, inputImage.height, inputImage.format);
 
     return true;
   }
 
-  private static void sobel(
-      ByteBuffer outputBuffer, ByteBuffer inputBuffer, int width, int height) {
-    // Adjust buffer size if necessary.
-    final int bufferSize = width * height;
-    if (s_ImageBuffer.length < bufferSize || bufferSize < s_ImageBufferSize) {
-      s_ImageBuffer = new byte[bufferSize];
-      s_ImageBufferSize = bufferSize;
+  /**
+   * Returns a row window which can hold four rows of the given width, reusing the given window if
+   * it is large enough. The first three rows hold input pixels and the last one output pixels.
+   */
+  protected static byte[] ensureRowWindow(byte[] rowWindow, int width) {
+    return rowWindow.length < 4 * width ? new byte[4 * width] : rowWindow;
+  }
+
+  /**
+   * Runs the Sobel filter over the rows [startRow, endRow) of a grayscale image, including the
+   * border pixels of these rows. Each output row depends only on the input rows directly above and
+   * below it, so disjoint row ranges can be processed concurrently, each with its own row window.
+   *
+   * @param outputBuffer output pixels, which has a size of width * height. Only absolute writes are
+   *     issued, so the buffer can be shared between threads.
+   * @param inputBuffer input pixels, which has a size of width * height. Only absolute reads are
+   *     issued, so the buffer can be shared between threads.
+   * @param rowWindow scratch for three input rows and one output row, used for buffers which have
+   *     no accessible array.
+   * @param width the width of the image, in pixels.
+   * @param height the height of the image, in pixels.
+   * @param startRow the first row to process.
+   * @param endRow the row after the last row to process.
+   * @param mode the output mode.
+   * @param border the border policy.
+   * @param squaredThreshold the square of the edge threshold.
+   */
+  protected static void sobelRows(
+      ByteBuffer outputBuffer,
+      ByteBuffer inputBuffer,
+      byte[] rowWindow,
+      int width,
+      int height,
+      int startRow,
+      int endRow,
+      int mode,
+      int border,
+      int squaredThreshold) {
+    sobelInterior(
+        outputBuffer,
+        inputBuffer,
+        rowWindow,
+        width,
+        Math.max(startRow, 1),
+        Math.min(endRow, height - 1),
+        mode,
+        squaredThreshold);
+    sobelBorder(
+        outputBuffer, inputBuffer, width, height, startRow, endRow, mode, border, squaredThreshold);
+  }
+
+  /**
+   * Runs the Sobel filter over the inner pixels of the rows [startRow, endRow), where 1 <= startRow
+   * and endRow <= height - 1. All neighbours of these pixels are inside the image.
+   */
+  private static void sobelInterior(
+      ByteBuffer outputBuffer,
+      ByteBuffer inputBuffer,
+      byte[] rowWindow,
+      int width,
+      int startRow,
+      int endRow,
+      int mode,
+      int squaredThreshold) {
+    if (startRow >= endRow || width < 3) {
+      return;
     }
 
-    inputBuffer.position(0);
-    inputBuffer.get(s_ImageBuffer);
+    // Heap buffers are accessed through their backing array in place. For direct input buffers,
+    // the rows j - 1, j and j + 1 are kept in slots (j - 1) % 3, j % 3 and (j + 1) % 3 of the
+    // window, and a single new row is loaded per output row. For direct output buffers, each row is
+    // computed into slot 3 of the window and then stored.
+    final boolean heapInput = inputBuffer.hasArray();
+    final byte[] inputPixel = heapInput ? inputBuffer.array() : rowWindow;
+    final int inputBase = heapInput ? inputBuffer.arrayOffset() : 0;
+    final boolean heapOutput = outputBuffer.hasArray();
+    final byte[] outputPixel = heapOutput ? outputBuffer.array() : rowWindow;
+    final int outputBase = heapOutput ? outputBuffer.arrayOffset() : 3 * width;
+
+    if (!heapInput) {
+      loadRow(inputBuffer, startRow - 1, rowWindow, width);
+      loadRow(inputBuffer, startRow, rowWindow, width);
+    }
 
-    outputBuffer.position(0);
-    byte[] outputPixel = outputBuffer.array();
+    for (int j = startRow; j < endRow; j++) {
+      int aboveOffset;
+      int rowOffset;
+      int belowOffset;
+      if (heapInput) {
+        rowOffset = inputBase + (j * width);
+        aboveOffset = rowOffset - width;
+        belowOffset = rowOffset + width;
+      } else {
+        loadRow(inputBuffer, j + 1, rowWindow, width);
+        aboveOffset = ((j - 1) % 3) * width;
+        rowOffset = (j % 3) * width;
+        belowOffset = ((j + 1) % 3) * width;
+      }
 
-    // Detect edges.
-    int threshold = 128 * 128;
+      int outputOffset = heapOutput ? outputBase + (j * width) : outputBase;
+      switch (mode) {
+        case MODE_MAGNITUDE:
+          sobelMagnitudeRow(
+              outputPixel, outputOffset, inputPixel, aboveOffset, rowOffset, belowOffset, width);
+          break;
+        case MODE_ORIENTATION:
+          sobelOrientationRow(
+              outputPixel,
+              outputOffset,
+              inputPixel,
+              aboveOffset,
+              rowOffset,
+              belowOffset,
+              width,
+              squaredThreshold);
+          break;
+        default:
+          sobelBinaryRow(
+              outputPixel,
+              outputOffset,
+              inputPixel,
+              aboveOffset,
+              rowOffset,
+              belowOffset,
+              width,
+              squaredThreshold);
+          break;
+      }
 
-    for (int j = 1; j < height - 1; j++) {
-      for (int i = 1; i < width - 1; i++) {
-        // Offset of the pixel at [i, j] of the input image.
-        int offset = (j * width) + i;
+      if (!heapOutput) {
+        storeRow(outputBuffer, j, rowWindow, outputBase, width);
+      }
+    }
+  }
 
-        // Neighbour pixels around the pixel at [i, j].
-        int a00 = s_ImageBuffer[offset - width - 1];
-        int a01 = s_ImageBuffer[offset - width];
-        int a02 = s_ImageBuffer[offset - width + 1];
-        int a10 = s_ImageBuffer[offset - 1];
-        int a12 = s_ImageBuffer[offset + 1];
-        int a20 = s_ImageBuffer[offset + width - 1];
-        int a21 = s_ImageBuffer[offset + width];
-        int a22 = s_ImageBuffer[offset + width + 1];
+  /**
+   * Runs the Sobel filter over the border pixels within the rows [startRow, endRow): all pixels of
+   * the first and last row of the image, and the first and last pixel of the other rows. Pixels
+   * are read one by one and their neighbours are looked up according to the border policy.
+   */
+  private static void sobelBorder(
+      ByteBuffer outputBuffer,
+      ByteBuffer inputBuffer,
+      int width,
+      int height,
+      int startRow,
+      int endRow,
+      int mode,
+      int border,
+      int squaredThreshold) {
+    for (int j = startRow; j < endRow; j++) {
+      final boolean borderRow = j == 0 || j == height - 1;
+      // In inner rows, only column 0 and column width - 1 are border pixels.
+      final int step = borderRow ? 1 : Math.max(width - 1, 1);
+      for (int i = 0; i < width; i += step) {
+        int a00 = borderPixel(inputBuffer, width, height, i - 1, j - 1, border);
+        int a01 = borderPixel(inputBuffer, width, height, i, j - 1, border);
+        int a02 = borderPixel(inputBuffer, width, height, i + 1, j - 1, border);
+        int a10 = borderPixel(inputBuffer, width, height, i - 1, j, border);
+        int a12 = borderPixel(inputBuffer, width, height, i + 1, j, border);
+        int a20 = borderPixel(inputBuffer, width, height, i - 1, j + 1, border);
+        int a21 = borderPixel(inputBuffer, width, height, i, j + 1, border);
+        int a22 = borderPixel(inputBuffer, width, height, i + 1, j + 1, border);
 
-        // Sobel X filter:
-        //   -1, 0, 1,
-        //   -2, 0, 2,
-        //   -1, 0, 1
         int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
-
-        // Sobel Y filter:
-        //    1, 2, 1,
-        //    0, 0, 0,
-        //   -1, -2, -1
         int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
 
-        if ((xSum * xSum) + (ySum * ySum) > threshold) {
-          outputPixel[(j * width) + i] = (byte) 0xFF;
-        } else {
-          outputPixel[(j * width) + i] = (byte) 0x1F;
+        int value;
+        switch (mode) {
+          case MODE_MAGNITUDE:
+            value = magnitudeValue(xSum, ySum);
+            break;
+          case MODE_ORIENTATION:
+            value = orientationValue(xSum, ySum, squaredThreshold);
+            break;
+          default:
+            value = binaryValue(xSum, ySum, squaredThreshold);
+            break;
         }
+        outputBuffer.put(j * width + i, (byte) value);
+      }
+    }
+  }
+
+  /** Returns the input pixel at (i, j), which may be outside of the image. */
+  private static int borderPixel(
+      ByteBuffer inputBuffer, int width, int height, int i, int j, int border) {
+    if (border == BORDER_ZERO) {
+      if (i < 0 || i >= width || j < 0 || j >= height) {
+        return 0;
       }
+    } else if (border == BORDER_REFLECT) {
+      i = i < 0 ? -i : (i >= width ? 2 * width - 2 - i : i);
+      j = j < 0 ? -j : (j >= height ? 2 * height - 2 - j : j);
+    }
+    // Replicate, also for images too small to reflect.
+    i = Math.min(Math.max(i, 0), width - 1);
+    j = Math.min(Math.max(j, 0), height - 1);
+    return inputBuffer.get(j * width + i) & 0xFF;
+  }
+
+  /** Copies input row j into slot j % 3 of the row window. */
+  private static void loadRow(ByteBuffer inputBuffer, int j, byte[] rowWindow, int width) {
+    int inputOffset = j * width;
+    int windowOffset = (j % 3) * width;
+    for (int i = 0; i < width; i++) {
+      rowWindow[windowOffset + i] = inputBuffer.get(inputOffset + i);
     }
   }
+
+  /**
+   * Copies the inner pixels of a computed row to output row j. The first and last pixels are
+   * written by the border loop.
+   */
+  private static void storeRow(
+      ByteBuffer outputBuffer, int j, byte[] rowWindow, int windowOffset, int width) {
+    int outputOffset = j * width;
+    for (int i = 1; i < width - 1; i++) {
+      outputBuffer.put(outputOffset + i, rowWindow[windowOffset + i]);
+    }
+  }
+
+  /**
+   * Runs the Sobel filter over the inner pixels of a single row and writes a binary edge map.
+   *
+   * @param outputPixel output pixels.
+   * @param outputOffset offset of the first pixel of the output row.
+   * @param inputPixel input pixels.
+   * @param aboveOffset offset of the first pixel of the row above.
+   * @param rowOffset offset of the first pixel of the row.
+   * @param belowOffset offset of the first pixel of the row below.
+   * @param width the width of the image, in pixels.
+   * @param squaredThreshold the square of the edge threshold.
+   */
+  private static void sobelBinaryRow(
+      byte[] outputPixel,
+      int outputOffset,
+      byte[] inputPixel,
+      int aboveOffset,
+      int rowOffset,
+      int belowOffset,
+      int width,
+      int squaredThreshold) {
+    for (int i = 1; i < width - 1; i++) {
+      // Neighbour pixels around the pixel at column i.
+      int a00 = inputPixel[aboveOffset + i - 1] & 0xFF;
+      int a01 = inputPixel[aboveOffset + i] & 0xFF;
+      int a02 = inputPixel[aboveOffset + i + 1] & 0xFF;
+      int a10 = inputPixel[rowOffset + i - 1] & 0xFF;
+      int a12 = inputPixel[rowOffset + i + 1] & 0xFF;
+      int a20 = inputPixel[belowOffset + i - 1] & 0xFF;
+      int a21 = inputPixel[belowOffset + i] & 0xFF;
+      int a22 = inputPixel[belowOffset + i + 1] & 0xFF;
+
+      // Sobel X filter:
+      //   -1, 0, 1,
+      //   -2, 0, 2,
+      //   -1, 0, 1
+      int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+
+      // Sobel Y filter:
+      //    1, 2, 1,
+      //    0, 0, 0,
+      //   -1, -2, -1
+      int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+
+      outputPixel[outputOffset + i] = (byte) binaryValue(xSum, ySum, squaredThreshold);
+    }
+  }
+
+  /** Like sobelBinaryRow(), but writes the clamped gradient magnitude |gx| + |gy|. */
+  private static void sobelMagnitudeRow(
+      byte[] outputPixel,
+      int outputOffset,
+      byte[] inputPixel,
+      int aboveOffset,
+      int rowOffset,
+      int belowOffset,
+      int width) {
+    for (int i = 1; i < width - 1; i++) {
+      int a00 = inputPixel[aboveOffset + i - 1] & 0xFF;
+      int a01 = inputPixel[aboveOffset + i] & 0xFF;
+      int a02 = inputPixel[aboveOffset + i + 1] & 0xFF;
+      int a10 = inputPixel[rowOffset + i - 1] & 0xFF;
+      int a12 = inputPixel[rowOffset + i + 1] & 0xFF;
+      int a20 = inputPixel[belowOffset + i - 1] & 0xFF;
+      int a21 = inputPixel[belowOffset + i] & 0xFF;
+      int a22 = inputPixel[belowOffset + i + 1] & 0xFF;
+
+      int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+      int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+
+      outputPixel[outputOffset + i] = (byte) magnitudeValue(xSum, ySum);
+    }
+  }
+
+  /** Like sobelBinaryRow(), but writes the orientation bin of edge pixels. */
+  private static void sobelOrientationRow(
+      byte[] outputPixel,
+      int outputOffset,
+      byte[] inputPixel,
+      int aboveOffset,
+      int rowOffset,
+      int belowOffset,
+      int width,
+      int squaredThreshold) {
+    for (int i = 1; i < width - 1; i++) {
+      int a00 = inputPixel[aboveOffset + i - 1] & 0xFF;
+      int a01 = inputPixel[aboveOffset + i] & 0xFF;
+      int a02 = inputPixel[aboveOffset + i + 1] & 0xFF;
+      int a10 = inputPixel[rowOffset + i - 1] & 0xFF;
+      int a12 = inputPixel[rowOffset + i + 1] & 0xFF;
+      int a20 = inputPixel[belowOffset + i - 1] & 0xFF;
+      int a21 = inputPixel[belowOffset + i] & 0xFF;
+      int a22 = inputPixel[belowOffset + i + 1] & 0xFF;
+
+      int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+      int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+
+      outputPixel[outputOffset + i] = (byte) orientationValue(xSum, ySum, squaredThreshold);
+    }
+  }
+
+  /** Returns 0xFF if the gradient exceeds the threshold and 0x1F otherwise, without branches. */
+  private static int binaryValue(int xSum, int ySum, int squaredThreshold) {
+    // All ones if the pixel is on an edge, zero otherwise.
+    int edgeMask = (squaredThreshold - (xSum * xSum) - (ySum * ySum)) >> 31;
+    return 0x1F | (edgeMask & 0xE0);
+  }
+
+  /** Returns |gx| + |gy| clamped to 255, without branches. */
+  private static int magnitudeValue(int xSum, int ySum) {
+    int xSign = xSum >> 31;
+    int ySign = ySum >> 31;
+    int magnitude = ((xSum ^ xSign) - xSign) + ((ySum ^ ySign) - ySign);
+    return Math.min(magnitude, 255);
+  }
+
+  /** Returns 1 + the orientation bin if the gradient exceeds the threshold, 0 otherwise. */
+  private static int orientationValue(int xSum, int ySum, int squaredThreshold) {
+    int xSign = xSum >> 31;
+    int ySign = ySum >> 31;
+    int xAbs = (xSum ^ xSign) - xSign;
+    int yAbs = (ySum ^ ySign) - ySign;
+
+    // Bin in the first quadrant: 0 below 22.5 degrees, 1 up to 67.5 degrees, 2 above. The
+    // differences cannot overflow, so their sign bit is the comparison result.
+    int bin = ((TAN_22_5 * xAbs - 256 * yAbs) >>> 31) + ((TAN_67_5 * xAbs - 256 * yAbs) >>> 31);
+    // Mirror to the left half (4 - bin), then to the lower half (-bin), modulo 8.
+    bin = ((bin ^ xSign) - xSign) + (4 & xSign);
+    bin = ((bin ^ ySign) - ySign) & 7;
+
+    int edgeMask = (squaredThreshold - (xSum * xSum) - (ySum * ySum)) >> 31;
+    return (bin + 1) & edgeMask;
+  }
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+
+/**
+ * Detects FAST-9 corners in grayscale images.
+ *
+ * <p>A pixel is a corner if at least 9 contiguous pixels on the circle of 16 pixels around it, at a
+ * radius of 3, are all brighter than the pixel plus the threshold, or all darker than the pixel
+ * minus the threshold. Most pixels are rejected after testing the four pixels straight above,
+ * below, left and right of it, since any such arc covers at least two of them. The score of a
+ * corner is the larger of the summed excess brightness of the brighter and of the darker circle
+ * pixels beyond the threshold. Pixels closer than 3 pixels to the image border are not tested.
+ *
+ * <p>Corners are suppressed on a grid: only the highest scoring corner of each cell is kept, so
+ * the number of keypoints is bounded by the number of cells and they spread over the image. The
+ * keypoints are written in cell order into a preallocated {@link Keypoints} object.
+ *
+ * <p>The grid rows are split into bands, each processed by one thread into its own cells. Heap
+ * input buffers are read in place; direct buffers are copied band by band, with a halo of 3 rows,
+ * into scratch arrays which only grow. Apart from growing these arrays, detect() does not allocate.
+ * A detector must not be shared between threads without external synchronization.
+ */
+public class FastCornerDetector {
+  private static final String TAG = FastCornerDetector.class.getSimpleName();
+
+  /** The default intensity threshold. */
+  public static final int DEFAULT_THRESHOLD = 20;
+
+  private static final int RADIUS = 3;
+  private static final int ARC_LENGTH = 9;
+
+  // Circle pixels, clockwise from the top.
+  private static final int[] CIRCLE_X = {0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3, -3, -3, -2, -1};
+  private static final int[] CIRCLE_Y = {-3, -3, -2, -1, 0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3};
+
+  private final int threshold;
+  private final int cellSize;
+  private final BandExecutor executor;
+
+  // Offsets of the circle pixels for the current image width.
+  private final int[] circleOffsets = new int[CIRCLE_X.length];
+
+  // Best corner of each grid cell: its score, or 0 if none, and its pixel index.
+  private int[] cellScores = new int[0];
+  private int[] cellPixels = new int[0];
+
+  // Per band copies of direct input buffers.
+  private final byte[][] bandPixels;
+
+  // The image of the current detection.
+  private ByteBuffer inputBuffer;
+  private int width;
+  private int height;
+  private int cellColumns;
+  private int cellRows;
+
+  private final BandExecutor.Task detectBand =
+      new BandExecutor.Task() {
+        @Override
+        public void run(int band, int bandCount) {
+          detectCellRows(
+              band,
+              (int) ((long) cellRows * band / bandCount),
+              (int) ((long) cellRows * (band + 1) / bandCount));
+        }
+      };
+
+  /**
+   * Constructor.
+   *
+   * @param threshold the intensity threshold. Lower values find more, weaker corners.
+   * @param cellSize the size of the suppression grid cells, in pixels.
+   * @param threadCount the number of threads working on an image, including the calling thread.
+   */
+  public FastCornerDetector(int threshold, int cellSize, int threadCount) {
+    if (threshold < 1 || threshold > 255 || cellSize < 1) {
+      throw new RuntimeException("Invalid threshold or cell size.");
+    }
+    this.threshold = threshold;
+    this.cellSize = cellSize;
+    executor = new BandExecutor(threadCount, TAG);
+    bandPixels = new byte[executor.getBandCount()][0];
+  }
+
+  /**
+   * Returns the maximum number of keypoints detect() can return for an image, which is the number
+   * of grid cells.
+   */
+  public int getMaxKeypointCount(int width, int height) {
+    return ((width + cellSize - 1) / cellSize) * ((height + cellSize - 1) / cellSize);
+  }
+
+  /**
+   * Detects corners in a grayscale image.
+   *
+   * @param keypoints Output keypoints. If it has less capacity than getMaxKeypointCount(), the
+   *     keypoints of the first cells are kept.
+   * @param inputImage Input grayscale image.
+   * @return False if the input image is invalid, True otherwise.
+   */
+  public boolean detect(Keypoints keypoints, CameraImageBuffer inputImage) {
+    if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_I8) {
+      Log.e(TAG, "Invalid input image!");
+      return false;
+    }
+
+    if (keypoints == null) {
+      Log.e(TAG, "Invalid keypoints!");
+      return false;
+    }
+
+    width = inputImage.width;
+    height = inputImage.height;
+    cellColumns = (width + cellSize - 1) / cellSize;
+    cellRows = (height + cellSize - 1) / cellSize;
+    final int cellCount = cellColumns * cellRows;
+    if (cellScores.length < cellCount) {
+      cellScores = new int[cellCount];
+      cellPixels = new int[cellCount];
+    }
+    for (int i = 0; i < CIRCLE_X.length; i++) {
+      circleOffsets[i] = CIRCLE_Y[i] * width + CIRCLE_X[i];
+    }
+
+    inputBuffer = inputImage.buffer;
+    try {
+      executor.execute(detectBand);
+    } finally {
+      inputBuffer = null;
+    }
+
+    int count = 0;
+    final int capacity = keypoints.getCapacity();
+    for (int cell = 0; cell < cellCount && count < capacity; cell++) {
+      if (cellScores[cell] > 0) {
+        keypoints.x[count] = cellPixels[cell] % width;
+        keypoints.y[count] = cellPixels[cell] / width;
+        keypoints.score[count] = cellScores[cell];
+        count++;
+      }
+    }
+    keypoints.count = count;
+
+    return true;
+  }
+
+  /** Releases the worker threads. The detector cannot be used after this call. */
+  public void release() {
+    executor.release();
+  }
+
+  /** Finds the best corner of each cell in the grid rows [startCellRow, endCellRow). */
+  private void detectCellRows(int band, int startCellRow, int endCellRow) {
+    for (int cell = startCellRow * cellColumns; cell < endCellRow * cellColumns; cell++) {
+      cellScores[cell] = 0;
+    }
+
+    // The rows to test, excluding the border.
+    final int startRow = Math.max(startCellRow * cellSize, RADIUS);
+    final int endRow = Math.min(endCellRow * cellSize, height - RADIUS);
+    if (startRow >= endRow || width <= 2 * RADIUS) {
+      return;
+    }
+
+    // Pixel (i, j) is at pixels[base + j * width + i].
+    final byte[] pixels;
+    final int base;
+    if (inputBuffer.hasArray()) {
+      pixels = inputBuffer.array();
+      base = inputBuffer.arrayOffset();
+    } else {
+      final int firstRow = startRow - RADIUS;
+      final int size = (endRow - startRow + 2 * RADIUS) * width;
+      if (bandPixels[band].length < size) {
+        bandPixels[band] = new byte[size];
+      }
+      pixels = bandPixels[band];
+      final int inputOffset = firstRow * width;
+      for (int p = 0; p < size; p++) {
+        pixels[p] = inputBuffer.get(inputOffset + p);
+      }
+      base = -firstRow * width;
+    }
+
+    final int[] offsets = circleOffsets;
+    final int up = offsets[0];
+    final int right = offsets[4];
+    final int down = offsets[8];
+    final int left = offsets[12];
+
+    for (int j = startRow; j < endRow; j++) {
+      final int cellRowOffset = (j / cellSize) * cellColumns;
+      final int rowOffset = base + j * width;
+      for (int i = RADIUS; i < width - RADIUS; i++) {
+        final int p = rowOffset + i;
+        final int center = pixels[p] & 0xFF;
+        final int bright = center + threshold;
+        final int dark = center - threshold;
+
+        // An arc of 9 covers at least two of the four compass pixels.
+        final int n = pixels[p + up] & 0xFF;
+        final int e = pixels[p + right] & 0xFF;
+        final int s = pixels[p + down] & 0xFF;
+        final int w = pixels[p + left] & 0xFF;
+        final int brightCount =
+            (n > bright ? 1 : 0)
+                + (e > bright ? 1 : 0)
+                + (s > bright ? 1 : 0)
+                + (w > bright ? 1 : 0);
+        final int darkCount =
+            (n < dark ? 1 : 0) + (e < dark ? 1 : 0) + (s < dark ? 1 : 0) + (w < dark ? 1 : 0);
+        if (brightCount < 2 && darkCount < 2) {
+          continue;
+        }
+
+        int brightMask = 0;
+        int darkMask = 0;
+        int brightScore = 0;
+        int darkScore = 0;
+        for (int k = 0; k < 16; k++) {
+          final int v = pixels[p + offsets[k]] & 0xFF;
+          if (v > bright) {
+            brightMask |= 1 << k;
+            brightScore += v - bright;
+          } else if (v < dark) {
+            darkMask |= 1 << k;
+            darkScore += dark - v;
+          }
+        }
+        if (!hasArc(brightMask) && !hasArc(darkMask)) {
+          continue;
+        }
+
+        final int score = Math.max(brightScore, darkScore);
+        final int cell = cellRowOffset + i / cellSize;
+        if (score > cellScores[cell]) {
+          cellScores[cell] = score;
+          cellPixels[cell] = j * width + i;
+        }
+      }
+    }
+  }
+
+  /** Returns whether a 16 bit circle mask has ARC_LENGTH contiguous set bits, wrapping around. */
+  private static boolean hasArc(int mask) {
+    int run = mask | (mask << 16);
+    // After k steps, bit b is set if bits b to b + k are all set.
+    for (int k = 1; k < ARC_LENGTH; k++) {
+      run &= run >>> 1;
+    }
+    return run != 0;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+/**
+ * Fences which tell whether the GPU has finished the commands issued before them. {@link
+ * TextureReader} implements this with OpenGL sync objects; {@link FrameRing} only sees this
+ * interface, so its state machine does not need a GPU. All methods are called from the OpenGL
+ * thread.
+ */
+interface FrameFence {
+  /**
+   * Inserts a fence after the commands issued so far.
+   *
+   * @return the fence handle, or 0 if no fence could be created.
+   */
+  long insert();
+
+  /**
+   * Checks whether the commands before the fence have completed, without blocking.
+   *
+   * @param fence a handle returned from insert().
+   * @return true if the fence is signaled.
+   */
+  boolean isSignaled(long fence);
+
+  /**
+   * Deletes a fence.
+   *
+   * @param fence a handle returned from insert().
+   */
+  void delete(long fence);
+}
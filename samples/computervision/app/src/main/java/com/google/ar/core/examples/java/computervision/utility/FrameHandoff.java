@@ -0,0 +1,296 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands frames read by a {@link TextureReader} over to worker threads, so that image processing
+ * does not run on the OpenGL thread.
+ *
+ * <p>Call update() once per rendered frame on the OpenGL thread. It submits a new readback, polls
+ * the previous one without blocking and, once the pixels are available, passes them to the
+ * workers through a bounded lock-free queue. In MODE_LEND the mapped buffer itself is lent to the
+ * worker; the worker returns it when done and the OpenGL thread unmaps it on the next update(). In
+ * MODE_COPY the pixels are copied and the buffer is unmapped right away, which keeps the reader's
+ * buffers free at the cost of a copy. If the queue is full, the frame is dropped.
+ *
+ * <p>In MODE_LEND every frame queued or being processed holds a reader buffer, so the reader should
+ * be created with at least queueCapacity + workerCount + 1 buffers.
+ */
+public class FrameHandoff {
+  private static final String TAG = FrameHandoff.class.getSimpleName();
+
+  /** Lend the mapped reader buffer to the workers. */
+  public static final int MODE_LEND = 0;
+
+  /** Copy the pixels and release the reader buffer right away. */
+  public static final int MODE_COPY = 1;
+
+  /** Callback which processes frames on a worker thread. */
+  public interface FrameConsumer {
+    /**
+     * Processes a frame. Called on one of the worker threads.
+     *
+     * @param image the frame. It must not be used after this call returns.
+     */
+    void onFrame(CameraImageBuffer image);
+  }
+
+  /** A frame on its way to a worker and back. */
+  private static class Item {
+    int bufferIndex = -1;
+    CameraImageBuffer image;
+    final CameraImageBuffer copy = new CameraImageBuffer();
+  }
+
+  private final TextureReader reader;
+  private final FrameConsumer consumer;
+  private final int mode;
+  private final BoundedQueue<Item> pendingItems;
+  private final BoundedQueue<Item> returnedItems;
+  private final Worker[] workers;
+  private final AtomicLong processedFrameCount = new AtomicLong();
+  private volatile boolean released = false;
+
+  // Only used on the OpenGL thread.
+  private final Item[] freeItems;
+  private int freeItemCount;
+  private int submittedIndex = -1;
+  private long droppedFrameCount = 0;
+
+  /** Worker thread which processes queued frames. */
+  private class Worker extends Thread {
+    Worker(int index) {
+      super(TAG + "-" + index);
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (!released) {
+        Item item = pendingItems.poll();
+        if (item == null) {
+          LockSupport.park(this);
+          continue;
+        }
+
+        try {
+          consumer.onFrame(item.image);
+        } catch (Throwable t) {
+          Log.e(TAG, "Exception while processing a frame", t);
+        }
+        processedFrameCount.incrementAndGet();
+
+        // Cannot fail: the queue has room for every item.
+        returnedItems.offer(item);
+      }
+    }
+  }
+
+  /**
+   * Constructor. The workers are started right away.
+   *
+   * @param reader the texture reader, created with enough buffers for the chosen mode.
+   * @param consumer the callback which processes the frames.
+   * @param queueCapacity the maximum number of frames waiting for a worker.
+   * @param workerCount the number of worker threads.
+   * @param mode either MODE_LEND or MODE_COPY.
+   */
+  public FrameHandoff(
+      TextureReader reader, FrameConsumer consumer, int queueCapacity, int workerCount, int mode) {
+    if (queueCapacity < 1 || workerCount < 1) {
+      throw new RuntimeException("Invalid queue capacity or worker count.");
+    }
+    if (mode != MODE_LEND && mode != MODE_COPY) {
+      throw new RuntimeException("Invalid handoff mode.");
+    }
+
+    this.reader = reader;
+    this.consumer = consumer;
+    this.mode = mode;
+
+    // Every worker holds at most one item, so this many items can be in flight.
+    final int itemCount = queueCapacity + workerCount;
+    pendingItems = new BoundedQueue<>(queueCapacity);
+    returnedItems = new BoundedQueue<>(itemCount);
+    freeItems = new Item[itemCount];
+    for (int i = 0; i < itemCount; i++) {
+      freeItems[i] = new Item();
+    }
+    freeItemCount = itemCount;
+
+    workers = new Worker[workerCount];
+    for (int i = 0; i < workerCount; i++) {
+      workers[i] = new Worker(i);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Advances the handoff by one frame. This needs to be called from the OpenGL rendering thread,
+   * once per frame.
+   *
+   * @param textureId the id of the input OpenGL texture.
+   * @param textureWidth width of the texture in pixels.
+   * @param textureHeight height of the texture in pixels.
+   * @return true if the current frame is being read back.
+   */
+  public boolean update(int textureId, int textureWidth, int textureHeight) {
+    return update(textureId, textureWidth, textureHeight, true);
+  }
+
+  /**
+   * Advances the handoff by one frame like update(textureId, textureWidth, textureHeight), but
+   * only reads back the current frame if requested. Frames read earlier are still handed over, so
+   * this can be used to analyze only some of the rendered frames, see {@link AnalysisScheduler}.
+   *
+   * @param textureId the id of the input OpenGL texture.
+   * @param textureWidth width of the texture in pixels.
+   * @param textureHeight height of the texture in pixels.
+   * @param submit whether to read back the current frame.
+   * @return true if the current frame is being read back. False if it was not requested, or if it
+   *     was requested but the previous readback is still pending or no reader buffer was free.
+   */
+  public boolean update(int textureId, int textureWidth, int textureHeight, boolean submit) {
+    if (released) {
+      return false;
+    }
+
+    // Unmap the buffers the workers are done with.
+    Item item;
+    while ((item = returnedItems.poll()) != null) {
+      recycle(item);
+    }
+
+    // Hand over the frame read earlier once the GPU has finished reading it.
+    if (submittedIndex >= 0) {
+      CameraImageBuffer image = reader.tryAcquireFrame(submittedIndex);
+      if (image != null) {
+        handOff(submittedIndex, image);
+        submittedIndex = -1;
+      }
+    }
+
+    // Start reading the current frame. This is skipped while all reader buffers are lent out.
+    if (!submit || submittedIndex >= 0) {
+      return false;
+    }
+    submittedIndex = reader.submitFrame(textureId, textureWidth, textureHeight);
+    return submittedIndex >= 0;
+  }
+
+  /**
+   * Returns the number of frames which were read back but dropped because the workers were busy.
+   * This needs to be called from the OpenGL rendering thread.
+   */
+  public long getDroppedFrameCount() {
+    return droppedFrameCount;
+  }
+
+  /** Returns the number of frames processed by the workers. */
+  public long getProcessedFrameCount() {
+    return processedFrameCount.get();
+  }
+
+  /**
+   * Stops the workers, waiting for the frames being processed, and releases all reader buffers held
+   * by the handoff. Frames still queued are dropped.
+   */
+  public void release() {
+    released = true;
+    for (Worker worker : workers) {
+      LockSupport.unpark(worker);
+    }
+
+    boolean interrupted = false;
+    for (Worker worker : workers) {
+      while (worker.isAlive()) {
+        try {
+          worker.join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    Item item;
+    while ((item = pendingItems.poll()) != null) {
+      releaseBuffer(item);
+    }
+    while ((item = returnedItems.poll()) != null) {
+      releaseBuffer(item);
+    }
+    if (submittedIndex >= 0) {
+      reader.releaseFrame(submittedIndex);
+      submittedIndex = -1;
+    }
+  }
+
+  private void handOff(int bufferIndex, CameraImageBuffer image) {
+    if (freeItemCount == 0) {
+      reader.releaseFrame(bufferIndex);
+      droppedFrameCount++;
+      return;
+    }
+    Item item = freeItems[--freeItemCount];
+
+    if (mode == MODE_COPY) {
+      CameraImageBuffer copy = item.copy;
+      copy.resize(image.width, image.height, image.format);
+      ByteBuffer source = image.buffer;
+      source.position(0);
+      copy.buffer.put(source);
+      copy.buffer.position(0);
+      reader.releaseFrame(bufferIndex);
+      item.image = copy;
+    } else {
+      item.bufferIndex = bufferIndex;
+      item.image = image;
+    }
+
+    if (!pendingItems.offer(item)) {
+      recycle(item);
+      droppedFrameCount++;
+      return;
+    }
+
+    // Wake idle workers; a worker which is busy just polls the queue once more.
+    for (Worker worker : workers) {
+      LockSupport.unpark(worker);
+    }
+  }
+
+  private void recycle(Item item) {
+    releaseBuffer(item);
+    freeItems[freeItemCount++] = item;
+  }
+
+  private void releaseBuffer(Item item) {
+    if (item.bufferIndex >= 0) {
+      reader.releaseFrame(item.bufferIndex);
+      item.bufferIndex = -1;
+    }
+    item.image = null;
+  }
+}
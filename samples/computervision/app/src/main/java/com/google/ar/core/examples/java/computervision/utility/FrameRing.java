@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+/**
+ * Book-keeping for the frame buffers of a {@link TextureReader}. This class holds no OpenGL state,
+ * it only tracks which buffer is in which stage of its life cycle:
+ *
+ * <p>FREE -> SUBMITTED (submitFrame) -> ACQUIRED (acquireFrame) -> FREE (releaseFrame).
+ *
+ * <p>A buffer released from a thread other than the OpenGL thread goes to RELEASED instead, and
+ * becomes FREE once the OpenGL thread has cleaned it up. Buffers are handed out in ring order.
+ *
+ * <p>A fence is inserted after the readback of each submitted buffer. A SUBMITTED buffer is ready
+ * once its fence is signaled, which is polled without blocking. Fences are only touched by the
+ * methods documented to run on the OpenGL thread. This class is thread-safe.
+ */
+final class FrameRing {
+  // The policies for a full ring. TextureReader exposes them as its FULL_POLICY_* constants; they
+  // live here so that this class does not depend on TextureReader.
+  static final int FULL_POLICY_DROP_OLDEST = 0;
+  static final int FULL_POLICY_SKIP = 1;
+  static final int FULL_POLICY_BLOCK = 2;
+
+  static final int STATE_FREE = 0;
+  static final int STATE_SUBMITTED = 1;
+  static final int STATE_ACQUIRED = 2;
+  static final int STATE_RELEASED = 3;
+
+  private final FrameFence frameFence;
+  private final int[] state;
+  private final long[] submitSequence;
+  private final long[] fence;
+  private final boolean[] ready;
+  private final boolean[] mapped;
+  private long nextSequence = 0;
+  private int nextIndex = 0;
+
+  FrameRing(int bufferCount, FrameFence frameFence) {
+    if (bufferCount < 1) {
+      throw new RuntimeException("Invalid buffer count.");
+    }
+    this.frameFence = frameFence;
+    state = new int[bufferCount];
+    submitSequence = new long[bufferCount];
+    fence = new long[bufferCount];
+    ready = new boolean[bufferCount];
+    mapped = new boolean[bufferCount];
+  }
+
+  synchronized int getState(int bufferIndex) {
+    checkIndex(bufferIndex);
+    return state[bufferIndex];
+  }
+
+  /**
+   * Picks a buffer for a new submission and marks it as SUBMITTED. Must be called on the OpenGL
+   * thread.
+   *
+   * @param fullPolicy one of the FULL_POLICY_* values, applied when no buffer is FREE.
+   * @return the buffer index, or -1 if the submission should be skipped. With FULL_POLICY_BLOCK,
+   *     -1 means that a buffer was released from another thread and has to be unmapped by the
+   *     caller before trying again.
+   * @throws InterruptedException if interrupted while waiting with FULL_POLICY_BLOCK.
+   */
+  synchronized int submit(int fullPolicy) throws InterruptedException {
+    int bufferIndex = findFree();
+    while (bufferIndex == -1) {
+      if (fullPolicy == FULL_POLICY_DROP_OLDEST) {
+        // Reuse the oldest buffer which has not been acquired yet; its frame is dropped.
+        bufferIndex = findOldestSubmitted();
+        if (bufferIndex == -1) {
+          return -1;
+        }
+      } else if (fullPolicy == FULL_POLICY_BLOCK) {
+        // Only buffers which are acquired can be released by somebody else.
+        if (!hasState(STATE_ACQUIRED)) {
+          throw new RuntimeException("No buffer available.");
+        }
+        wait();
+        if (hasState(STATE_RELEASED)) {
+          // The caller has to unmap the released buffers first.
+          return -1;
+        }
+        bufferIndex = findFree();
+      } else {
+        return -1;
+      }
+    }
+
+    // A dropped frame may still have its fence.
+    deleteFence(bufferIndex);
+    state[bufferIndex] = STATE_SUBMITTED;
+    submitSequence[bufferIndex] = nextSequence++;
+    ready[bufferIndex] = false;
+    nextIndex = (bufferIndex + 1) % state.length;
+    return bufferIndex;
+  }
+
+  /**
+   * Inserts the fence of a SUBMITTED buffer after its readback has been issued. Must be called on
+   * the OpenGL thread.
+   */
+  synchronized void insertFence(int bufferIndex) {
+    checkSubmitted(bufferIndex);
+    deleteFence(bufferIndex);
+    fence[bufferIndex] = frameFence.insert();
+  }
+
+  /**
+   * Checks without blocking whether the readback of a SUBMITTED buffer has completed. Buffers
+   * without a fence are always ready. Must be called on the OpenGL thread.
+   */
+  synchronized boolean isReady(int bufferIndex) {
+    checkSubmitted(bufferIndex);
+    if (!ready[bufferIndex]
+        && (fence[bufferIndex] == 0 || frameFence.isSignaled(fence[bufferIndex]))) {
+      ready[bufferIndex] = true;
+      deleteFence(bufferIndex);
+    }
+    return ready[bufferIndex];
+  }
+
+  /** Marks a SUBMITTED buffer as ACQUIRED. Must be called on the OpenGL thread. */
+  synchronized void acquire(int bufferIndex) {
+    checkSubmitted(bufferIndex);
+    deleteFence(bufferIndex);
+    state[bufferIndex] = STATE_ACQUIRED;
+    mapped[bufferIndex] = true;
+  }
+
+  /**
+   * Releases a SUBMITTED or ACQUIRED buffer.
+   *
+   * @param bufferIndex the buffer to release.
+   * @param onGlThread whether the caller runs on the OpenGL thread. If so, the buffer becomes FREE
+   *     right away and the caller has to unmap it if this returns true. Otherwise the buffer goes
+   *     to RELEASED until {@link #finishRelease} is called on the OpenGL thread.
+   * @return whether the buffer is mapped and has to be unmapped.
+   */
+  synchronized boolean release(int bufferIndex, boolean onGlThread) {
+    checkIndex(bufferIndex);
+    if (state[bufferIndex] != STATE_SUBMITTED && state[bufferIndex] != STATE_ACQUIRED) {
+      throw new RuntimeException("Invalid buffer index.");
+    }
+    if (!onGlThread) {
+      state[bufferIndex] = STATE_RELEASED;
+      notifyAll();
+      return mapped[bufferIndex];
+    }
+    return free(bufferIndex);
+  }
+
+  /**
+   * Marks a RELEASED buffer as FREE. Must be called on the OpenGL thread.
+   *
+   * @return whether the buffer is mapped and has to be unmapped by the caller.
+   */
+  synchronized boolean finishRelease(int bufferIndex) {
+    checkIndex(bufferIndex);
+    if (state[bufferIndex] != STATE_RELEASED) {
+      throw new RuntimeException("Invalid buffer index.");
+    }
+    return free(bufferIndex);
+  }
+
+  /** Deletes all fences. Must be called on the OpenGL thread. */
+  synchronized void deleteFences() {
+    for (int i = 0; i < state.length; i++) {
+      deleteFence(i);
+    }
+  }
+
+  private boolean free(int bufferIndex) {
+    boolean wasMapped = mapped[bufferIndex];
+    deleteFence(bufferIndex);
+    state[bufferIndex] = STATE_FREE;
+    mapped[bufferIndex] = false;
+    notifyAll();
+    return wasMapped;
+  }
+
+  private void deleteFence(int bufferIndex) {
+    if (fence[bufferIndex] != 0) {
+      frameFence.delete(fence[bufferIndex]);
+      fence[bufferIndex] = 0;
+    }
+  }
+
+  private int findFree() {
+    for (int i = 0; i < state.length; i++) {
+      int bufferIndex = (nextIndex + i) % state.length;
+      if (state[bufferIndex] == STATE_FREE) {
+        return bufferIndex;
+      }
+    }
+    return -1;
+  }
+
+  private int findOldestSubmitted() {
+    int oldestIndex = -1;
+    for (int i = 0; i < state.length; i++) {
+      if (state[i] == STATE_SUBMITTED
+          && (oldestIndex == -1 || submitSequence[i] < submitSequence[oldestIndex])) {
+        oldestIndex = i;
+      }
+    }
+    return oldestIndex;
+  }
+
+  private boolean hasState(int bufferState) {
+    for (int i = 0; i < state.length; i++) {
+      if (state[i] == bufferState) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void checkIndex(int bufferIndex) {
+    if (bufferIndex < 0 || bufferIndex >= state.length) {
+      throw new RuntimeException("Invalid buffer index.");
+    }
+  }
+
+  private void checkSubmitted(int bufferIndex) {
+    checkIndex(bufferIndex);
+    if (state[bufferIndex] != STATE_SUBMITTED) {
+      throw new RuntimeException("Invalid buffer index.");
+    }
+  }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+
+/**
+ * Computes luminance statistics of grayscale camera frames, such as the I8 output of {@link
+ * TextureReader}, for exposure and quality gating: a 256 bin histogram, percentiles, mean, standard
+ * deviation (RMS contrast), percentile contrast, and sharpness as the variance of the Laplacian.
+ *
+ * <p>Only every stride-th pixel of every stride-th row is sampled, see setStride(). The Laplacian
+ * of a sample is taken from its direct neighbours at full resolution, and only for samples which
+ * are not on the image border. The sampled rows are split into bands, each accumulated by one
+ * thread into its own histogram and sums, which are merged at the end. Heap input buffers are read
+ * in place; for direct buffers, the rows around each sampled row are copied into a scratch array
+ * per band, which only grows. Apart from growing these arrays, compute() does not allocate.
+ *
+ * <p>The results stay valid until the next call to compute(). An instance must not be shared
+ * between threads without external synchronization.
+ */
+public class FrameStatistics {
+  private static final String TAG = FrameStatistics.class.getSimpleName();
+
+  private static final int BIN_COUNT = 256;
+
+  /** The default sampling stride, which samples a quarter of the pixels. */
+  public static final int DEFAULT_STRIDE = 2;
+
+  private int stride = DEFAULT_STRIDE;
+  private final BandExecutor executor;
+
+  // Per band accumulators: histograms, and the sum and square sum of the Laplacian.
+  private final int[][] bandHistograms;
+  private final long[] bandLaplacianSums;
+  private final long[] bandLaplacianSquareSums;
+  private final int[] bandLaplacianCounts;
+
+  // Per band copies of the rows above, at and below a sampled row of a direct input buffer.
+  private final byte[][] bandRows;
+
+  // Merged results.
+  private final int[] histogram = new int[BIN_COUNT];
+  private int sampleCount = 0;
+  private float mean = 0;
+  private float standardDeviation = 0;
+  private float sharpness = 0;
+
+  // The image of the current computation.
+  private ByteBuffer inputBuffer;
+  private int width;
+  private int height;
+
+  private final BandExecutor.Task accumulate =
+      new BandExecutor.Task() {
+        @Override
+        public void run(int band, int bandCount) {
+          // Split the sampled rows, not the image rows, so that bands get equal work.
+          final int sampledRows = (height + stride - 1) / stride;
+          accumulateRows(
+              band,
+              (int) ((long) sampledRows * band / bandCount) * stride,
+              (int) ((long) sampledRows * (band + 1) / bandCount) * stride);
+        }
+      };
+
+  /**
+   * Constructor. The sampling stride is DEFAULT_STRIDE.
+   *
+   * @param threadCount the number of threads accumulating a frame, including the calling thread.
+   */
+  public FrameStatistics(int threadCount) {
+    executor = new BandExecutor(threadCount, TAG);
+
+    final int bandCount = executor.getBandCount();
+    bandHistograms = new int[bandCount][BIN_COUNT];
+    bandLaplacianSums = new long[bandCount];
+    bandLaplacianSquareSums = new long[bandCount];
+    bandLaplacianCounts = new int[bandCount];
+    bandRows = new byte[bandCount][0];
+  }
+
+  /**
+   * Sets the sampling stride used by the following calls to compute().
+   *
+   * @param stride the sampling step in both directions, in pixels. 1 samples every pixel.
+   */
+  public void setStride(int stride) {
+    if (stride < 1) {
+      throw new RuntimeException("Invalid sampling stride.");
+    }
+    this.stride = stride;
+  }
+
+  /**
+   * Computes the statistics of a grayscale image.
+   *
+   * @param inputImage Input grayscale image.
+   * @return False if the input image is invalid, True otherwise.
+   */
+  public boolean compute(CameraImageBuffer inputImage) {
+    if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_I8) {
+      Log.e(TAG, "Invalid input image!");
+      return false;
+    }
+
+    width = inputImage.width;
+    height = inputImage.height;
+    inputBuffer = inputImage.buffer;
+    if (!inputBuffer.hasArray()) {
+      for (int band = 0; band < bandRows.length; band++) {
+        if (bandRows[band].length < 3 * width) {
+          bandRows[band] = new byte[3 * width];
+        }
+      }
+    }
+    try {
+      executor.execute(accumulate);
+    } finally {
+      inputBuffer = null;
+    }
+
+    // Merge the bands.
+    final int bandCount = bandHistograms.length;
+    long laplacianSum = 0;
+    long laplacianSquareSum = 0;
+    long laplacianCount = 0;
+    for (int bin = 0; bin < BIN_COUNT; bin++) {
+      int count = 0;
+      for (int band = 0; band < bandCount; band++) {
+        count += bandHistograms[band][bin];
+      }
+      histogram[bin] = count;
+    }
+    for (int band = 0; band < bandCount; band++) {
+      laplacianSum += bandLaplacianSums[band];
+      laplacianSquareSum += bandLaplacianSquareSums[band];
+      laplacianCount += bandLaplacianCounts[band];
+    }
+
+    long sum = 0;
+    long squareSum = 0;
+    sampleCount = 0;
+    for (int bin = 0; bin < BIN_COUNT; bin++) {
+      sampleCount += histogram[bin];
+      sum += (long) histogram[bin] * bin;
+      squareSum += (long) histogram[bin] * bin * bin;
+    }
+
+    mean = 0;
+    standardDeviation = 0;
+    if (sampleCount > 0) {
+      mean = (float) sum / sampleCount;
+      float variance = (float) squareSum / sampleCount - mean * mean;
+      standardDeviation = (float) Math.sqrt(Math.max(variance, 0));
+    }
+
+    sharpness = 0;
+    if (laplacianCount > 0) {
+      double laplacianMean = (double) laplacianSum / laplacianCount;
+      sharpness =
+          (float) ((double) laplacianSquareSum / laplacianCount - laplacianMean * laplacianMean);
+    }
+
+    return true;
+  }
+
+  /** Returns the sampling stride. */
+  public int getStride() {
+    return stride;
+  }
+
+  /** Returns the number of sampled pixels. */
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * Copies the histogram of the sampled pixels.
+   *
+   * @param outputHistogram an array of at least 256 entries, which receives the number of samples
+   *     of each value.
+   */
+  public void getHistogram(int[] outputHistogram) {
+    System.arraycopy(histogram, 0, outputHistogram, 0, BIN_COUNT);
+  }
+
+  /**
+   * Returns a percentile of the sampled pixel values.
+   *
+   * @param fraction the fraction of samples, between 0 and 1, which are at or below the returned
+   *     value. For example, 0.5 returns the median.
+   * @return the smallest value such that at least the given fraction of samples is at or below it.
+   */
+  public int getPercentile(float fraction) {
+    if (fraction < 0 || fraction > 1) {
+      throw new RuntimeException("Invalid percentile.");
+    }
+    final long target = (long) Math.ceil(fraction * sampleCount);
+    long count = 0;
+    for (int bin = 0; bin < BIN_COUNT; bin++) {
+      count += histogram[bin];
+      if (count >= target && count > 0) {
+        return bin;
+      }
+    }
+    return 0;
+  }
+
+  /** Returns the mean of the sampled pixel values. */
+  public float getMean() {
+    return mean;
+  }
+
+  /** Returns the standard deviation of the sampled pixel values, also known as RMS contrast. */
+  public float getStandardDeviation() {
+    return standardDeviation;
+  }
+
+  /**
+   * Returns the spread between the 5th and the 95th percentile divided by 255, a contrast measure
+   * between 0 and 1 which ignores outliers such as specular highlights.
+   */
+  public float getContrast() {
+    return (getPercentile(0.95f) - getPercentile(0.05f)) / 255.0f;
+  }
+
+  /**
+   * Returns the variance of the Laplacian 4c - l - r - u - d over the sampled inner pixels. Blurry
+   * frames have a low value; the scale depends on the scene, so compare it over time or against a
+   * threshold tuned for the use case.
+   */
+  public float getSharpness() {
+    return sharpness;
+  }
+
+  /** Releases the worker threads. The object cannot be used after this call. */
+  public void release() {
+    executor.release();
+  }
+
+  /** Accumulates the sampled pixels of the rows [startRow, endRow) into the band's accumulators. */
+  private void accumulateRows(int band, int startRow, int endRow) {
+    final int[] bandHistogram = bandHistograms[band];
+    for (int bin = 0; bin < BIN_COUNT; bin++) {
+      bandHistogram[bin] = 0;
+    }
+    long laplacianSum = 0;
+    long laplacianSquareSum = 0;
+    int laplacianCount = 0;
+
+    // Heap buffers are read through their backing array. For direct buffers, the rows above, at
+    // and below a sampled row are copied to slots 0, 1 and 2 of the band's rows first.
+    final ByteBuffer input = inputBuffer;
+    final boolean heapInput = input.hasArray();
+    final byte[] pixels = heapInput ? input.array() : bandRows[band];
+    final int base = heapInput ? input.arrayOffset() : 0;
+
+    for (int j = startRow; j < endRow && j < height; j += stride) {
+      final boolean borderRow = j == 0 || j == height - 1;
+      int rowOffset;
+      if (heapInput) {
+        rowOffset = base + j * width;
+      } else {
+        rowOffset = width;
+        copyRow(input, j, pixels, rowOffset);
+        if (!borderRow) {
+          copyRow(input, j - 1, pixels, 0);
+          copyRow(input, j + 1, pixels, 2 * width);
+        }
+      }
+
+      if (borderRow) {
+        for (int i = 0; i < width; i += stride) {
+          bandHistogram[pixels[rowOffset + i] & 0xFF]++;
+        }
+        continue;
+      }
+
+      final int aboveOffset = heapInput ? rowOffset - width : 0;
+      final int belowOffset = heapInput ? rowOffset + width : 2 * width;
+
+      // Column 0 has no left neighbour.
+      bandHistogram[pixels[rowOffset] & 0xFF]++;
+      int i = stride;
+      for (; i < width - 1; i += stride) {
+        final int center = pixels[rowOffset + i] & 0xFF;
+        bandHistogram[center]++;
+        final int laplacian =
+            4 * center
+                - (pixels[rowOffset + i - 1] & 0xFF)
+                - (pixels[rowOffset + i + 1] & 0xFF)
+                - (pixels[aboveOffset + i] & 0xFF)
+                - (pixels[belowOffset + i] & 0xFF);
+        laplacianSum += laplacian;
+        laplacianSquareSum += laplacian * laplacian;
+        laplacianCount++;
+      }
+      // The last column has no right neighbour.
+      if (i == width - 1) {
+        bandHistogram[pixels[rowOffset + i] & 0xFF]++;
+      }
+    }
+
+    bandLaplacianSums[band] = laplacianSum;
+    bandLaplacianSquareSums[band] = laplacianSquareSum;
+    bandLaplacianCounts[band] = laplacianCount;
+  }
+
+  /** Copies row j of a direct input buffer to rows[offset]. */
+  private void copyRow(ByteBuffer input, int j, byte[] rows, int offset) {
+    final int inputOffset = j * width;
+    for (int i = 0; i < width; i++) {
+      rows[offset + i] = input.get(inputOffset + i);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+
+/**
+ * CPU reference of the edge filters which {@link TextureReader} runs on the GPU.
+ *
+ * <p>Given the I8 image read back without a filter, detect() computes the same edge map as a reader
+ * created with FILTER_SOBEL or FILTER_GAUSSIAN_SOBEL for the same frame. Pixels outside of the
+ * image are replicated from the border, like the GPU sampling clamped to the texture edge; if the
+ * reader crops the texture to keep the aspect ratio, the border pixels may therefore differ.
+ *
+ * <p>This is meant for verification and favors clarity over speed.
+ */
+public class GpuEdgeReference {
+  private static final String TAG = GpuEdgeReference.class.getSimpleName();
+
+  /**
+   * Detects edges from the input grayscale image.
+   *
+   * @param outputImage Output image buffer, resized to the input image size.
+   * @param inputImage Input grayscale image.
+   * @param filter either TextureReader.FILTER_SOBEL or TextureReader.FILTER_GAUSSIAN_SOBEL.
+   * @param format the output format, either CameraImageBuffer.IMAGE_FORMAT_I8 or
+   *     CameraImageBuffer.IMAGE_FORMAT_BINARY.
+   * @return False if either of the images is invalid, True otherwise.
+   */
+  public static boolean detect(
+      CameraImageBuffer outputImage, CameraImageBuffer inputImage, int filter, int format) {
+    if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_I8) {
+      Log.e(TAG, "Invalid input image!");
+      return false;
+    }
+
+    if (outputImage == null
+        || (format != CameraImageBuffer.IMAGE_FORMAT_I8
+            && format != CameraImageBuffer.IMAGE_FORMAT_BINARY)) {
+      Log.e(TAG, "Invalid output image!");
+      return false;
+    }
+
+    if (filter != TextureReader.FILTER_SOBEL && filter != TextureReader.FILTER_GAUSSIAN_SOBEL) {
+      throw new RuntimeException("Invalid filter.");
+    }
+
+    final int width = inputImage.width;
+    final int height = inputImage.height;
+    final boolean prefilter = filter == TextureReader.FILTER_GAUSSIAN_SOBEL;
+    final ByteBuffer input = inputImage.buffer;
+    outputImage.resize(width, height, format);
+    final ByteBuffer output = outputImage.buffer;
+    final int rowBytes = (width + 7) / 8;
+
+    for (int j = 0; j < height; j++) {
+      int packed = 0;
+      for (int i = 0; i < width; i++) {
+        boolean edge = isEdge(input, width, height, i, j, prefilter);
+
+        if (format == CameraImageBuffer.IMAGE_FORMAT_I8) {
+          output.put(j * width + i, edge ? (byte) 0xFF : (byte) 0x1F);
+          continue;
+        }
+
+        // The leftmost pixel goes to the most significant bit.
+        packed = (packed << 1) | (edge ? 1 : 0);
+        if ((i & 7) == 7 || i == width - 1) {
+          packed <<= 7 - (i & 7);
+          output.put(j * rowBytes + i / 8, (byte) packed);
+          packed = 0;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Expands a packed binary edge map into a grayscale edge map with 0xFF on edges and 0x1F
+   * elsewhere, which can be displayed as overlay.
+   *
+   * @param outputImage Output image buffer, resized to the input image size.
+   * @param inputImage Input binary image.
+   * @return False if either of the images is invalid, True otherwise.
+   */
+  public static boolean unpack(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
+    if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_BINARY) {
+      Log.e(TAG, "Invalid input image!");
+      return false;
+    }
+
+    if (outputImage == null) {
+      Log.e(TAG, "Invalid output image!");
+      return false;
+    }
+
+    final int width = inputImage.width;
+    final int height = inputImage.height;
+    final int rowBytes = (width + 7) / 8;
+    outputImage.resize(width, height, CameraImageBuffer.IMAGE_FORMAT_I8);
+
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < width; i++) {
+        int packed = inputImage.buffer.get(j * rowBytes + i / 8);
+        boolean edge = (packed & (0x80 >> (i & 7))) != 0;
+        outputImage.buffer.put(j * width + i, edge ? (byte) 0xFF : (byte) 0x1F);
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isEdge(
+      ByteBuffer input, int width, int height, int i, int j, boolean prefilter) {
+    int a00 = sample(input, width, height, i - 1, j - 1, prefilter);
+    int a01 = sample(input, width, height, i, j - 1, prefilter);
+    int a02 = sample(input, width, height, i + 1, j - 1, prefilter);
+    int a10 = sample(input, width, height, i - 1, j, prefilter);
+    int a12 = sample(input, width, height, i + 1, j, prefilter);
+    int a20 = sample(input, width, height, i - 1, j + 1, prefilter);
+    int a21 = sample(input, width, height, i, j + 1, prefilter);
+    int a22 = sample(input, width, height, i + 1, j + 1, prefilter);
+
+    int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+    int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+
+    return (xSum * xSum) + (ySum * ySum) > 128 * 128;
+  }
+
+  /**
+   * Returns the Sobel input at (i, j). With the prefilter, this is the Gaussian filtered value,
+   * computed from the border-replicated image even for positions outside of the image, like the
+   * shader does.
+   */
+  private static int sample(
+      ByteBuffer input, int width, int height, int i, int j, boolean prefilter) {
+    if (!prefilter) {
+      return gray(input, width, height, i, j);
+    }
+
+    // Gaussian filter:
+    //   1, 2, 1,
+    //   2, 4, 2,
+    //   1, 2, 1  / 16
+    int sum =
+        gray(input, width, height, i - 1, j - 1)
+            + (2 * gray(input, width, height, i, j - 1))
+            + gray(input, width, height, i + 1, j - 1)
+            + (2 * gray(input, width, height, i - 1, j))
+            + (4 * gray(input, width, height, i, j))
+            + (2 * gray(input, width, height, i + 1, j))
+            + gray(input, width, height, i - 1, j + 1)
+            + (2 * gray(input, width, height, i, j + 1))
+            + gray(input, width, height, i + 1, j + 1);
+    return (sum + 8) >> 4;
+  }
+
+  private static int gray(ByteBuffer input, int width, int height, int i, int j) {
+    int x = Math.min(Math.max(i, 0), width - 1);
+    int y = Math.min(Math.max(j, 0), height - 1);
+    return input.get(y * width + x) & 0xFF;
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+/** A stage of an {@link ImageFilterPipeline} which turns one camera image into another. */
+public interface ImageFilter {
+  /**
+   * Returns the width of the output image for an input image of the given width.
+   *
+   * @param inputWidth the width of the input image, in pixels.
+   * @return the width of the output image, in pixels.
+   */
+  int getOutputWidth(int inputWidth);
+
+  /**
+   * Returns the height of the output image for an input image of the given height.
+   *
+   * @param inputHeight the height of the input image, in pixels.
+   * @return the height of the output image, in pixels.
+   */
+  int getOutputHeight(int inputHeight);
+
+  /**
+   * Processes the input image. The output image is resized with {@link CameraImageBuffer#resize},
+   * so its buffer is only reallocated if it is too small.
+   *
+   * @param outputImage Output image buffer.
+   * @param inputImage Input image.
+   * @return False if the input image is not supported, True otherwise.
+   */
+  boolean process(CameraImageBuffer outputImage, CameraImageBuffer inputImage);
+}
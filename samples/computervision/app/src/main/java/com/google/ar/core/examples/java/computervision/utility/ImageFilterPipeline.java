@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import java.util.ArrayList;
+
+/**
+ * Chain of image filters applied to every camera frame, for example:
+ *
+ * <pre>
+ *   pipeline = new ImageFilterPipeline()
+ *       .addStage(new DownscaleFilter())
+ *       .addStage(new BoxBlurFilter())
+ *       .addStage(new EdgeDetector())
+ *       .addStage(new ThresholdFilter(128));
+ *   CameraImageBuffer result = pipeline.process(imageBuffer);
+ * </pre>
+ *
+ * <p>Intermediate images come from a {@link CameraImageBufferPool} and are returned to it as soon
+ * as the next stage has consumed them, so a running pipeline does not allocate. A {@link
+ * LookupTableFilter} stage, such as a {@link ThresholdFilter}, is fused into the previous stage if
+ * that stage supports it: adjacent lookup tables become one table, and a table following a {@link
+ * BoxBlurFilter} or {@link DownscaleFilter} is applied in its write loop, which saves a pass over
+ * the image. Other lookup table stages, for example after an {@link EdgeDetector}, run in place on
+ * the output of the previous stage, which saves a buffer but still costs one pass.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class ImageFilterPipeline {
+  private final CameraImageBufferPool pool;
+  private final ArrayList<ImageFilter> stages = new ArrayList<>();
+  private final ArrayList<ImageFilter> fusedStages = new ArrayList<>();
+  private boolean fusedStagesValid = true;
+  private CameraImageBuffer result;
+
+  /** Creates a pipeline with its own buffer pool. */
+  public ImageFilterPipeline() {
+    this(new CameraImageBufferPool());
+  }
+
+  /**
+   * Creates a pipeline which takes its intermediate images from the given pool.
+   *
+   * @param pool the pool, which may be shared with other pipelines.
+   */
+  public ImageFilterPipeline(CameraImageBufferPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Appends a stage to the pipeline.
+   *
+   * @param stage the filter to apply after the current last stage.
+   * @return this pipeline.
+   */
+  public ImageFilterPipeline addStage(ImageFilter stage) {
+    if (stage == null) {
+      throw new RuntimeException("Stage cannot be null.");
+    }
+    stages.add(stage);
+    fusedStagesValid = false;
+    return this;
+  }
+
+  /**
+   * Runs all stages on the input image. The input image is not modified.
+   *
+   * @param inputImage Input image.
+   * @return the output of the last stage, or the input image if there are no stages, or null if a
+   *     stage failed. The returned image is owned by the pipeline and stays valid until the next
+   *     call to process() or release().
+   */
+  public CameraImageBuffer process(CameraImageBuffer inputImage) {
+    release();
+    if (!fusedStagesValid) {
+      fuseStages();
+    }
+
+    CameraImageBuffer current = inputImage;
+    for (int i = 0; i < fusedStages.size(); i++) {
+      ImageFilter stage = fusedStages.get(i);
+
+      // Per-pixel stages can overwrite an intermediate image, but never the caller's input.
+      if (stage instanceof LookupTableFilter && current != inputImage) {
+        if (!stage.process(current, current)) {
+          pool.release(current);
+          return null;
+        }
+        continue;
+      }
+
+      CameraImageBuffer next =
+          pool.acquire(
+              stage.getOutputWidth(current.width),
+              stage.getOutputHeight(current.height),
+              current.format);
+      boolean succeeded = stage.process(next, current);
+      if (current != inputImage) {
+        pool.release(current);
+      }
+      if (!succeeded) {
+        pool.release(next);
+        return null;
+      }
+      current = next;
+    }
+
+    if (current != inputImage) {
+      result = current;
+    }
+    return current;
+  }
+
+  /** Returns the image returned by the last call to process() to the pool. */
+  public void release() {
+    if (result != null) {
+      pool.release(result);
+      result = null;
+    }
+  }
+
+  /** Rebuilds the list of stages to run, fusing lookup table filters into the previous stage. */
+  private void fuseStages() {
+    fusedStages.clear();
+    for (int i = 0; i < stages.size(); i++) {
+      ImageFilter stage = stages.get(i);
+      int last = fusedStages.size() - 1;
+      if (stage instanceof LookupTableFilter
+          && last >= 0
+          && fusedStages.get(last) instanceof LookupTableFusable) {
+        LookupTableFusable previous = (LookupTableFusable) fusedStages.get(last);
+        fusedStages.set(last, previous.fuse((LookupTableFilter) stage));
+      } else {
+        fusedStages.add(stage);
+      }
+    }
+    fusedStagesValid = true;
+  }
+}
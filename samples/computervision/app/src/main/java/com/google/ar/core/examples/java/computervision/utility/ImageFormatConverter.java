@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts RGBA images to and from the packed formats which {@link TextureReader} can produce on
+ * the GPU: I8, NV21, I420 and RGB565.
+ *
+ * <p>YUV uses full range BT.601, like JPEG and the reader's shaders. Chroma is the average of each
+ * 2x2 pixel block; blocks at the right and bottom border of images with odd sizes are averaged
+ * over the pixels they cover. When unpacking, every pixel of a block takes the chroma of its block.
+ *
+ * <p>This class only depends on java.nio, so it can be used outside of Android. Invalid arguments
+ * throw a RuntimeException.
+ */
+public class ImageFormatConverter {
+  // BT.601 coefficients in 16.16 fixed point.
+  private static final int Y_R = 19595;
+  private static final int Y_G = 38470;
+  private static final int Y_B = 7471;
+  private static final int U_R = -11059;
+  private static final int U_G = -21709;
+  private static final int U_B = 32768;
+  private static final int V_R = 32768;
+  private static final int V_G = -27439;
+  private static final int V_B = -5329;
+  private static final int R_V = 91881;
+  private static final int G_U = -22554;
+  private static final int G_V = -46802;
+  private static final int B_U = 116130;
+  private static final int HALF = 1 << 15;
+
+  /**
+   * Packs an RGBA image.
+   *
+   * @param outputImage Output image buffer, resized to the input image size.
+   * @param inputImage Input RGBA image.
+   * @param format the output format. One of CameraImageBuffer.IMAGE_FORMAT_I8, IMAGE_FORMAT_NV21,
+   *     IMAGE_FORMAT_I420 or IMAGE_FORMAT_RGB565.
+   */
+  public static void pack(CameraImageBuffer outputImage, CameraImageBuffer inputImage, int format) {
+    if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_RGBA) {
+      throw new RuntimeException("Invalid input image.");
+    }
+
+    final int width = inputImage.width;
+    final int height = inputImage.height;
+    final ByteBuffer input = inputImage.buffer;
+    outputImage.resize(width, height, format);
+    final ByteBuffer output = outputImage.buffer;
+
+    switch (format) {
+      case CameraImageBuffer.IMAGE_FORMAT_I8:
+        packLuma(output, input, width, height);
+        break;
+      case CameraImageBuffer.IMAGE_FORMAT_NV21:
+        packLuma(output, input, width, height);
+        packChroma(output, input, width, height, true);
+        break;
+      case CameraImageBuffer.IMAGE_FORMAT_I420:
+        packLuma(output, input, width, height);
+        packChroma(output, input, width, height, false);
+        break;
+      case CameraImageBuffer.IMAGE_FORMAT_RGB565:
+        packRgb565(output, input, width, height);
+        break;
+      default:
+        throw new RuntimeException("Invalid image format.");
+    }
+  }
+
+  /**
+   * Unpacks an image into RGBA.
+   *
+   * @param outputImage Output image buffer, resized to the input image size.
+   * @param inputImage Input image. Its format is one of CameraImageBuffer.IMAGE_FORMAT_I8,
+   *     IMAGE_FORMAT_NV21, IMAGE_FORMAT_I420 or IMAGE_FORMAT_RGB565.
+   */
+  public static void unpack(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
+    if (inputImage == null) {
+      throw new RuntimeException("Invalid input image.");
+    }
+
+    final int width = inputImage.width;
+    final int height = inputImage.height;
+    final ByteBuffer input = inputImage.buffer;
+    final int format = inputImage.format;
+    if (format != CameraImageBuffer.IMAGE_FORMAT_I8
+        && format != CameraImageBuffer.IMAGE_FORMAT_NV21
+        && format != CameraImageBuffer.IMAGE_FORMAT_I420
+        && format != CameraImageBuffer.IMAGE_FORMAT_RGB565) {
+      throw new RuntimeException("Invalid image format.");
+    }
+    outputImage.resize(width, height, CameraImageBuffer.IMAGE_FORMAT_RGBA);
+    final ByteBuffer output = outputImage.buffer;
+
+    final int chromaWidth = (width + 1) / 2;
+    final int chromaHeight = (height + 1) / 2;
+    final int lumaSize = width * height;
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < width; i++) {
+        final int pixel = j * width + i;
+        int r;
+        int g;
+        int b;
+        if (format == CameraImageBuffer.IMAGE_FORMAT_RGB565) {
+          int value = (input.get(2 * pixel) & 0xFF) | ((input.get(2 * pixel + 1) & 0xFF) << 8);
+          r = ((value >> 11) * 255 + 15) / 31;
+          g = (((value >> 5) & 0x3F) * 255 + 31) / 63;
+          b = ((value & 0x1F) * 255 + 15) / 31;
+        } else {
+          int y = input.get(pixel) & 0xFF;
+          int u = 128;
+          int v = 128;
+          int chroma = (j / 2) * chromaWidth + (i / 2);
+          if (format == CameraImageBuffer.IMAGE_FORMAT_NV21) {
+            v = input.get(lumaSize + 2 * chroma) & 0xFF;
+            u = input.get(lumaSize + 2 * chroma + 1) & 0xFF;
+          } else if (format == CameraImageBuffer.IMAGE_FORMAT_I420) {
+            u = input.get(lumaSize + chroma) & 0xFF;
+            v = input.get(lumaSize + chromaWidth * chromaHeight + chroma) & 0xFF;
+          }
+          u -= 128;
+          v -= 128;
+          r = clamp(y + ((R_V * v + HALF) >> 16));
+          g = clamp(y + ((G_U * u + G_V * v + HALF) >> 16));
+          b = clamp(y + ((B_U * u + HALF) >> 16));
+        }
+
+        output.put(4 * pixel, (byte) r);
+        output.put(4 * pixel + 1, (byte) g);
+        output.put(4 * pixel + 2, (byte) b);
+        output.put(4 * pixel + 3, (byte) 0xFF);
+      }
+    }
+  }
+
+  /** Writes the luma plane to the start of the output buffer. */
+  private static void packLuma(ByteBuffer output, ByteBuffer input, int width, int height) {
+    final int pixelCount = width * height;
+    for (int pixel = 0; pixel < pixelCount; pixel++) {
+      int r = input.get(4 * pixel) & 0xFF;
+      int g = input.get(4 * pixel + 1) & 0xFF;
+      int b = input.get(4 * pixel + 2) & 0xFF;
+      output.put(pixel, (byte) ((Y_R * r + Y_G * g + Y_B * b + HALF) >> 16));
+    }
+  }
+
+  /**
+   * Writes the chroma planes after the luma plane, either interleaved as V, U pairs or as a U plane
+   * followed by a V plane.
+   */
+  private static void packChroma(
+      ByteBuffer output, ByteBuffer input, int width, int height, boolean interleaved) {
+    final int chromaWidth = (width + 1) / 2;
+    final int chromaHeight = (height + 1) / 2;
+    final int lumaSize = width * height;
+    final int planeSize = chromaWidth * chromaHeight;
+
+    for (int cj = 0; cj < chromaHeight; cj++) {
+      for (int ci = 0; ci < chromaWidth; ci++) {
+        // Average the block, which covers fewer pixels at the right and bottom border.
+        int rSum = 0;
+        int gSum = 0;
+        int bSum = 0;
+        int count = 0;
+        for (int j = 2 * cj; j < Math.min(2 * cj + 2, height); j++) {
+          for (int i = 2 * ci; i < Math.min(2 * ci + 2, width); i++) {
+            int pixel = j * width + i;
+            rSum += input.get(4 * pixel) & 0xFF;
+            gSum += input.get(4 * pixel + 1) & 0xFF;
+            bSum += input.get(4 * pixel + 2) & 0xFF;
+            count++;
+          }
+        }
+        int r = (rSum + count / 2) / count;
+        int g = (gSum + count / 2) / count;
+        int b = (bSum + count / 2) / count;
+        int u = clamp(((U_R * r + U_G * g + U_B * b + HALF) >> 16) + 128);
+        int v = clamp(((V_R * r + V_G * g + V_B * b + HALF) >> 16) + 128);
+
+        int chroma = cj * chromaWidth + ci;
+        if (interleaved) {
+          output.put(lumaSize + 2 * chroma, (byte) v);
+          output.put(lumaSize + 2 * chroma + 1, (byte) u);
+        } else {
+          output.put(lumaSize + chroma, (byte) u);
+          output.put(lumaSize + planeSize + chroma, (byte) v);
+        }
+      }
+    }
+  }
+
+  private static void packRgb565(ByteBuffer output, ByteBuffer input, int width, int height) {
+    final int pixelCount = width * height;
+    for (int pixel = 0; pixel < pixelCount; pixel++) {
+      int r = ((input.get(4 * pixel) & 0xFF) * 31 + 127) / 255;
+      int g = ((input.get(4 * pixel + 1) & 0xFF) * 63 + 127) / 255;
+      int b = ((input.get(4 * pixel + 2) & 0xFF) * 31 + 127) / 255;
+      int value = (r << 11) | (g << 5) | b;
+      output.put(2 * pixel, (byte) value);
+      output.put(2 * pixel + 1, (byte) (value >> 8));
+    }
+  }
+
+  private static int clamp(int value) {
+    return Math.min(Math.max(value, 0), 255);
+  }
+}
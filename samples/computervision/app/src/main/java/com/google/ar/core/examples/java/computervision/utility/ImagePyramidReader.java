@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads an image pyramid from the camera texture. Level 0 is the image of the size given to
+ * create(), every further level has half the width and height of the previous one.
+ *
+ * <p>All levels of a frame are rendered into one frame buffer and read back with a single
+ * glReadPixels() into one pixel buffer, where they are stored one after the other. Acquiring a
+ * frame returns one CameraImageBuffer per level, whose buffer is a view of the mapped pixel buffer.
+ * Downscaled pixels average four bilinear samples, which approximates a box filter over the
+ * pixels they cover.
+ *
+ * <p>The usage follows {@link TextureReader}: submit a frame, acquire it once the pixels are
+ * available, and release it when done. Like the frames of a TextureReader, the level images must
+ * not be used after the frame has been released.
+ */
+public class ImagePyramidReader {
+  private final TextureReader reader = new TextureReader();
+  private int levelCount = 0;
+  private int imageFormat = CameraImageBuffer.IMAGE_FORMAT_RGBA;
+  private int imageWidth = 0;
+  private int imageHeight = 0;
+  private CameraImageBuffer[][] levelImages = null;
+  private int[] levelOffsets = null;
+  private int[] levelSizes = null;
+
+  /**
+   * Creates the pyramid reader. This needs to be called from the OpenGL rendering thread.
+   *
+   * @param format the format of the output pixel data, either CameraImageBuffer.IMAGE_FORMAT_RGBA
+   *     or CameraImageBuffer.IMAGE_FORMAT_I8.
+   * @param width the width of level 0. It has to be a multiple of 2^(levelCount - 1).
+   * @param height the height of level 0. It has to be a multiple of 4^(levelCount - 1), since each
+   *     level takes a quarter of the frame buffer rows of the previous one.
+   * @param keepAspectRatio whether or not to keep aspect ratio. If true, the camera texture is
+   *     cropped like for TextureReader.
+   * @param levelCount the number of pyramid levels, including level 0.
+   * @param bufferCount the number of frame buffers to use.
+   * @param fullPolicy what submitFrame() does if no buffer is free. One of the
+   *     TextureReader.FULL_POLICY_* values.
+   */
+  public void create(
+      int format,
+      int width,
+      int height,
+      Boolean keepAspectRatio,
+      int levelCount,
+      int bufferCount,
+      int fullPolicy) {
+    reader.create(
+        format,
+        width,
+        height,
+        keepAspectRatio,
+        bufferCount,
+        fullPolicy,
+        TextureReader.FILTER_NONE,
+        levelCount);
+
+    this.levelCount = levelCount;
+    imageFormat = format;
+    imageWidth = width;
+    imageHeight = height;
+    levelImages = new CameraImageBuffer[bufferCount][levelCount];
+    levelOffsets = new int[levelCount];
+    levelSizes = new int[levelCount];
+    for (int level = 0; level < levelCount; level++) {
+      levelOffsets[level] = getLevelOffset(width, height, format, level);
+      levelSizes[level] = CameraImageBuffer.getBufferSize(width >> level, height >> level, format);
+    }
+  }
+
+  /** Destroy the pyramid reader. */
+  public void destroy() {
+    reader.destroy();
+    levelImages = null;
+    levelOffsets = null;
+    levelSizes = null;
+  }
+
+  /** Returns the number of pyramid levels. */
+  public int getLevelCount() {
+    return levelCount;
+  }
+
+  /**
+   * Submits a frame reading request for all levels. See TextureReader.submitFrame().
+   *
+   * @param textureId the id of the input OpenGL texture.
+   * @param textureWidth width of the texture in pixels.
+   * @param textureHeight height of the texture in pixels.
+   * @return the index to the frame buffer this request is associated to, or -1 if the frame was
+   *     skipped.
+   */
+  public int submitFrame(int textureId, int textureWidth, int textureHeight) {
+    return reader.submitFrame(textureId, textureWidth, textureHeight);
+  }
+
+  /**
+   * Acquires the frame requested earlier if the GPU has finished reading its pixels. This routine
+   * never blocks.
+   *
+   * @param bufferIndex the index to the frame buffer to be acquired. It has to be a frame index
+   *     returned from submitFrame().
+   * @return the images of the levels, starting with level 0, if the frame is ready. Null
+   *     otherwise, in which case the frame can be polled again later.
+   */
+  public CameraImageBuffer[] tryAcquireFrame(int bufferIndex) {
+    CameraImageBuffer frame = reader.tryAcquireFrame(bufferIndex);
+    if (frame == null) {
+      return null;
+    }
+    return getLevelImages(bufferIndex, frame);
+  }
+
+  /**
+   * Acquires the frame requested earlier. It blocks until the GPU has finished reading the pixels.
+   *
+   * <p>The returned array and images are reused for later frames of the same buffer. The level
+   * buffers are views of the mapped pixel buffer. Since the platform creates a new ByteBuffer each
+   * time a pixel buffer is mapped, one view per level above level 0 is created when the frame is
+   * acquired; level 0 uses the mapped buffer itself.
+   *
+   * @param bufferIndex the index to the frame buffer to be acquired. It has to be a frame index
+   *     returned from submitFrame().
+   * @return the images of the levels, starting with level 0.
+   */
+  public CameraImageBuffer[] acquireFrame(int bufferIndex) {
+    return getLevelImages(bufferIndex, reader.acquireFrame(bufferIndex));
+  }
+
+  /**
+   * Releases a previously requested frame buffer. This routine can be called from any thread.
+   *
+   * @param bufferIndex the index to the frame buffer to be released.
+   */
+  public void releaseFrame(int bufferIndex) {
+    CameraImageBuffer[] images = levelImages[bufferIndex];
+    for (int level = 0; level < levelCount; level++) {
+      if (images[level] != null) {
+        images[level].buffer = null;
+      }
+    }
+    reader.releaseFrame(bufferIndex);
+  }
+
+  /**
+   * Returns the offset of a level in the pixel buffer of a frame.
+   *
+   * @param width the width of level 0.
+   * @param height the height of level 0.
+   * @param format the image format.
+   * @param level the pyramid level.
+   * @return the offset of the level in bytes.
+   */
+  public static int getLevelOffset(int width, int height, int format, int level) {
+    int offset = 0;
+    for (int i = 0; i < level; i++) {
+      offset += CameraImageBuffer.getBufferSize(width >> i, height >> i, format);
+    }
+    return offset;
+  }
+
+  private CameraImageBuffer[] getLevelImages(int bufferIndex, CameraImageBuffer frame) {
+    CameraImageBuffer[] images = levelImages[bufferIndex];
+    final ByteBuffer mapped = frame.buffer;
+    // The mapped buffer is private to this reader, so its position and limit select each level
+    // directly instead of going through a duplicate. Level 0 starts at offset 0 and uses the mapped
+    // buffer itself, limited to its size, which is why it is set up last.
+    for (int level = levelCount - 1; level >= 0; level--) {
+      mapped.limit(levelOffsets[level] + levelSizes[level]);
+      mapped.position(levelOffsets[level]);
+      ByteBuffer view = level == 0 ? mapped : mapped.slice();
+      if (images[level] == null) {
+        images[level] =
+            new CameraImageBuffer(imageWidth >> level, imageHeight >> level, imageFormat, view);
+      } else {
+        images[level].buffer = view;
+      }
+    }
+    return images;
+  }
+}
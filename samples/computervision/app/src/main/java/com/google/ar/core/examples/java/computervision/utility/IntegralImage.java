@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+
+/**
+ * Summed-area tables of a grayscale image, which answer box sum, mean and variance queries over any
+ * rectangle in constant time.
+ *
+ * <p>The table of pixel values is an int array and the table of squared pixel values a long array,
+ * each with (width + 1) * (height + 1) entries and a zero first row and column. Pixel sums of very
+ * large images overflow the int table, but since box sums are computed with wrapping int
+ * arithmetic, they stay exact as long as the box itself sums to less than 2^31, which holds for
+ * boxes of up to 8421504 pixels.
+ *
+ * <p>The tables are built with a pass over the rows followed by a pass over the columns. With more
+ * than one thread, each pass is split into bands of rows or columns which are processed
+ * concurrently. The tables only grow, so building does not allocate in steady state. Queries may
+ * run concurrently, but not concurrently with build().
+ */
+public class IntegralImage {
+  private static final String TAG = IntegralImage.class.getSimpleName();
+
+  private final BandExecutor executor;
+  private int width = 0;
+  private int height = 0;
+  private int[] sums = new int[0];
+  private long[] squareSums = new long[0];
+
+  // The image of the current build, for the row pass.
+  private ByteBuffer inputBuffer;
+
+  private final BandExecutor.Task rowPass =
+      new BandExecutor.Task() {
+        @Override
+        public void run(int band, int bandCount) {
+          buildRows(
+              (int) ((long) height * band / bandCount),
+              (int) ((long) height * (band + 1) / bandCount));
+        }
+      };
+
+  private final BandExecutor.Task columnPass =
+      new BandExecutor.Task() {
+        @Override
+        public void run(int band, int bandCount) {
+          buildColumns(
+              (int) ((long) width * band / bandCount),
+              (int) ((long) width * (band + 1) / bandCount));
+        }
+      };
+
+  /** Constructor for tables built on the calling thread. */
+  public IntegralImage() {
+    this(1);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param threadCount the number of threads building the tables, including the calling thread.
+   */
+  public IntegralImage(int threadCount) {
+    executor = new BandExecutor(threadCount, TAG);
+  }
+
+  /**
+   * Builds the tables of a grayscale image.
+   *
+   * @param inputImage Input grayscale image.
+   * @return False if the input image is invalid, True otherwise.
+   */
+  public boolean build(CameraImageBuffer inputImage) {
+    if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_I8) {
+      Log.e(TAG, "Invalid input image!");
+      return false;
+    }
+
+    width = inputImage.width;
+    height = inputImage.height;
+    final int tableSize = (width + 1) * (height + 1);
+    if (sums.length < tableSize) {
+      sums = new int[tableSize];
+      squareSums = new long[tableSize];
+    }
+
+    // The first row is zero; the first column is written by the row pass.
+    for (int i = 0; i <= width; i++) {
+      sums[i] = 0;
+      squareSums[i] = 0;
+    }
+
+    inputBuffer = inputImage.buffer;
+    try {
+      executor.execute(rowPass);
+    } finally {
+      inputBuffer = null;
+    }
+    executor.execute(columnPass);
+
+    return true;
+  }
+
+  /** Returns the width of the image the tables were built from. */
+  public int getWidth() {
+    return width;
+  }
+
+  /** Returns the height of the image the tables were built from. */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the sum of the pixels in a box. The box has to lie within the image; this is not
+   * checked.
+   *
+   * @param x the left column of the box.
+   * @param y the top row of the box.
+   * @param boxWidth the width of the box.
+   * @param boxHeight the height of the box.
+   */
+  public int getSum(int x, int y, int boxWidth, int boxHeight) {
+    final int stride = width + 1;
+    final int top = y * stride + x;
+    final int bottom = (y + boxHeight) * stride + x;
+    return sums[bottom + boxWidth] - sums[bottom] - sums[top + boxWidth] + sums[top];
+  }
+
+  /** Returns the sum of the squared pixels in a box, like getSum(). */
+  public long getSquareSum(int x, int y, int boxWidth, int boxHeight) {
+    final int stride = width + 1;
+    final int top = y * stride + x;
+    final int bottom = (y + boxHeight) * stride + x;
+    return squareSums[bottom + boxWidth]
+        - squareSums[bottom]
+        - squareSums[top + boxWidth]
+        + squareSums[top];
+  }
+
+  /** Returns the mean of the pixels in a non-empty box, like getSum(). */
+  public float getMean(int x, int y, int boxWidth, int boxHeight) {
+    return (float) getSum(x, y, boxWidth, boxHeight) / (boxWidth * boxHeight);
+  }
+
+  /** Returns the variance of the pixels in a non-empty box, like getSum(). */
+  public float getVariance(int x, int y, int boxWidth, int boxHeight) {
+    final long area = (long) boxWidth * boxHeight;
+    final long sum = getSum(x, y, boxWidth, boxHeight) & 0xFFFFFFFFL;
+    final long squareSum = getSquareSum(x, y, boxWidth, boxHeight);
+    // area * squareSum - sum^2 is exact in a long for boxes of up to a few million pixels.
+    return (float) ((double) (area * squareSum - sum * sum) / ((double) area * area));
+  }
+
+  /** Releases the worker threads. The object cannot be used after this call. */
+  public void release() {
+    executor.release();
+  }
+
+  /** Writes the running sums of the rows [startRow, endRow) into the tables. */
+  private void buildRows(int startRow, int endRow) {
+    final int stride = width + 1;
+    for (int j = startRow; j < endRow; j++) {
+      final int inputOffset = j * width;
+      final int tableOffset = (j + 1) * stride;
+      int sum = 0;
+      long squareSum = 0;
+      sums[tableOffset] = 0;
+      squareSums[tableOffset] = 0;
+      for (int i = 0; i < width; i++) {
+        int value = inputBuffer.get(inputOffset + i) & 0xFF;
+        sum += value;
+        squareSum += value * value;
+        sums[tableOffset + i + 1] = sum;
+        squareSums[tableOffset + i + 1] = squareSum;
+      }
+    }
+  }
+
+  /** Adds up the row sums of the columns [startColumn, endColumn) down the tables. */
+  private void buildColumns(int startColumn, int endColumn) {
+    final int stride = width + 1;
+    for (int j = 2; j <= height; j++) {
+      final int above = (j - 1) * stride + 1;
+      final int row = j * stride + 1;
+      for (int i = startColumn; i < endColumn; i++) {
+        sums[row + i] += sums[above + i];
+        squareSums[row + i] += squareSums[above + i];
+      }
+    }
+  }
+}
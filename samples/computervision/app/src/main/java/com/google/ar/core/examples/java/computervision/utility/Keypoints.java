@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+/**
+ * A fixed capacity list of image keypoints, stored as parallel arrays: keypoint k is at pixel
+ * (x[k], y[k]) and has the detector score score[k]. Only the first count entries are valid.
+ */
+public class Keypoints {
+  /** The column of each keypoint. */
+  public final int[] x;
+
+  /** The row of each keypoint. */
+  public final int[] y;
+
+  /** The detector score of each keypoint. Higher is stronger. */
+  public final float[] score;
+
+  /** The number of valid keypoints. */
+  public int count = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity the maximum number of keypoints.
+   */
+  public Keypoints(int capacity) {
+    if (capacity < 0) {
+      throw new RuntimeException("Invalid keypoint capacity.");
+    }
+    x = new int[capacity];
+    y = new int[capacity];
+    score = new float[capacity];
+  }
+
+  /** Returns the maximum number of keypoints. */
+  public int getCapacity() {
+    return x.length;
+  }
+}
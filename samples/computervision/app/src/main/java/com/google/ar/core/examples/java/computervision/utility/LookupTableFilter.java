@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+
+/**
+ * Per-pixel filter for grayscale images which maps every input value through a 256 entry lookup
+ * table.
+ *
+ * <p>Since the output pixel only depends on the input pixel at the same position, the filter can
+ * run in place (with the same image as input and output), and two lookup table filters can be
+ * fused into one with {@link #fuse}. {@link ImageFilterPipeline} does both to save memory
+ * bandwidth, and folds lookup tables into the write loop of a preceding {@link BoxBlurFilter} or
+ * {@link DownscaleFilter}.
+ */
+public class LookupTableFilter implements LookupTableFusable {
+  private static final String TAG = LookupTableFilter.class.getSimpleName();
+
+  /** Output value for each input value, indexed by the unsigned input value. */
+  protected final byte[] lookupTable = new byte[256];
+
+  /** Constructor for subclasses, which fill in the lookup table themselves. */
+  protected LookupTableFilter() {}
+
+  /**
+   * Constructor.
+   *
+   * @param table the output value for each unsigned input value. Must have 256 entries.
+   */
+  public LookupTableFilter(byte[] table) {
+    if (table == null || table.length != lookupTable.length) {
+      throw new RuntimeException("Lookup table must have 256 entries.");
+    }
+    System.arraycopy(table, 0, lookupTable, 0, lookupTable.length);
+  }
+
+  /**
+   * Creates a filter which has the same effect as applying this filter and then the next filter.
+   *
+   * @param next the filter applied after this one.
+   * @return the fused filter.
+   */
+  @Override
+  public LookupTableFilter fuse(LookupTableFilter next) {
+    byte[] table = new byte[lookupTable.length];
+    for (int i = 0; i < table.length; i++) {
+      table[i] = next.lookupTable[lookupTable[i] & 0xFF];
+    }
+    return new LookupTableFilter(table);
+  }
+
+  @Override
+  public int getOutputWidth(int inputWidth) {
+    return inputWidth;
+  }
+
+  @Override
+  public int getOutputHeight(int inputHeight) {
+    return inputHeight;
+  }
+
+  @Override
+  public boolean process(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
+    if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_I8) {
+      Log.e(TAG, "Invalid input image!");
+      return false;
+    }
+
+    if (outputImage == null) {
+      Log.e(TAG, "Invalid output image!");
+      return false;
+    }
+
+    if (outputImage != inputImage) {
+      outputImage.resize(inputImage.width, inputImage.height, inputImage.format);
+    }
+
+    final int pixelCount = inputImage.width * inputImage.height;
+    ByteBuffer inputBuffer = inputImage.buffer;
+    ByteBuffer outputBuffer = outputImage.buffer;
+    if (inputBuffer.hasArray() && outputBuffer.hasArray()) {
+      byte[] inputPixel = inputBuffer.array();
+      byte[] outputPixel = outputBuffer.array();
+      int inputOffset = inputBuffer.arrayOffset();
+      int outputOffset = outputBuffer.arrayOffset();
+      for (int i = 0; i < pixelCount; i++) {
+        outputPixel[outputOffset + i] = lookupTable[inputPixel[inputOffset + i] & 0xFF];
+      }
+    } else {
+      for (int i = 0; i < pixelCount; i++) {
+        outputBuffer.put(i, lookupTable[inputBuffer.get(i) & 0xFF]);
+      }
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+/**
+ * An image filter which can map its output pixels through a lookup table while writing them, so
+ * that {@link ImageFilterPipeline} can fold a following {@link LookupTableFilter} into it instead
+ * of running it as a separate pass over the image.
+ */
+interface LookupTableFusable extends ImageFilter {
+  /**
+   * Creates a filter which has the same effect as applying this filter and then the next filter.
+   * This filter is not modified.
+   *
+   * @param next the filter applied after this one.
+   * @return the fused filter.
+   */
+  ImageFilter fuse(LookupTableFilter next);
+}
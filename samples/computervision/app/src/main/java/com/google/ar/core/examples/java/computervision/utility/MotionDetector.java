@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+
+/**
+ * Detects motion between grayscale frames, so that expensive analysis can be skipped while the
+ * scene is static.
+ *
+ * <p>Each frame is downscaled by averaging blocks of scale x scale pixels, and the last
+ * historyLength downscaled frames are kept in a ring. A new frame is compared with the oldest frame
+ * in the ring: the downscaled image is split into blocks of blockSize x blockSize pixels, and a
+ * block is moving if the mean absolute difference of its pixels exceeds the block threshold. The
+ * output mask has one pixel per block, 0xFF for moving and 0x00 for static blocks, and the motion
+ * score is the fraction of moving blocks. Partial blocks at the right and bottom border count like
+ * full blocks.
+ *
+ * <p>The first frame, and the first frame after a change of the image size, has no reference and is
+ * reported as moving everywhere. The ring and the block sums only grow, so the detector does not
+ * allocate once it has seen the largest image. A detector must not be shared between threads
+ * without external synchronization.
+ *
+ * <p>A motion detector can be used as a stage of an {@link ImageFilterPipeline}, whose output is
+ * the motion mask.
+ */
+public class MotionDetector implements ImageFilter {
+  private static final String TAG = MotionDetector.class.getSimpleName();
+
+  private final int scale;
+  private final int blockSize;
+  private final int blockThreshold;
+
+  // Downscaled frames. The newest is at newestIndex, and frameCount of them are valid.
+  private final CameraImageBuffer[] frames;
+  private int newestIndex = -1;
+  private int frameCount = 0;
+  private int inputWidth = -1;
+  private int inputHeight = -1;
+
+  private int[] blockSums = new int[0];
+  private float motionScore = 0;
+  private float meanDifference = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param historyLength the number of frames between a frame and its reference frame.
+   * @param scale the downscaling factor in both directions.
+   * @param blockSize the size of the blocks in downscaled pixels.
+   * @param blockThreshold the mean absolute pixel difference above which a block is moving.
+   */
+  public MotionDetector(int historyLength, int scale, int blockSize, int blockThreshold) {
+    if (historyLength < 1 || scale < 1 || blockSize < 1 || blockThreshold < 0) {
+      throw new RuntimeException("Invalid motion detector parameters.");
+    }
+    this.scale = scale;
+    this.blockSize = blockSize;
+    this.blockThreshold = blockThreshold;
+
+    // The reference frames plus the current frame.
+    frames = new CameraImageBuffer[historyLength + 1];
+    for (int i = 0; i < frames.length; i++) {
+      frames[i] = new CameraImageBuffer();
+    }
+  }
+
+  /**
+   * Adds a frame and compares it with its reference frame.
+   *
+   * @param outputMask Output motion mask, resized to one pixel per block.
+   * @param inputImage Input grayscale image.
+   * @return False if either of the images is invalid, True otherwise.
+   */
+  public boolean detect(CameraImageBuffer outputMask, CameraImageBuffer inputImage) {
+    if (inputImage == null || inputImage.format != CameraImageBuffer.IMAGE_FORMAT_I8) {
+      Log.e(TAG, "Invalid input image!");
+      return false;
+    }
+
+    if (outputMask == null || outputMask == inputImage) {
+      Log.e(TAG, "Invalid output image!");
+      return false;
+    }
+
+    if (inputImage.width != inputWidth || inputImage.height != inputHeight) {
+      reset();
+      inputWidth = inputImage.width;
+      inputHeight = inputImage.height;
+    }
+
+    final int width = getDownscaledSize(inputWidth);
+    final int height = getDownscaledSize(inputHeight);
+    newestIndex = (newestIndex + 1) % frames.length;
+    CameraImageBuffer current = frames[newestIndex];
+    current.resize(width, height, CameraImageBuffer.IMAGE_FORMAT_I8);
+    downscale(current.buffer, inputImage.buffer, width, height);
+    frameCount = Math.min(frameCount + 1, frames.length);
+
+    final int blockColumns = getOutputWidth(inputWidth);
+    final int blockRows = getOutputHeight(inputHeight);
+    outputMask.resize(blockColumns, blockRows, CameraImageBuffer.IMAGE_FORMAT_I8);
+    final ByteBuffer mask = outputMask.buffer;
+    final int blockCount = blockColumns * blockRows;
+
+    if (frameCount == 1) {
+      for (int block = 0; block < blockCount; block++) {
+        mask.put(block, (byte) 0xFF);
+      }
+      motionScore = 1;
+      meanDifference = 255;
+      return true;
+    }
+
+    // The oldest frame in the ring.
+    final int referenceIndex = (newestIndex - frameCount + 1 + frames.length) % frames.length;
+    sumDifferences(frames[referenceIndex].buffer, current.buffer, width, height, blockColumns);
+
+    int movingBlocks = 0;
+    long differenceSum = 0;
+    for (int by = 0; by < blockRows; by++) {
+      final int blockHeight = Math.min(blockSize, height - by * blockSize);
+      for (int bx = 0; bx < blockColumns; bx++) {
+        final int blockWidth = Math.min(blockSize, width - bx * blockSize);
+        final int block = by * blockColumns + bx;
+        final int sum = blockSums[block];
+        differenceSum += sum;
+        // Branch-free sum > threshold * area, as a 0 or 1.
+        final int moving = (int) (((long) blockThreshold * blockWidth * blockHeight - sum) >>> 63);
+        movingBlocks += moving;
+        mask.put(block, (byte) -moving);
+      }
+    }
+
+    motionScore = (float) movingBlocks / blockCount;
+    meanDifference = (float) differenceSum / (width * height);
+    return true;
+  }
+
+  /** Returns the fraction of moving blocks in the last frame, between 0 and 1. */
+  public float getMotionScore() {
+    return motionScore;
+  }
+
+  /** Returns the mean absolute difference of the downscaled pixels in the last frame. */
+  public float getMeanDifference() {
+    return meanDifference;
+  }
+
+  /** Forgets the previous frames, so that the next frame is reported as moving everywhere. */
+  public void reset() {
+    newestIndex = -1;
+    frameCount = 0;
+    inputWidth = -1;
+    inputHeight = -1;
+  }
+
+  @Override
+  public int getOutputWidth(int inputWidth) {
+    return (getDownscaledSize(inputWidth) + blockSize - 1) / blockSize;
+  }
+
+  @Override
+  public int getOutputHeight(int inputHeight) {
+    return (getDownscaledSize(inputHeight) + blockSize - 1) / blockSize;
+  }
+
+  @Override
+  public boolean process(CameraImageBuffer outputImage, CameraImageBuffer inputImage) {
+    return detect(outputImage, inputImage);
+  }
+
+  /** Returns the downscaled size. An incomplete last block of pixels is dropped. */
+  private int getDownscaledSize(int size) {
+    return Math.max(size / scale, 1);
+  }
+
+  /** Averages blocks of scale x scale input pixels into the output. */
+  private void downscale(ByteBuffer output, ByteBuffer input, int width, int height) {
+    // Images smaller than one block are averaged over the pixels they have.
+    final int blockWidth = Math.min(scale, inputWidth);
+    final int blockHeight = Math.min(scale, inputHeight);
+    final int area = blockWidth * blockHeight;
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < width; i++) {
+        int sum = 0;
+        for (int y = 0; y < blockHeight; y++) {
+          final int offset = (j * scale + y) * inputWidth + i * scale;
+          for (int x = 0; x < blockWidth; x++) {
+            sum += input.get(offset + x) & 0xFF;
+          }
+        }
+        output.put(j * width + i, (byte) ((sum + area / 2) / area));
+      }
+    }
+  }
+
+  /** Adds up the absolute pixel differences of each block into blockSums. */
+  private void sumDifferences(
+      ByteBuffer reference, ByteBuffer current, int width, int height, int blockColumns) {
+    final int blockCount = blockColumns * ((height + blockSize - 1) / blockSize);
+    if (blockSums.length < blockCount) {
+      blockSums = new int[blockCount];
+    }
+    for (int block = 0; block < blockCount; block++) {
+      blockSums[block] = 0;
+    }
+
+    for (int j = 0; j < height; j++) {
+      final int rowOffset = j * width;
+      final int blockRowOffset = (j / blockSize) * blockColumns;
+      for (int i = 0; i < width; i++) {
+        int difference =
+            (current.get(rowOffset + i) & 0xFF) - (reference.get(rowOffset + i) & 0xFF);
+        int sign = difference >> 31;
+        blockSums[blockRowOffset + i / blockSize] += (difference ^ sign) - sign;
+      }
+    }
+  }
+}
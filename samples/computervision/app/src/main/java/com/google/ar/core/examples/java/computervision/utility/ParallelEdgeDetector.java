@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.ar.core.examples.java.computervision.utility;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects edges from input grayscale image on several threads.
+ *
+ * <p>The image is split into horizontal bands of rows. Every band reads one extra row above and
+ * below it (the halo) from the shared input image but only writes its own rows, so the bands can be
+ * processed in any order and the result is identical to {@link EdgeDetector#detect}. Each band has
+ * its own row window, so direct input and output buffers are handled just like in the
+ * single-threaded detector.
+ *
+ * <p>The bands run on a {@link BandExecutor}: the calling thread processes the first band itself
+ * while dedicated worker threads process the others, and no objects are allocated per frame. Call
+ * {@link #release()} when the detector is no longer needed to stop the worker threads.
+ */
+public class ParallelEdgeDetector extends EdgeDetector {
+  private static final String TAG = ParallelEdgeDetector.class.getSimpleName();
+
+  private final BandExecutor executor;
+  private final byte[][] rowWindows;
+  private boolean released = false;
+
+  // The images of the current detection.
+  private ByteBuffer outputBuffer;
+  private ByteBuffer inputBuffer;
+  private int width;
+  private int height;
+
+  private final BandExecutor.Task detectBand =
+      new BandExecutor.Task() {
+        @Override
+        public void run(int band, int bandCount) {
+          rowWindows[band] = ensureRowWindow(rowWindows[band], width);
+          sobelRows(
+              outputBuffer,
+              inputBuffer,
+              rowWindows[band],
+              width,
+              height,
+              (int) ((long) height * band / bandCount),
+              (int) ((long) height * (band + 1) / bandCount),
+              getMode(),
+              getBorder(),
+              getThreshold() * getThreshold());
+        }
+      };
+
+  /**
+   * Constructor.
+   *
+   * @param threadCount the number of threads working on an image, including the calling thread.
+   *     This is also the number of row bands the image is split into.
+   */
+  public ParallelEdgeDetector(int threadCount) {
+    this(threadCount, MODE_BINARY);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param threadCount the number of threads working on an image, including the calling thread.
+   * @param mode the output mode: MODE_BINARY, MODE_MAGNITUDE or MODE_ORIENTATION.
+   */
+  public ParallelEdgeDetector(int threadCount, int mode) {
+    this(threadCount, mode, BORDER_REPLICATE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param threadCount the number of threads working on an image, including the calling thread.
+   * @param mode the output mode: MODE_BINARY, MODE_MAGNITUDE or MODE_ORIENTATION.
+   * @param border the border policy: BORDER_REPLICATE, BORDER_REFLECT or BORDER_ZERO.
+   */
+  public ParallelEdgeDetector(int threadCount, int mode, int border) {
+    super(mode, border);
+    executor = new BandExecutor(threadCount, TAG);
+    rowWindows = new byte[executor.getBandCount()][0];
+  }
+
+  @Override
+  protected void sobel(ByteBuffer outputBuffer, ByteBuffer inputBuffer, int width, int height) {
+    if (released) {
+      throw new RuntimeException("Edge detector has been released.");
+    }
+
+    this.outputBuffer = outputBuffer;
+    this.inputBuffer = inputBuffer;
+    this.width = width;
+    this.height = height;
+    try {
+      executor.execute(detectBand);
+    } finally {
+      // Do not keep the frame buffers alive between calls.
+      this.outputBuffer = null;
+      this.inputBuffer = null;
+    }
+  }
+
+  /** Stops the worker threads. The detector cannot be used after this call. */
+  public void release() {
+    released = true;
+    executor.release();
+  }
+}
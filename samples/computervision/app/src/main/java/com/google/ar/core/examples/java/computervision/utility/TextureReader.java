@@ -23,7 +23,6 @@ import com.google.ar.core.examples.java.computervision.rendering.ShaderUtil;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 
 /**
  * Helper class for ARCore apps to read camera image from an OpenGL OES texture.
@@ -55,6 +54,36 @@ import java.nio.IntBuffer;
  *
  * <p>releaseFrame(bufferIndex);
  *
+ * <p>The number of frame buffers is configurable in create(). They are used as a ring, and a policy
+ * decides what submitFrame() does when all of them are in use: drop the oldest frame which has not
+ * been acquired yet, skip the submission, or block until another thread releases a frame. Frames
+ * may be released from any thread; if released outside of the OpenGL thread, the buffer is unmapped
+ * by the next submitFrame() call.
+ *
+ * <p>acquireFrame() maps the buffer right away, which stalls the OpenGL thread if the GPU has not
+ * finished reading the pixels yet. To avoid that, a fence is inserted after each readback, and
+ * isFrameReady() or tryAcquireFrame() can be used to poll it without blocking:
+ *
+ * <p>imageBuffer = tryAcquireFrame(bufferIndex); // null if not ready, try again next frame.
+ *
+ * <p>To read a small window of the camera image in detail, submitFrame() also accepts a region of
+ * interest in texture coordinates and an output size no larger than the image size. Only that
+ * region is rendered and read back.
+ *
+ * <p>Besides RGBA and I8, the reader can pack the image on the GPU into NV21, I420 or RGB565, so
+ * that no CPU conversion is needed after the readback and only the bytes of the packed image are
+ * read. {@link ImageFormatConverter} provides the same conversions on the CPU.
+ *
+ * <p>For edge detection, a Sobel filter can be applied in the same pass that converts the camera
+ * texture, optionally after a 3x3 Gaussian prefilter. The reader then returns an I8 edge map, or a
+ * packed IMAGE_FORMAT_BINARY image which is 8 times smaller to read back. {@link
+ * GpuEdgeReference} computes the same result on the CPU for verification.
+ *
+ * <p>Once every buffer has been acquired once, submitting, acquiring and releasing frames only
+ * allocates the ByteBuffer which the platform creates when a buffer is mapped.
+ * getReadbackBufferCount() counts the mapped buffers and the frame images wrapping them. It is not
+ * a measure of allocation in general: other allocations in the readback path do not show up in it.
+ *
  * <p>Note: To use any of the above two methods, you need to call create() routine to initialize the
  * reader before calling any of the reading routine. You will also need to call destroy() method to
  * release the internal resource when you are done with the reader.
@@ -62,29 +91,85 @@ import java.nio.IntBuffer;
 public class TextureReader {
   private static final String TAG = TextureReader.class.getSimpleName();
 
-  // By default, we create only two internal buffers. So you can only hold more than one buffer
-  // index in your app without releasing it. If you need to hold more than one buffers, you can
-  // increase the bufferCount member.
-  private final int bufferCount = 2;
+  /** When all buffers are in use, submitFrame() reuses the oldest buffer not acquired yet. */
+  public static final int FULL_POLICY_DROP_OLDEST = FrameRing.FULL_POLICY_DROP_OLDEST;
+
+  /** When all buffers are in use, submitFrame() skips the frame and returns -1. */
+  public static final int FULL_POLICY_SKIP = FrameRing.FULL_POLICY_SKIP;
+
+  /**
+   * When all buffers are in use, submitFrame() blocks until another thread releases an acquired
+   * frame.
+   */
+  public static final int FULL_POLICY_BLOCK = FrameRing.FULL_POLICY_BLOCK;
+
+  /** The camera image is only converted to the output format. */
+  public static final int FILTER_NONE = 0;
+
+  /** A Sobel filter is applied and the edge map is returned. */
+  public static final int FILTER_SOBEL = 1;
+
+  /** A 3x3 Gaussian prefilter and a Sobel filter are applied and the edge map is returned. */
+  public static final int FILTER_GAUSSIAN_SOBEL = 2;
+
+  // By default, we create only two internal buffers. So you can only hold one buffer index in your
+  // app without releasing it. If you need to hold more buffers, pass a larger bufferCount to
+  // create().
+  private static final int DEFAULT_BUFFER_COUNT = 2;
+  private int bufferCount = DEFAULT_BUFFER_COUNT;
+  private int fullPolicy = FULL_POLICY_SKIP;
+  private FrameRing ring;
+  private Thread glThread;
   private int[] frameBuffer;
   private int[] texture;
   private int[] pbo;
-  private Boolean[] bufferUsed;
+  private CameraImageBuffer[] frameImages;
   private int frontIndex = -1;
   private int backIndex = -1;
 
+  // Viewport saved while drawing into a frame buffer.
+  private final int[] savedViewport = new int[4];
+
+  // Pack alignment saved while reading a frame buffer back.
+  private final int[] savedPackAlignment = new int[1];
+
+  // Texture size the texture coordinates were computed for.
+  private int texCoordTextureWidth = -1;
+  private int texCoordTextureHeight = -1;
+  private float cropOriginU = 0;
+  private float cropOriginV = 0;
+  private float texelSizeU = 0;
+  private float texelSizeV = 0;
+
+  // Mapped buffers and frame images created since create(), and the number of frames submitted.
+  private long readbackBufferCount = 0;
+  private long submittedFrameCount = 0;
+
   // By default, the output image format is set to RGBA. You can also set it to IMAGE_FORMAT_I8.
   private int imageFormat = CameraImageBuffer.IMAGE_FORMAT_RGBA;
   private int imageWidth = 0;
   private int imageHeight = 0;
   private int pixelBufferSize = 0;
   private Boolean keepAspectRatio = false;
+  private int filter = FILTER_NONE;
+  private int levelCount = 1;
+
+  // Size of the frame buffers, in texels. Packed formats store several bytes or pixels per texel.
+  private int readWidth = 0;
+  private int readHeight = 0;
+
+  // Image sizes need to be a multiple of these for the packed formats.
+  private int widthAlignment = 1;
+  private int heightAlignment = 1;
+
+  // Image size of the frame in each buffer, which is smaller than the image size for regions of
+  // interest.
+  private int[] frameWidth;
+  private int[] frameHeight;
 
   private FloatBuffer quadVertices;
   private FloatBuffer quadTexCoord;
-  private int quadProgram;
-  private int quadPositionAttrib;
-  private int quadTexCoordAttrib;
+  private RenderPass[] renderPasses;
   private static final int COORDS_PER_VERTEX = 3;
   private static final int TEXCOORDS_PER_VERTEX = 2;
   private static final int FLOAT_SIZE = 4;
@@ -132,8 +217,234 @@ public class TextureReader {
           + "    gl_FragColor.r = color.r * 0.299 + color.g * 0.587 + color.b * 0.114;\n"
           + "}";
 
+  // Needs PIXELS_PER_FRAGMENT (1, or 8 for packed output) and PREFILTER (0 or 1) to be defined.
+  // The grayscale values are rounded like the I8 readback, and the filters only use integer values,
+  // so the result matches GpuEdgeReference.
+  private static final String QUAD_RENDERING_FRAGMENT_SHADER_SOBEL =
+      "// Fragment shader that renders a Sobel edge map to a grayscale texture.\n"
+          + "#extension GL_OES_EGL_image_external : require\n"
+          + "precision highp float;\n"
+          + "varying vec2 v_TexCoord;\n"
+          + "uniform samplerExternalOES sTexture;\n"
+          + "uniform vec2 u_TexelSize;\n"
+          + "#if PREFILTER\n"
+          + "#define RADIUS 2\n"
+          + "#else\n"
+          + "#define RADIUS 1\n"
+          + "#endif\n"
+          + "#define ROWS (2 * RADIUS + 1)\n"
+          + "#define COLUMNS (PIXELS_PER_FRAGMENT + 2 * RADIUS)\n"
+          + "#define G(y, x) g[(y) * COLUMNS + (x)]\n"
+          + "#define S_COLUMNS (PIXELS_PER_FRAGMENT + 2)\n"
+          + "float gray(vec2 texCoord) {\n"
+          + "    vec4 color = texture2D(sTexture, texCoord);\n"
+          + "    float value = color.r * 0.299 + color.g * 0.587 + color.b * 0.114;\n"
+          + "    return floor(value * 255.0 + 0.5);\n"
+          + "}\n"
+          + "void main() {\n"
+          + "    // Load the grayscale neighbourhood of all pixels of this fragment.\n"
+          + "    vec2 origin = v_TexCoord + u_TexelSize * vec2(\n"
+          + "        0.5 - 0.5 * float(PIXELS_PER_FRAGMENT) - float(RADIUS), -float(RADIUS));\n"
+          + "    float g[ROWS * COLUMNS];\n"
+          + "    for (int y = 0; y < ROWS; y++) {\n"
+          + "        for (int x = 0; x < COLUMNS; x++) {\n"
+          + "            G(y, x) = gray(origin + u_TexelSize * vec2(float(x), float(y)));\n"
+          + "        }\n"
+          + "    }\n"
+          + "#if PREFILTER\n"
+          + "    // Gaussian filter:\n"
+          + "    //   1, 2, 1,\n"
+          + "    //   2, 4, 2,\n"
+          + "    //   1, 2, 1  / 16\n"
+          + "    float s[3 * S_COLUMNS];\n"
+          + "    for (int y = 0; y < 3; y++) {\n"
+          + "        for (int x = 0; x < S_COLUMNS; x++) {\n"
+          + "            float sum = G(y, x) + 2.0 * G(y, x + 1) + G(y, x + 2)\n"
+          + "                + 2.0 * (G(y + 1, x) + 2.0 * G(y + 1, x + 1) + G(y + 1, x + 2))\n"
+          + "                + G(y + 2, x) + 2.0 * G(y + 2, x + 1) + G(y + 2, x + 2);\n"
+          + "            s[y * S_COLUMNS + x] = floor((sum + 8.0) / 16.0);\n"
+          + "        }\n"
+          + "    }\n"
+          + "#define S(y, x) s[(y) * S_COLUMNS + (x)]\n"
+          + "#else\n"
+          + "#define S(y, x) G(y, x)\n"
+          + "#endif\n"
+          + "    float value = 0.0;\n"
+          + "    for (int i = 0; i < PIXELS_PER_FRAGMENT; i++) {\n"
+          + "        float xSum = -S(0, i) - 2.0 * S(1, i) - S(2, i)\n"
+          + "            + S(0, i + 2) + 2.0 * S(1, i + 2) + S(2, i + 2);\n"
+          + "        float ySum = S(0, i) + 2.0 * S(0, i + 1) + S(0, i + 2)\n"
+          + "            - S(2, i) - 2.0 * S(2, i + 1) - S(2, i + 2);\n"
+          + "        // The sums are integers, so > 128 * 128 is the same as >= 128 * 128 + 1.\n"
+          + "        float edge = step(16385.0, xSum * xSum + ySum * ySum);\n"
+          + "#if PIXELS_PER_FRAGMENT == 1\n"
+          + "        value = mix(31.0, 255.0, edge);\n"
+          + "#else\n"
+          + "        value += edge * exp2(float(PIXELS_PER_FRAGMENT - 1 - i));\n"
+          + "#endif\n"
+          + "    }\n"
+          + "    gl_FragColor.r = value / 255.0;\n"
+          + "}";
+
+  // Needs PASS to be defined. Every texel holds 4 bytes of the
+  // packed image, and the position within the image is derived from gl_FragCoord. PASS is one of:
+  //   0: 4 luma values.
+  //   1: 2 interleaved V, U pairs (NV21).
+  //   2, 3: 4 values of the U or V plane (I420). A texel row holds two chroma rows.
+  //   4: 2 RGB565 pixels, little endian.
+  // Chroma is sampled at the center of each 2x2 pixel block. YUV uses full range BT.601, like JPEG.
+  private static final String QUAD_RENDERING_FRAGMENT_SHADER_PACKED =
+      "// Fragment shader that packs the camera image into YUV or RGB565 bytes.\n"
+          + "#extension GL_OES_EGL_image_external : require\n"
+          + "precision highp float;\n"
+          + "uniform samplerExternalOES sTexture;\n"
+          + "uniform vec2 u_CropOrigin;\n"
+          + "uniform vec2 u_TexelSize;\n"
+          + "uniform float u_RegionRow;\n"
+          + "uniform float u_PlaneRowTexels;\n"
+          + "vec3 sampleRgb(float x, float y) {\n"
+          + "    return texture2D(sTexture, u_CropOrigin + vec2(x, y) * u_TexelSize).rgb;\n"
+          + "}\n"
+          + "float luma(vec3 color) {\n"
+          + "    return dot(color, vec3(0.299, 0.587, 0.114));\n"
+          + "}\n"
+          + "float chromaU(vec3 color) {\n"
+          + "    return dot(color, vec3(-0.168736, -0.331264, 0.5)) + 128.0 / 255.0;\n"
+          + "}\n"
+          + "float chromaV(vec3 color) {\n"
+          + "    return dot(color, vec3(0.5, -0.418688, -0.081312)) + 128.0 / 255.0;\n"
+          + "}\n"
+          + "vec2 rgb565(vec3 color) {\n"
+          + "    vec3 quantized = floor(color * vec3(31.0, 63.0, 31.0) + 0.5);\n"
+          + "    float value = quantized.r * 2048.0 + quantized.g * 32.0 + quantized.b;\n"
+          + "    float high = floor(value / 256.0);\n"
+          + "    return vec2(value - high * 256.0, high) / 255.0;\n"
+          + "}\n"
+          + "void main() {\n"
+          + "    vec2 texel = floor(gl_FragCoord.xy) - vec2(0.0, u_RegionRow);\n"
+          + "#if PASS == 0\n"
+          + "    float x = texel.x * 4.0 + 0.5;\n"
+          + "    float y = texel.y + 0.5;\n"
+          + "    gl_FragColor = vec4(\n"
+          + "        luma(sampleRgb(x, y)), luma(sampleRgb(x + 1.0, y)),\n"
+          + "        luma(sampleRgb(x + 2.0, y)), luma(sampleRgb(x + 3.0, y)));\n"
+          + "#elif PASS == 1\n"
+          + "    float x = texel.x * 4.0 + 1.0;\n"
+          + "    float y = texel.y * 2.0 + 1.0;\n"
+          + "    vec3 color0 = sampleRgb(x, y);\n"
+          + "    vec3 color1 = sampleRgb(x + 2.0, y);\n"
+          + "    gl_FragColor = vec4(\n"
+          + "        chromaV(color0), chromaU(color0), chromaV(color1), chromaU(color1));\n"
+          + "#elif PASS == 2 || PASS == 3\n"
+          + "#if PASS == 2\n"
+          + "#define CHROMA chromaU\n"
+          + "#else\n"
+          + "#define CHROMA chromaV\n"
+          + "#endif\n"
+          + "    float second = step(u_PlaneRowTexels, texel.x);\n"
+          + "    float x = (texel.x - second * u_PlaneRowTexels) * 8.0 + 1.0;\n"
+          + "    float y = (texel.y * 2.0 + second) * 2.0 + 1.0;\n"
+          + "    gl_FragColor = vec4(\n"
+          + "        CHROMA(sampleRgb(x, y)), CHROMA(sampleRgb(x + 2.0, y)),\n"
+          + "        CHROMA(sampleRgb(x + 4.0, y)), CHROMA(sampleRgb(x + 6.0, y)));\n"
+          + "#else\n"
+          + "    float x = texel.x * 2.0 + 0.5;\n"
+          + "    float y = texel.y + 0.5;\n"
+          + "    gl_FragColor = vec4(rgb565(sampleRgb(x, y)), rgb565(sampleRgb(x + 1.0, y)));\n"
+          + "#endif\n"
+          + "}";
+
+  // Needs SINGLE_CHANNEL (0 or 1) to be defined. Renders pyramid level u_LevelScale = 2^k, whose
+  // pixels cover 2^k x 2^k image pixels. Each frame buffer row holds 2^k rows of the level, so that
+  // the level is stored contiguously. Four bilinear samples per pixel approximate a box filter.
+  private static final String QUAD_RENDERING_FRAGMENT_SHADER_PYRAMID =
+      "// Fragment shader that renders a downscaled pyramid level.\n"
+          + "#extension GL_OES_EGL_image_external : require\n"
+          + "precision highp float;\n"
+          + "uniform samplerExternalOES sTexture;\n"
+          + "uniform vec2 u_CropOrigin;\n"
+          + "uniform vec2 u_TexelSize;\n"
+          + "uniform float u_RegionRow;\n"
+          + "uniform float u_LevelWidth;\n"
+          + "uniform float u_LevelScale;\n"
+          + "vec4 sampleColor(vec2 pixel) {\n"
+          + "    return texture2D(sTexture, u_CropOrigin + pixel * u_TexelSize);\n"
+          + "}\n"
+          + "void main() {\n"
+          + "    vec2 texel = floor(gl_FragCoord.xy) - vec2(0.0, u_RegionRow);\n"
+          + "    // The offset keeps the quotient away from integers, so rounding cannot matter.\n"
+          + "    float row = floor((texel.x + 0.5) / u_LevelWidth);\n"
+          + "    vec2 levelPixel =\n"
+          + "        vec2(texel.x - row * u_LevelWidth, texel.y * u_LevelScale + row);\n"
+          + "    vec2 center = (levelPixel + 0.5) * u_LevelScale;\n"
+          + "    float offset = 0.25 * u_LevelScale;\n"
+          + "    vec4 color = 0.25 * (sampleColor(center + vec2(-offset, -offset))\n"
+          + "        + sampleColor(center + vec2(offset, -offset))\n"
+          + "        + sampleColor(center + vec2(-offset, offset))\n"
+          + "        + sampleColor(center + vec2(offset, offset)));\n"
+          + "#if SINGLE_CHANNEL\n"
+          + "    gl_FragColor.r = color.r * 0.299 + color.g * 0.587 + color.b * 0.114;\n"
+          + "#else\n"
+          + "    gl_FragColor = color;\n"
+          + "#endif\n"
+          + "}";
+
   /**
-   * Creates the texture reader. This function needs to be called from the OpenGL rendering thread.
+   * A shader program which draws the camera image into one band of rows of the frame buffers. The
+   * band is given in parts of the image height, so that it scales with the output size.
+   */
+  private static class RenderPass {
+    final int program;
+    final int positionAttrib;
+    final int texCoordAttrib;
+    final int cropOriginUniform;
+    final int texelSizeUniform;
+    final int regionRowUniform;
+    final int planeRowTexelsUniform;
+    final int levelWidthUniform;
+    final int levelScaleUniform;
+    final int firstPart;
+    final int partCount;
+    final int partsPerImage;
+    final int level;
+
+    RenderPass(
+        int vertexShader,
+        String fragmentShaderCode,
+        int firstPart,
+        int partCount,
+        int partsPerImage,
+        int level) {
+      int fragmentShader =
+          ShaderUtil.loadGLShader(TAG, GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
+
+      program = GLES20.glCreateProgram();
+      GLES20.glAttachShader(program, vertexShader);
+      GLES20.glAttachShader(program, fragmentShader);
+      GLES20.glLinkProgram(program);
+      GLES20.glUseProgram(program);
+
+      positionAttrib = GLES20.glGetAttribLocation(program, "a_Position");
+      texCoordAttrib = GLES20.glGetAttribLocation(program, "a_TexCoord");
+      cropOriginUniform = GLES20.glGetUniformLocation(program, "u_CropOrigin");
+      texelSizeUniform = GLES20.glGetUniformLocation(program, "u_TexelSize");
+      regionRowUniform = GLES20.glGetUniformLocation(program, "u_RegionRow");
+      planeRowTexelsUniform = GLES20.glGetUniformLocation(program, "u_PlaneRowTexels");
+      levelWidthUniform = GLES20.glGetUniformLocation(program, "u_LevelWidth");
+      levelScaleUniform = GLES20.glGetUniformLocation(program, "u_LevelScale");
+      int texLoc = GLES20.glGetUniformLocation(program, "sTexture");
+      GLES20.glUniform1i(texLoc, 0);
+
+      this.firstPart = firstPart;
+      this.partCount = partCount;
+      this.partsPerImage = partsPerImage;
+      this.level = level;
+    }
+  }
+
+  /**
+   * Creates the texture reader with two frame buffers, skipping submissions when both are in use.
+   * This function needs to be called from the OpenGL rendering thread.
    *
    * @param format the format of the output pixel buffer. It can be one of the two values:
    *     CameraImageBuffer.IMAGE_FORMAT_RGBA or CameraImageBuffer.IMAGE_FORMAT_I8.
@@ -144,46 +455,195 @@ public class TextureReader {
    *     output image covers the entire texture scope and no cropping is applied.
    */
   public void create(int format, int width, int height, Boolean keepAspectRatio) {
-    if (format != CameraImageBuffer.IMAGE_FORMAT_RGBA
-        && format != CameraImageBuffer.IMAGE_FORMAT_I8) {
+    create(format, width, height, keepAspectRatio, DEFAULT_BUFFER_COUNT, FULL_POLICY_SKIP);
+  }
+
+  /**
+   * Creates the texture reader. This function needs to be called from the OpenGL rendering thread.
+   *
+   * @param format the format of the output pixel buffer. It can be one of the two values:
+   *     CameraImageBuffer.IMAGE_FORMAT_RGBA or CameraImageBuffer.IMAGE_FORMAT_I8.
+   * @param width the width of the output image.
+   * @param height the height of the output image.
+   * @param keepAspectRatio whether or not to keep aspect ratio. If true, the output image may be
+   *     cropped if the image aspect ratio is different from the texture aspect ratio. If false, the
+   *     output image covers the entire texture scope and no cropping is applied.
+   * @param bufferCount the number of frame buffers in the ring. One more than the number of frames
+   *     the app holds at the same time is needed to keep submitting without dropping frames.
+   * @param fullPolicy what submitFrame() does when all buffers are in use. One of
+   *     FULL_POLICY_DROP_OLDEST, FULL_POLICY_SKIP or FULL_POLICY_BLOCK.
+   */
+  public void create(
+      int format,
+      int width,
+      int height,
+      Boolean keepAspectRatio,
+      int bufferCount,
+      int fullPolicy) {
+    create(format, width, height, keepAspectRatio, bufferCount, fullPolicy, FILTER_NONE);
+  }
+
+  /**
+   * Creates the texture reader with a filter applied on the GPU. This function needs to be called
+   * from the OpenGL rendering thread.
+   *
+   * @param format the format of the output pixel buffer. With FILTER_NONE, it can be one of
+   *     CameraImageBuffer.IMAGE_FORMAT_RGBA, IMAGE_FORMAT_I8, IMAGE_FORMAT_NV21 (width a multiple
+   *     of 4, even height), IMAGE_FORMAT_I420 (width a multiple of 8, height a multiple of 4) or
+   *     IMAGE_FORMAT_RGB565 (even width). With the Sobel
+   *     filters, it can be either CameraImageBuffer.IMAGE_FORMAT_I8, for an edge map with 0xFF on
+   *     edges and 0x1F elsewhere, or CameraImageBuffer.IMAGE_FORMAT_BINARY, for a packed edge map
+   *     with edges set to 1. The width of binary images must be a multiple of 8; each row then
+   *     takes width / 8 bytes without padding.
+   * @param width the width of the output image.
+   * @param height the height of the output image.
+   * @param keepAspectRatio whether or not to keep aspect ratio. If true, the output image may be
+   *     cropped if the image aspect ratio is different from the texture aspect ratio. If false, the
+   *     output image covers the entire texture scope and no cropping is applied.
+   * @param bufferCount the number of frame buffers in the ring. One more than the number of frames
+   *     the app holds at the same time is needed to keep submitting without dropping frames.
+   * @param fullPolicy what submitFrame() does when all buffers are in use. One of
+   *     FULL_POLICY_DROP_OLDEST, FULL_POLICY_SKIP or FULL_POLICY_BLOCK.
+   * @param filter the filter applied to the camera image. One of FILTER_NONE, FILTER_SOBEL or
+   *     FILTER_GAUSSIAN_SOBEL.
+   */
+  public void create(
+      int format,
+      int width,
+      int height,
+      Boolean keepAspectRatio,
+      int bufferCount,
+      int fullPolicy,
+      int filter) {
+    create(format, width, height, keepAspectRatio, bufferCount, fullPolicy, filter, 1);
+  }
+
+  /**
+   * Creates the texture reader. With more than one level, each frame holds an image pyramid: the
+   * image, followed by levels of half the width and height of the previous one. Each level is
+   * stored contiguously, so {@link ImagePyramidReader} can return a view per level. Pyramids are
+   * only supported without filter, for RGBA and I8 images whose width is a multiple of 2^(levels -
+   * 1) and whose height is a multiple of 4^(levels - 1).
+   */
+  void create(
+      int format,
+      int width,
+      int height,
+      Boolean keepAspectRatio,
+      int bufferCount,
+      int fullPolicy,
+      int filter,
+      int levelCount) {
+    if (filter != FILTER_NONE && filter != FILTER_SOBEL && filter != FILTER_GAUSSIAN_SOBEL) {
+      throw new RuntimeException("Invalid filter.");
+    }
+
+    if (filter == FILTER_NONE
+        ? format == CameraImageBuffer.IMAGE_FORMAT_BINARY
+        : format != CameraImageBuffer.IMAGE_FORMAT_I8
+            && format != CameraImageBuffer.IMAGE_FORMAT_BINARY) {
       throw new RuntimeException("Image format not supported.");
     }
 
+    // Packed formats need whole texels and whole 2x2 chroma blocks.
+    widthAlignment = 1;
+    heightAlignment = 1;
+    switch (format) {
+      case CameraImageBuffer.IMAGE_FORMAT_RGBA:
+      case CameraImageBuffer.IMAGE_FORMAT_I8:
+        break;
+      case CameraImageBuffer.IMAGE_FORMAT_BINARY:
+        // Rows are width / 8 bytes. They need not be a multiple of 4 bytes, since submit() reads
+        // back with a pack alignment of 1.
+        widthAlignment = 8;
+        break;
+      case CameraImageBuffer.IMAGE_FORMAT_NV21:
+        widthAlignment = 4;
+        heightAlignment = 2;
+        break;
+      case CameraImageBuffer.IMAGE_FORMAT_I420:
+        widthAlignment = 8;
+        heightAlignment = 4;
+        break;
+      case CameraImageBuffer.IMAGE_FORMAT_RGB565:
+        widthAlignment = 2;
+        break;
+      default:
+        throw new RuntimeException("Image format not supported.");
+    }
+    if (levelCount < 1
+        || (levelCount > 1
+            && (filter != FILTER_NONE
+                || (format != CameraImageBuffer.IMAGE_FORMAT_RGBA
+                    && format != CameraImageBuffer.IMAGE_FORMAT_I8)))) {
+      throw new RuntimeException("Invalid pyramid level count.");
+    }
+
+    // Pyramid level k packs 2^k rows into each frame buffer row, and takes a 4^k-th of the rows.
+    // Level rows of width >> k bytes need no further alignment, since submit() reads back with a
+    // pack alignment of 1.
+    widthAlignment <<= levelCount - 1;
+    heightAlignment <<= 2 * (levelCount - 1);
+
+    if (width % widthAlignment != 0 || height % heightAlignment != 0) {
+      throw new RuntimeException("Image size not supported by the image format.");
+    }
+
+    if (fullPolicy != FULL_POLICY_DROP_OLDEST
+        && fullPolicy != FULL_POLICY_SKIP
+        && fullPolicy != FULL_POLICY_BLOCK) {
+      throw new RuntimeException("Invalid full policy.");
+    }
+
+    this.bufferCount = bufferCount;
+    this.fullPolicy = fullPolicy;
+    ring = new FrameRing(bufferCount, new GlFrameFence());
+    glThread = Thread.currentThread();
     this.keepAspectRatio = keepAspectRatio;
+    this.filter = filter;
+    this.levelCount = levelCount;
     imageFormat = format;
     imageWidth = width;
     imageHeight = height;
     frontIndex = -1;
     backIndex = -1;
+    texCoordTextureWidth = -1;
+    texCoordTextureHeight = -1;
+    readbackBufferCount = 0;
+    submittedFrameCount = 0;
 
-    if (imageFormat == CameraImageBuffer.IMAGE_FORMAT_RGBA) {
-      pixelBufferSize = imageWidth * imageHeight * 4;
-    } else if (imageFormat == CameraImageBuffer.IMAGE_FORMAT_I8) {
-      pixelBufferSize = imageWidth * imageHeight;
-    }
+    // I8 and binary images are rendered to single channel frame buffers, all other formats to RGBA
+    // frame buffers holding 4 bytes per texel.
+    final boolean singleChannel =
+        imageFormat == CameraImageBuffer.IMAGE_FORMAT_I8
+            || imageFormat == CameraImageBuffer.IMAGE_FORMAT_BINARY;
+    pixelBufferSize = getFrameSize(imageWidth, imageHeight);
+    readWidth = getReadWidth(imageWidth);
+    readHeight = getReadHeight(imageHeight);
 
     // Create framebuffers and PBOs.
     pbo = new int[bufferCount];
     frameBuffer = new int[bufferCount];
     texture = new int[bufferCount];
-    bufferUsed = new Boolean[bufferCount];
+    frameImages = new CameraImageBuffer[bufferCount];
+    frameWidth = new int[bufferCount];
+    frameHeight = new int[bufferCount];
     GLES30.glGenBuffers(bufferCount, pbo, 0);
     GLES20.glGenFramebuffers(bufferCount, frameBuffer, 0);
     GLES20.glGenTextures(bufferCount, texture, 0);
 
     for (int i = 0; i < bufferCount; i++) {
-      bufferUsed[i] = false;
       GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[i]);
 
       GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[i]);
       GLES30.glTexImage2D(
           GLES30.GL_TEXTURE_2D,
           0,
-          imageFormat == CameraImageBuffer.IMAGE_FORMAT_I8 ? GLES30.GL_R8 : GLES30.GL_RGBA,
-          imageWidth,
-          imageHeight,
+          singleChannel ? GLES30.GL_R8 : GLES30.GL_RGBA,
+          readWidth,
+          readHeight,
           0,
-          imageFormat == CameraImageBuffer.IMAGE_FORMAT_I8 ? GLES30.GL_RED : GLES30.GL_RGBA,
+          singleChannel ? GLES30.GL_RED : GLES30.GL_RGBA,
           GLES30.GL_UNSIGNED_BYTE,
           null);
       GLES20.glTexParameteri(
@@ -233,28 +693,120 @@ public class TextureReader {
 
     int vertexShader =
         ShaderUtil.loadGLShader(TAG, GLES20.GL_VERTEX_SHADER, QUAD_RENDERING_VERTEX_SHADER);
-    int fragmentShader =
-        ShaderUtil.loadGLShader(
-            TAG,
-            GLES20.GL_FRAGMENT_SHADER,
-            imageFormat == CameraImageBuffer.IMAGE_FORMAT_I8
-                ? QUAD_RENDERING_FRAGMENT_SHADER_I8
-                : QUAD_RENDERING_FRAGMENT_SHADER_RGBA);
-
-    quadProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(quadProgram, vertexShader);
-    GLES20.glAttachShader(quadProgram, fragmentShader);
-    GLES20.glLinkProgram(quadProgram);
-    GLES20.glUseProgram(quadProgram);
-
-    quadPositionAttrib = GLES20.glGetAttribLocation(quadProgram, "a_Position");
-    quadTexCoordAttrib = GLES20.glGetAttribLocation(quadProgram, "a_TexCoord");
-    int texLoc = GLES20.glGetUniformLocation(quadProgram, "sTexture");
-    GLES20.glUniform1i(texLoc, 0);
+    if (filter != FILTER_NONE) {
+      String fragmentShaderCode =
+          "#define PIXELS_PER_FRAGMENT "
+              + (imageFormat == CameraImageBuffer.IMAGE_FORMAT_BINARY ? 8 : 1)
+              + "\n#define PREFILTER "
+              + (filter == FILTER_GAUSSIAN_SOBEL ? 1 : 0)
+              + "\n"
+              + QUAD_RENDERING_FRAGMENT_SHADER_SOBEL;
+      renderPasses =
+          new RenderPass[] {new RenderPass(vertexShader, fragmentShaderCode, 0, 1, 1, 0)};
+    } else if (imageFormat == CameraImageBuffer.IMAGE_FORMAT_RGBA
+        || imageFormat == CameraImageBuffer.IMAGE_FORMAT_I8) {
+      // The image, followed by the pyramid levels. The rows are counted in parts of a 4^(levels -
+      // 1)-th of the image height, which is the height of the last level in the frame buffer.
+      final int partsPerImage = 1 << (2 * (levelCount - 1));
+      renderPasses = new RenderPass[levelCount];
+      renderPasses[0] =
+          new RenderPass(
+              vertexShader,
+              imageFormat == CameraImageBuffer.IMAGE_FORMAT_I8
+                  ? QUAD_RENDERING_FRAGMENT_SHADER_I8
+                  : QUAD_RENDERING_FRAGMENT_SHADER_RGBA,
+              0,
+              partsPerImage,
+              partsPerImage,
+              0);
+      String pyramidShaderCode =
+          "#define SINGLE_CHANNEL "
+              + (imageFormat == CameraImageBuffer.IMAGE_FORMAT_I8 ? 1 : 0)
+              + "\n"
+              + QUAD_RENDERING_FRAGMENT_SHADER_PYRAMID;
+      int firstPart = partsPerImage;
+      for (int level = 1; level < levelCount; level++) {
+        int partCount = partsPerImage >> (2 * level);
+        renderPasses[level] =
+            new RenderPass(
+                vertexShader, pyramidShaderCode, firstPart, partCount, partsPerImage, level);
+        firstPart += partCount;
+      }
+    } else if (imageFormat == CameraImageBuffer.IMAGE_FORMAT_NV21) {
+      // The luma plane, followed by the interleaved chroma plane.
+      renderPasses =
+          new RenderPass[] {
+            createPackedPass(vertexShader, 0, 0, 4), createPackedPass(vertexShader, 1, 4, 2)
+          };
+    } else if (imageFormat == CameraImageBuffer.IMAGE_FORMAT_I420) {
+      // The luma plane, followed by the U and V planes which take a quarter of the rows each.
+      renderPasses =
+          new RenderPass[] {
+            createPackedPass(vertexShader, 0, 0, 4),
+            createPackedPass(vertexShader, 2, 4, 1),
+            createPackedPass(vertexShader, 3, 5, 1)
+          };
+    } else {
+      renderPasses = new RenderPass[] {createPackedPass(vertexShader, 4, 0, 4)};
+    }
+  }
+
+  /** Creates a pass of QUAD_RENDERING_FRAGMENT_SHADER_PACKED. */
+  private static RenderPass createPackedPass(
+      int vertexShader, int pass, int firstQuarter, int quarterCount) {
+    String fragmentShaderCode =
+        "#define PASS " + pass + "\n" + QUAD_RENDERING_FRAGMENT_SHADER_PACKED;
+    return new RenderPass(vertexShader, fragmentShaderCode, firstQuarter, quarterCount, 4, 0);
+  }
+
+  /** Returns the width of the frame buffer region holding an image, in texels. */
+  private int getReadWidth(int width) {
+    switch (imageFormat) {
+      case CameraImageBuffer.IMAGE_FORMAT_BINARY:
+        return width / 8;
+      case CameraImageBuffer.IMAGE_FORMAT_NV21:
+      case CameraImageBuffer.IMAGE_FORMAT_I420:
+        return width / 4;
+      case CameraImageBuffer.IMAGE_FORMAT_RGB565:
+        return width / 2;
+      default:
+        return width;
+    }
+  }
+
+  /**
+   * Returns the height of the frame buffer region holding an image, in texels. The packed rows are
+   * exactly as wide as the image rows, so the chroma planes just take extra rows.
+   */
+  private int getReadHeight(int height) {
+    switch (imageFormat) {
+      case CameraImageBuffer.IMAGE_FORMAT_NV21:
+      case CameraImageBuffer.IMAGE_FORMAT_I420:
+        return height * 3 / 2;
+      default:
+        // Pyramid level k takes a 4^k-th of the rows.
+        int readHeight = 0;
+        for (int level = 0; level < levelCount; level++) {
+          readHeight += height >> (2 * level);
+        }
+        return readHeight;
+    }
+  }
+
+  /** Returns the size of a frame in bytes, including all pyramid levels. */
+  private int getFrameSize(int width, int height) {
+    int frameSize = 0;
+    for (int level = 0; level < levelCount; level++) {
+      frameSize += CameraImageBuffer.getBufferSize(width >> level, height >> level, imageFormat);
+    }
+    return frameSize;
   }
 
   /** Destroy the texture reader. */
   public void destroy() {
+    if (ring != null) {
+      ring.deleteFences();
+    }
     if (frameBuffer != null) {
       GLES20.glDeleteFramebuffers(bufferCount, frameBuffer, 0);
       frameBuffer = null;
@@ -274,86 +826,239 @@ public class TextureReader {
    * immediately. Instead, it returns a frame buffer index, which can be used to acquire the frame
    * buffer later through acquireFrame().
    *
-   * <p>If there is no enough frame buffer available, an exception will be thrown.
+   * <p>If there is no frame buffer available, the full policy passed to create() applies: the
+   * oldest frame which has not been acquired yet is dropped and its buffer reused, the submission
+   * is skipped, or the call blocks until another thread releases a frame. Dropping or skipping
+   * returns -1 if no buffer can be used. Blocking throws an exception if no frame is acquired,
+   * since no buffer could ever be released then.
    *
    * @param textureId the id of the input OpenGL texture.
    * @param textureWidth width of the texture in pixels.
    * @param textureHeight height of the texture in pixels.
-   * @return the index to the frame buffer this request is associated to. You should use this index
-   *     to acquire the frame using acquireFrame(); and you should release the frame buffer using
-   *     releaseBuffer() routine after using of the frame.
+   * @return the index to the frame buffer this request is associated to, or -1 if the frame was
+   *     skipped. You should use this index to acquire the frame using acquireFrame(); and you
+   *     should release the frame buffer using releaseBuffer() routine after using of the frame.
    */
   public int submitFrame(int textureId, int textureWidth, int textureHeight) {
+    // Calculate the texture coordinates, unless the texture size is unchanged.
+    if (textureWidth != texCoordTextureWidth || textureHeight != texCoordTextureHeight) {
+      updateTexCoords(textureWidth, textureHeight);
+    }
+
+    return submit(textureId, imageWidth, imageHeight);
+  }
+
+  /**
+   * Submits a reading request for a region of interest of the texture. This works like
+   * submitFrame(textureId, textureWidth, textureHeight), but only the region is rendered and read
+   * back, and the acquired image has the given output size.
+   *
+   * <p>The region is stretched to the output size. To read it at the full camera resolution, pass
+   * an output size of roiWidth * textureWidth by roiHeight * textureHeight, as long as that fits
+   * into the image size given to create().
+   *
+   * @param textureId the id of the input OpenGL texture.
+   * @param roiX the left edge of the region, in texture coordinates between 0 and 1.
+   * @param roiY the bottom edge of the region, in texture coordinates between 0 and 1. The first
+   *     row of the image is read from the bottom of the region, like for full frames.
+   * @param roiWidth the width of the region, in texture coordinates.
+   * @param roiHeight the height of the region, in texture coordinates.
+   * @param outputWidth the width of the output image. At most the image width given to create(),
+   *     and aligned like that width for packed formats.
+   * @param outputHeight the height of the output image. At most the image height given to
+   *     create(), and aligned like that height for packed formats.
+   * @return the index to the frame buffer this request is associated to, or -1 if the frame was
+   *     skipped.
+   */
+  public int submitFrame(
+      int textureId,
+      float roiX,
+      float roiY,
+      float roiWidth,
+      float roiHeight,
+      int outputWidth,
+      int outputHeight) {
+    if (roiX < 0
+        || roiY < 0
+        || roiWidth <= 0
+        || roiHeight <= 0
+        || roiX + roiWidth > 1
+        || roiY + roiHeight > 1) {
+      throw new RuntimeException("Invalid region of interest.");
+    }
+
+    if (outputWidth <= 0
+        || outputHeight <= 0
+        || outputWidth > imageWidth
+        || outputHeight > imageHeight
+        || outputWidth % widthAlignment != 0
+        || outputHeight % heightAlignment != 0) {
+      throw new RuntimeException("Invalid output size.");
+    }
+
+    // The region changes from frame to frame, so its coordinates are not cached.
+    setTexCoords(roiX, roiY, roiWidth, roiHeight, outputWidth, outputHeight);
+    texCoordTextureWidth = -1;
+    texCoordTextureHeight = -1;
+
+    return submit(textureId, outputWidth, outputHeight);
+  }
+
+  /** Renders the texture into the next buffer and starts reading it into the PBO. */
+  private int submit(int textureId, int outputWidth, int outputHeight) {
     // Find next buffer.
-    int bufferIndex = -1;
-    for (int i = 0; i < bufferCount; i++) {
-      if (!bufferUsed[i]) {
-        bufferIndex = i;
-        break;
-      }
+    int bufferIndex;
+    try {
+      do {
+        unmapReleasedBuffers();
+        bufferIndex = ring.submit(fullPolicy);
+      } while (bufferIndex == -1 && fullPolicy == FULL_POLICY_BLOCK);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return -1;
     }
     if (bufferIndex == -1) {
-      throw new RuntimeException("No buffer available.");
+      return -1;
     }
 
     // Bind both read and write to framebuffer.
     GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[bufferIndex]);
 
-    // Save and setup viewport
-    IntBuffer viewport = IntBuffer.allocate(4);
-    GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, viewport);
-    GLES20.glViewport(0, 0, imageWidth, imageHeight);
+    // Save viewport. Each render pass sets up its own.
+    GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, savedViewport, 0);
 
     // Draw texture to framebuffer.
-    drawTexture(textureId, textureWidth, textureHeight);
+    drawTexture(textureId, outputWidth, outputHeight);
 
     // Start reading into PBO
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
     GLES30.glReadBuffer(GLES30.GL_COLOR_ATTACHMENT0);
 
+    // Read rows tightly packed. With the default alignment of 4, single channel rows whose width is
+    // not a multiple of 4 would be padded and no longer match the image layout.
+    GLES20.glGetIntegerv(GLES20.GL_PACK_ALIGNMENT, savedPackAlignment, 0);
+    GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, 1);
+
     GLES30.glReadPixels(
         0,
         0,
-        imageWidth,
-        imageHeight,
-        imageFormat == CameraImageBuffer.IMAGE_FORMAT_I8 ? GLES30.GL_RED : GLES20.GL_RGBA,
+        getReadWidth(outputWidth),
+        getReadHeight(outputHeight),
+        imageFormat == CameraImageBuffer.IMAGE_FORMAT_I8
+                || imageFormat == CameraImageBuffer.IMAGE_FORMAT_BINARY
+            ? GLES30.GL_RED
+            : GLES20.GL_RGBA,
         GLES20.GL_UNSIGNED_BYTE,
         0);
+    GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, savedPackAlignment[0]);
+
+    // Fence the readback so that its completion can be polled.
+    ring.insertFence(bufferIndex);
+    frameWidth[bufferIndex] = outputWidth;
+    frameHeight[bufferIndex] = outputHeight;
 
     // Restore viewport.
-    GLES20.glViewport(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
+    GLES20.glViewport(savedViewport[0], savedViewport[1], savedViewport[2], savedViewport[3]);
 
     GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
 
-    bufferUsed[bufferIndex] = true;
+    submittedFrameCount++;
     return bufferIndex;
   }
 
+  /**
+   * Returns the number of readback buffers created since create(): the ByteBuffer which the
+   * platform creates each time a frame is mapped, plus the CameraImageBuffer created the first time
+   * each frame buffer is acquired. In steady state the count grows by one per acquired frame. Only
+   * these two creations are counted, so this does not show other allocations. This needs to be
+   * called from the OpenGL rendering thread.
+   */
+  public long getReadbackBufferCount() {
+    return readbackBufferCount;
+  }
+
+  /**
+   * Returns the number of frames submitted since create(). This needs to be called from the OpenGL
+   * rendering thread.
+   */
+  public long getSubmittedFrameCount() {
+    return submittedFrameCount;
+  }
+
+  /**
+   * Checks whether the GPU has finished reading the pixels of a frame requested earlier, so that
+   * acquireFrame() will not block. This routine does not block either.
+   *
+   * <p>If input buffer index is invalid, an exception will be thrown.
+   *
+   * @param bufferIndex the index to the frame buffer. It has to be a frame index returned from
+   *     submitFrame() which has not been acquired yet.
+   * @return true if the frame is ready.
+   */
+  public boolean isFrameReady(int bufferIndex) {
+    return ring.isReady(bufferIndex);
+  }
+
+  /**
+   * Acquires the frame requested earlier if the GPU has finished reading its pixels. Unlike
+   * acquireFrame(), this routine never blocks.
+   *
+   * <p>If input buffer index is invalid, an exception will be thrown.
+   *
+   * @param bufferIndex the index to the frame buffer to be acquired. It has to be a frame index
+   *     returned from submitFrame().
+   * @return a CameraImageBuffer object if the frame is ready. Null otherwise, in which case the
+   *     frame can be polled again later.
+   */
+  public CameraImageBuffer tryAcquireFrame(int bufferIndex) {
+    if (!ring.isReady(bufferIndex)) {
+      return null;
+    }
+    return acquireFrame(bufferIndex);
+  }
+
   /**
    * Acquires the frame requested earlier. This routine returns a CameraImageBuffer object that
-   * contains the pixels mapped to the frame buffer requested previously through submitFrame().
+   * contains the pixels mapped to the frame buffer requested previously through submitFrame(). It
+   * blocks until the GPU has finished reading the pixels.
    *
    * <p>If input buffer index is invalid, an exception will be thrown.
    *
+   * <p>The returned object is reused for later frames of the same buffer, so it must not be used
+   * after the frame has been released.
+   *
    * @param bufferIndex the index to the frame buffer to be acquired. It has to be a frame index
    *     returned from submitFrame().
    * @return a CameraImageBuffer object if succeed. Null otherwise.
    */
   public CameraImageBuffer acquireFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
-      throw new RuntimeException("Invalid buffer index.");
-    }
+    ring.acquire(bufferIndex);
 
     // Bind the current PB and acquire the pixel buffer.
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
+    final int width = frameWidth[bufferIndex];
+    final int height = frameHeight[bufferIndex];
     ByteBuffer mapped =
         (ByteBuffer)
             GLES30.glMapBufferRange(
-                GLES30.GL_PIXEL_PACK_BUFFER, 0, pixelBufferSize, GLES30.GL_MAP_READ_BIT);
+                GLES30.GL_PIXEL_PACK_BUFFER,
+                0,
+                getFrameSize(width, height),
+                GLES30.GL_MAP_READ_BIT);
+    readbackBufferCount++;
 
-    // Wrap the mapped buffer into CameraImageBuffer object.
-    CameraImageBuffer buffer = new CameraImageBuffer(imageWidth, imageHeight, imageFormat, mapped);
+    // Wrap the mapped buffer into the CameraImageBuffer object of this buffer.
+    CameraImageBuffer buffer = frameImages[bufferIndex];
+    if (buffer == null) {
+      buffer = new CameraImageBuffer(width, height, imageFormat, mapped);
+      frameImages[bufferIndex] = buffer;
+      readbackBufferCount++;
+    } else {
+      buffer.width = width;
+      buffer.height = height;
+      buffer.buffer = mapped;
+    }
 
     return buffer;
   }
@@ -362,17 +1067,36 @@ public class TextureReader {
    * Releases a previously requested frame buffer. If input buffer index is invalid, an exception
    * will be thrown.
    *
+   * <p>This routine can be called from any thread. Outside of the OpenGL thread, the buffer is
+   * unmapped and becomes available again on the next call to submitFrame().
+   *
    * @param bufferIndex the index to the frame buffer to be acquired. It has to be a frame index
    *     returned from submitFrame().
    */
   public void releaseFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
-      throw new RuntimeException("Invalid buffer index.");
+    boolean onGlThread = Thread.currentThread() == glThread;
+    if (ring.release(bufferIndex, onGlThread) && onGlThread) {
+      unmapBuffer(bufferIndex);
+    }
+  }
+
+  /** Finishes releasing the buffers which were released outside of the OpenGL thread. */
+  private void unmapReleasedBuffers() {
+    for (int i = 0; i < bufferCount; i++) {
+      if (ring.getState(i) == FrameRing.STATE_RELEASED && ring.finishRelease(i)) {
+        unmapBuffer(i);
+      }
+    }
+  }
+
+  private void unmapBuffer(int bufferIndex) {
+    // Do not keep the unmapped buffer reachable.
+    if (frameImages[bufferIndex] != null) {
+      frameImages[bufferIndex].buffer = null;
     }
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
     GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
-    bufferUsed[bufferIndex] = false;
   }
 
   /**
@@ -407,7 +1131,7 @@ public class TextureReader {
   }
 
   /** Draws texture to full screen. */
-  private void drawTexture(int textureId, int textureWidth, int textureHeight) {
+  private void drawTexture(int textureId, int outputWidth, int outputHeight) {
     // Disable features that we don't use.
     GLES20.glDisable(GLES20.GL_DEPTH_TEST);
     GLES20.glDisable(GLES20.GL_CULL_FACE);
@@ -423,11 +1147,64 @@ public class TextureReader {
     GLES20.glClearColor(0, 0, 0, 0);
     GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
-    // Set the vertex positions.
-    GLES20.glVertexAttribPointer(
-        quadPositionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadVertices);
+    // Select input texture.
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+
+    final int passWidth = getReadWidth(outputWidth);
+    for (RenderPass pass : renderPasses) {
+      final int passRow = outputHeight * pass.firstPart / pass.partsPerImage;
+      final int passHeight = outputHeight * pass.partCount / pass.partsPerImage;
+      GLES20.glViewport(0, passRow, passWidth, passHeight);
+      GLES20.glUseProgram(pass.program);
+
+      // Set the vertex positions and texture coordinates. The packing shaders do not use the
+      // texture coordinates, so the attribute may have been optimized out.
+      GLES20.glVertexAttribPointer(
+          pass.positionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadVertices);
+      GLES20.glEnableVertexAttribArray(pass.positionAttrib);
+      if (pass.texCoordAttrib != -1) {
+        GLES20.glVertexAttribPointer(
+            pass.texCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoord);
+        GLES20.glEnableVertexAttribArray(pass.texCoordAttrib);
+      }
+
+      // The Sobel and packing shaders sample individual output pixels.
+      if (pass.cropOriginUniform != -1) {
+        GLES20.glUniform2f(pass.cropOriginUniform, cropOriginU, cropOriginV);
+      }
+      if (pass.texelSizeUniform != -1) {
+        GLES20.glUniform2f(pass.texelSizeUniform, texelSizeU, texelSizeV);
+      }
+      if (pass.regionRowUniform != -1) {
+        GLES20.glUniform1f(pass.regionRowUniform, passRow);
+      }
+      if (pass.planeRowTexelsUniform != -1) {
+        GLES20.glUniform1f(pass.planeRowTexelsUniform, passWidth / 2);
+      }
+      if (pass.levelWidthUniform != -1) {
+        GLES20.glUniform1f(pass.levelWidthUniform, outputWidth >> pass.level);
+        GLES20.glUniform1f(pass.levelScaleUniform, 1 << pass.level);
+      }
 
-    // Calculate the texture coordinates.
+      // Draw a quad with texture.
+      GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+      // Disable vertex arrays
+      GLES20.glDisableVertexAttribArray(pass.positionAttrib);
+      if (pass.texCoordAttrib != -1) {
+        GLES20.glDisableVertexAttribArray(pass.texCoordAttrib);
+      }
+    }
+
+    // Reset texture binding.
+    GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
+  }
+
+  /** Computes the texture coordinates of the full frame quad for the given texture size. */
+  private void updateTexCoords(int textureWidth, int textureHeight) {
+    float offsetU = 0;
+    float offsetV = 0;
     if (keepAspectRatio) {
       int renderWidth = 0;
       int renderHeight = 0;
@@ -440,43 +1217,54 @@ public class TextureReader {
         renderWidth = textureWidth * imageHeight / textureHeight;
         renderHeight = imageHeight;
       }
-      float offsetU = (float) (renderWidth - imageWidth) / renderWidth / 2;
-      float offsetV = (float) (renderHeight - imageHeight) / renderHeight / 2;
-
-      float[] texCoords =
-          new float[] {
-            offsetU, offsetV, offsetU, 1 - offsetV, 1 - offsetU, offsetV, 1 - offsetU, 1 - offsetV
-          };
-
-      quadTexCoord.put(texCoords);
-      quadTexCoord.position(0);
-    } else {
-      quadTexCoord.put(QUAD_TEXCOORDS);
-      quadTexCoord.position(0);
+      offsetU = (float) (renderWidth - imageWidth) / renderWidth / 2;
+      offsetV = (float) (renderHeight - imageHeight) / renderHeight / 2;
     }
 
-    // Set the texture coordinates.
-    GLES20.glVertexAttribPointer(
-        quadTexCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoord);
-
-    // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(quadPositionAttrib);
-    GLES20.glEnableVertexAttribArray(quadTexCoordAttrib);
+    setTexCoords(offsetU, offsetV, 1 - 2 * offsetU, 1 - 2 * offsetV, imageWidth, imageHeight);
+    texCoordTextureWidth = textureWidth;
+    texCoordTextureHeight = textureHeight;
+  }
 
-    GLES20.glUseProgram(quadProgram);
+  /**
+   * Sets the texture coordinates of the quad to the given region of the texture, which is drawn
+   * at the given output size.
+   */
+  private void setTexCoords(
+      float u, float v, float width, float height, int outputWidth, int outputHeight) {
+    quadTexCoord.put(0, u);
+    quadTexCoord.put(1, v);
+    quadTexCoord.put(2, u);
+    quadTexCoord.put(3, v + height);
+    quadTexCoord.put(4, u + width);
+    quadTexCoord.put(5, v);
+    quadTexCoord.put(6, u + width);
+    quadTexCoord.put(7, v + height);
 
-    // Select input texture.
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-    GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+    cropOriginU = u;
+    cropOriginV = v;
+    texelSizeU = width / outputWidth;
+    texelSizeV = height / outputHeight;
+  }
 
-    // Draw a quad with texture.
-    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+  /** Frame fences backed by OpenGL ES 3.0 sync objects. */
+  private static class GlFrameFence implements FrameFence {
+    @Override
+    public long insert() {
+      return GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
 
-    // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(quadPositionAttrib);
-    GLES20.glDisableVertexAttribArray(quadTexCoordAttrib);
+    @Override
+    public boolean isSignaled(long fence) {
+      // Zero timeout: only poll. The flush makes sure the fence eventually gets signaled.
+      int status = GLES30.glClientWaitSync(fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+      // On failure report the frame as ready; acquireFrame() then falls back to a blocking map.
+      return status != GLES30.GL_TIMEOUT_EXPIRED;
+    }
 
-    // Reset texture binding.
-    GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
+    @Override
+    public void delete(long fence) {
+      GLES30.glDeleteSync(fence);
+    }
   }
 }
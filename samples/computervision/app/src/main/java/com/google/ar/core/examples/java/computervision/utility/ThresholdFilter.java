@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+/** Binarizes a grayscale image: pixels at or above the threshold become 0xFF, others 0x00. */
+public class ThresholdFilter extends LookupTableFilter {
+  /**
+   * Constructor.
+   *
+   * @param threshold the smallest input value mapped to 0xFF, from 0 to 256.
+   */
+  public ThresholdFilter(int threshold) {
+    if (threshold < 0 || threshold > 256) {
+      throw new RuntimeException("Invalid threshold.");
+    }
+    for (int i = 0; i < lookupTable.length; i++) {
+      lookupTable[i] = i >= threshold ? (byte) 0xFF : 0;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counts the bytes allocated on the heap by the calling thread, using the allocation counters of
+ * HotSpot based JVMs. Tests using it are skipped on JVMs without these counters.
+ */
+final class AllocationCounter {
+  private AllocationCounter() {}
+
+  /**
+   * Runs a task repeatedly after warming it up, and returns the bytes the calling thread allocated
+   * during the measured runs.
+   *
+   * @param task the code to measure. Allocations of other threads are not counted.
+   * @return the allocated bytes over all measured runs.
+   */
+  static long measure(Runnable task) {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+    assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+
+    // Warm up, so that lazily grown buffers reach their final size and the code is compiled.
+    for (int i = 0; i < 200; i++) {
+      task.run();
+    }
+
+    long threadId = Thread.currentThread().getId();
+    long before = threadBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < 100; i++) {
+      task.run();
+    }
+    return threadBean.getThreadAllocatedBytes(threadId) - before;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Tests for {@link AnalysisScheduler}. */
+public class AnalysisSchedulerTest {
+  private static final long MILLIS = 1000000L;
+
+  // 10 analyzed frames per second, with a budget of 30 ms per analysis.
+  private static final float RATE = 10.0f;
+  private static final long BUDGET_NANOS = 30 * MILLIS;
+
+  @Test
+  public void shouldAnalyze_picksFramesAtTargetRate() {
+    AnalysisScheduler scheduler = new AnalysisScheduler(RATE, BUDGET_NANOS);
+    int picked = 0;
+    // 100 frames, rendered every 10 ms.
+    for (int frame = 0; frame < 100; frame++) {
+      if (scheduler.shouldAnalyze(frame * 10 * MILLIS)) {
+        assertEquals("Frame " + frame, 0, frame % 10);
+        picked++;
+      }
+    }
+    assertEquals(10, picked);
+    assertEquals(100, scheduler.getFrameCount());
+    assertEquals(90, scheduler.getSkippedFrameCount());
+    assertEquals(0, scheduler.getDroppedFrameCount());
+  }
+
+  @Test
+  public void shouldAnalyze_lateFrameDoesNotCauseBurst() {
+    AnalysisScheduler scheduler = new AnalysisScheduler(RATE, BUDGET_NANOS);
+    assertTrue(scheduler.shouldAnalyze(0));
+    assertTrue(scheduler.shouldAnalyze(350 * MILLIS));
+    assertFalse(scheduler.shouldAnalyze(360 * MILLIS));
+    assertFalse(scheduler.shouldAnalyze(440 * MILLIS));
+    assertTrue(scheduler.shouldAnalyze(450 * MILLIS));
+  }
+
+  @Test
+  public void reportNotSubmitted_countsOneDropAndKeepsSchedule() {
+    AnalysisScheduler scheduler = new AnalysisScheduler(RATE, BUDGET_NANOS);
+    assertTrue(scheduler.shouldAnalyze(0));
+    scheduler.reportNotSubmitted();
+    scheduler.reportNotSubmitted();
+    assertEquals(1, scheduler.getDroppedFrameCount());
+
+    // The frames until the next interval are still skipped, and reporting them changes nothing.
+    for (int frame = 1; frame < 10; frame++) {
+      assertFalse(scheduler.shouldAnalyze(frame * 10 * MILLIS));
+      scheduler.reportNotSubmitted();
+    }
+    assertTrue(scheduler.shouldAnalyze(100 * MILLIS));
+    assertEquals(1, scheduler.getDroppedFrameCount());
+    assertEquals(9, scheduler.getSkippedFrameCount());
+  }
+
+  @Test
+  public void reportNotSubmitted_whileBusyCountsOneDropPerScheduledFrame() {
+    AnalysisScheduler scheduler = new AnalysisScheduler(RATE, BUDGET_NANOS);
+    // The reader is busy for 1 s: every picked frame fails to be read back.
+    for (int frame = 0; frame < 100; frame++) {
+      if (scheduler.shouldAnalyze(frame * 10 * MILLIS)) {
+        scheduler.reportNotSubmitted();
+      }
+    }
+    assertEquals(10, scheduler.getDroppedFrameCount());
+    assertEquals(90, scheduler.getSkippedFrameCount());
+  }
+
+  @Test
+  public void reportDropped_addsToDroppedFrames() {
+    AnalysisScheduler scheduler = new AnalysisScheduler(RATE, BUDGET_NANOS);
+    assertTrue(scheduler.shouldAnalyze(0));
+    scheduler.reportNotSubmitted();
+    scheduler.reportDropped(2);
+    scheduler.reportDropped(0);
+    assertEquals(3, scheduler.getDroppedFrameCount());
+  }
+
+  @Test
+  public void reportProcessingTime_stretchesIntervalOverBudget() {
+    AnalysisScheduler scheduler = new AnalysisScheduler(RATE, BUDGET_NANOS);
+    assertEquals(100 * MILLIS, scheduler.getIntervalNanos());
+
+    scheduler.reportProcessingTime(20 * MILLIS);
+    assertEquals(100 * MILLIS, scheduler.getIntervalNanos());
+    assertEquals(20 * MILLIS, scheduler.getAverageProcessingTimeNanos());
+
+    // The average moves a fifth of the way: 20 ms + (170 ms - 20 ms) / 5 = 50 ms.
+    scheduler.reportProcessingTime(170 * MILLIS);
+    assertEquals(50 * MILLIS, scheduler.getAverageProcessingTimeNanos(), MILLIS / 1000);
+    assertEquals(100 * MILLIS * 50 / 30, scheduler.getIntervalNanos(), MILLIS / 1000);
+    assertEquals(2, scheduler.getProcessedFrameCount());
+
+    assertTrue(scheduler.shouldAnalyze(0));
+    assertFalse(scheduler.shouldAnalyze(150 * MILLIS));
+    assertTrue(scheduler.shouldAnalyze(170 * MILLIS));
+  }
+
+  @Test
+  public void rates_countFramesOfLastSecond() {
+    AnalysisScheduler scheduler = new AnalysisScheduler(RATE, BUDGET_NANOS);
+    assertEquals(0, scheduler.getRenderRate(), 0);
+
+    // Frames every 10 ms from 0 to 1 s, each picked frame analyzed right away.
+    for (int frame = 0; frame <= 100; frame++) {
+      if (scheduler.shouldAnalyze(frame * 10 * MILLIS)) {
+        scheduler.reportProcessingTime(5 * MILLIS);
+      }
+    }
+    assertEquals(100, scheduler.getRenderRate(), 1e-3f);
+    // The frame at 1 s is analyzed after the rates were measured.
+    assertEquals(10, scheduler.getAnalysisRate(), 1e-3f);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void constructor_rejectsInvalidRate() {
+    new AnalysisScheduler(0, BUDGET_NANOS);
+  }
+}
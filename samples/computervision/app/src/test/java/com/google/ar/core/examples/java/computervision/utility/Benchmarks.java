@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Minimal timing harness for the image processing benchmarks. Benchmarks only run when the
+ * "benchmark" system property is true, which the Gradle build sets for ./gradlew test -Pbenchmark.
+ * The timings are printed; they are measured on the JVM running the tests, not on a device.
+ */
+final class Benchmarks {
+  private static final int WARM_UP_ITERATIONS = 50;
+  private static final int ITERATIONS = 100;
+
+  private Benchmarks() {}
+
+  /** Skips the calling test unless benchmarks are enabled. */
+  static void assumeEnabled() {
+    assumeTrue("Benchmarks are disabled; run with -Pbenchmark.", Boolean.getBoolean("benchmark"));
+  }
+
+  /**
+   * Runs a task repeatedly after warming it up, prints the average time per run and returns it.
+   *
+   * @param name the name printed with the timing.
+   * @param task the code to time.
+   * @return the average time of a run, in milliseconds.
+   */
+  static double time(String name, Runnable task) {
+    for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+      task.run();
+    }
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      task.run();
+    }
+    double millis = (System.nanoTime() - startNanos) / 1e6 / ITERATIONS;
+    System.out.println(String.format("%-48s %8.3f ms", name, millis));
+    return millis;
+  }
+}
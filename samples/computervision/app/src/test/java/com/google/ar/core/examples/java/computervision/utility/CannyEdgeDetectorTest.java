@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** Tests for {@link CannyEdgeDetector}. */
+public class CannyEdgeDetectorTest {
+  private static final int EDGE = 0xFF;
+  private static final int NO_EDGE = 0x1F;
+
+  @Test
+  public void detect_flatImageHasNoEdges() {
+    CameraImageBuffer input = TestImages.create(32, 16, false);
+    for (int i = 0; i < 32 * 16; i++) {
+      input.buffer.put(i, (byte) 150);
+    }
+    CameraImageBuffer output = new CameraImageBuffer();
+    assertTrue(new CannyEdgeDetector().detect(output, input));
+    assertEquals(0, countEdges(output, 0, output.height));
+    assertEquals(NO_EDGE, TestImages.get(output, 0, 0));
+  }
+
+  @Test
+  public void detect_stepGivesOnePixelWideEdge() {
+    CameraImageBuffer input = step(48, 20, 24, 40, 200, 200);
+    CameraImageBuffer output = new CameraImageBuffer();
+    assertTrue(new CannyEdgeDetector().detect(output, input));
+    for (int y = 0; y < output.height; y++) {
+      assertEquals("Edges in row " + y, 1, countEdges(output, y, y + 1));
+      int x = edgeColumn(output, y);
+      assertTrue("Edge of row " + y + " at " + x, x == 23 || x == 24);
+    }
+  }
+
+  @Test
+  public void detect_hysteresisFollowsWeakEdgesConnectedToStrongOnes() {
+    // The upper rows have a strong step, the lower rows a weak one in the same column. The change
+    // of brightness between the halves is an edge of its own, so only the step column is checked.
+    CameraImageBuffer input = step(48, 40, 24, 100, 200, 140);
+    CameraImageBuffer output = new CameraImageBuffer();
+    assertTrue(new CannyEdgeDetector().detect(output, input));
+    for (int y = 0; y < output.height; y++) {
+      int x = edgeColumn(output, y);
+      assertTrue("Edge of row " + y + " at " + x, x == 23 || x == 24);
+    }
+  }
+
+  @Test
+  public void detect_hysteresisDropsIsolatedWeakEdges() {
+    // Only a weak step, with a gradient between the low and high threshold.
+    CameraImageBuffer input = step(48, 40, 24, 100, 140, 140);
+    CameraImageBuffer output = new CameraImageBuffer();
+    CannyEdgeDetector detector = new CannyEdgeDetector();
+    assertTrue(detector.detect(output, input));
+    assertEquals(0, countEdges(output, 0, output.height));
+
+    // With a lower high threshold, the same step is strong.
+    detector.setThresholds(CannyEdgeDetector.DEFAULT_LOW_THRESHOLD, 80);
+    assertTrue(detector.detect(output, input));
+    assertEquals(output.height, countEdges(output, 0, output.height));
+
+    // With a higher low threshold, it is gone again.
+    detector.setThresholds(120, 130);
+    assertTrue(detector.detect(output, input));
+    assertEquals(0, countEdges(output, 0, output.height));
+  }
+
+  @Test
+  public void detect_handlesTinyImages() {
+    int[][] sizes = {{1, 1}, {1, 7}, {7, 1}, {2, 2}};
+    CannyEdgeDetector detector = new CannyEdgeDetector();
+    for (int[] size : sizes) {
+      CameraImageBuffer output = new CameraImageBuffer();
+      assertTrue(detector.detect(output, TestImages.noisyGradient(size[0], size[1], 1, false)));
+      assertEquals(size[0], output.width);
+      assertEquals(size[1], output.height);
+    }
+  }
+
+  @Test
+  public void detect_doesNotAllocateAfterWarmUp() {
+    final CannyEdgeDetector detector = new CannyEdgeDetector();
+    final CameraImageBuffer input = syntheticScene(256, 128);
+    final CameraImageBuffer output = new CameraImageBuffer();
+    long bytes =
+        AllocationCounter.measure(
+            new Runnable() {
+              @Override
+              public void run() {
+                detector.detect(output, input);
+              }
+            });
+    assertEquals(0, bytes);
+  }
+
+  @Test
+  public void detect_rejectsInvalidImages() {
+    CannyEdgeDetector detector = new CannyEdgeDetector();
+    assertFalse(detector.detect(new CameraImageBuffer(), new CameraImageBuffer()));
+    CameraImageBuffer input = TestImages.create(4, 4, false);
+    assertFalse(detector.detect(input, input));
+    assertFalse(detector.detect(null, input));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void setThresholds_rejectsHighBelowLow() {
+    new CannyEdgeDetector().setThresholds(100, 50);
+  }
+
+  @Test
+  public void benchmark_detect() {
+    Benchmarks.assumeEnabled();
+    int[][] sizes = {{640, 480}, {1024, 512}};
+    for (int[] size : sizes) {
+      final CannyEdgeDetector detector = new CannyEdgeDetector();
+      final CameraImageBuffer input = syntheticScene(size[0], size[1]);
+      final CameraImageBuffer output = new CameraImageBuffer();
+      Benchmarks.time(
+          "CannyEdgeDetector " + size[0] + "x" + size[1],
+          new Runnable() {
+            @Override
+            public void run() {
+              detector.detect(output, input);
+            }
+          });
+    }
+  }
+
+  /**
+   * Returns an image which is dark left of the step column, and has one brightness right of it in
+   * the upper half and another in the lower half.
+   */
+  private static CameraImageBuffer step(
+      int width, int height, int stepColumn, int dark, int upperBright, int lowerBright) {
+    CameraImageBuffer image = TestImages.create(width, height, false);
+    for (int y = 0; y < height; y++) {
+      int bright = y < height / 2 ? upperBright : lowerBright;
+      for (int x = 0; x < width; x++) {
+        image.buffer.put(y * width + x, (byte) (x < stepColumn ? dark : bright));
+      }
+    }
+    return image;
+  }
+
+  /** Returns a noisy image with a vertical step and a disc. */
+  private static CameraImageBuffer syntheticScene(int width, int height) {
+    CameraImageBuffer image = TestImages.create(width, height, true);
+    Random random = new Random(3);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int value = x < width * 3 / 10 ? 40 : 200;
+        if (Math.hypot(x - width * 6 / 10, y - height / 2) < height * 3 / 10) {
+          value = 100;
+        }
+        image.buffer.put(y * width + x, (byte) (value + random.nextInt(9) - 4));
+      }
+    }
+    return image;
+  }
+
+  private static int countEdges(CameraImageBuffer image, int startRow, int endRow) {
+    int count = 0;
+    for (int y = startRow; y < endRow; y++) {
+      for (int x = 0; x < image.width; x++) {
+        if (TestImages.get(image, x, y) == EDGE) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  private static int edgeColumn(CameraImageBuffer image, int y) {
+    for (int x = 0; x < image.width; x++) {
+      if (TestImages.get(image, x, y) == EDGE) {
+        return x;
+      }
+    }
+    return -1;
+  }
+}
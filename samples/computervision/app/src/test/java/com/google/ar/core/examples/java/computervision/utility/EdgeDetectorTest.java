@@ -0,0 +1,495 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+/** Tests for {@link EdgeDetector}. */
+public class EdgeDetectorTest {
+  @Test
+  public void detect_doesNotAllocateAfterWarmUp() {
+    final EdgeDetector detector = new EdgeDetector();
+    final CameraImageBuffer output = new CameraImageBuffer();
+    final CameraImageBuffer large = TestImages.noisyGradient(320, 240, 1, true);
+    final CameraImageBuffer small = TestImages.noisyGradient(160, 120, 2, false);
+    long bytes =
+        AllocationCounter.measure(
+            new Runnable() {
+              @Override
+              public void run() {
+                // Alternate sizes: shrinking must not reallocate the scratch or output buffers.
+                detector.detect(output, large);
+                detector.detect(output, small);
+              }
+            });
+    assertEquals(0, bytes);
+  }
+
+  @Test
+  public void detect_concurrentDetectorsMatchSequentialResults() throws Exception {
+    final CameraImageBuffer first = TestImages.noisyGradient(200, 150, 1, true);
+    final CameraImageBuffer second = TestImages.checkerboard(120, 90, 7, false);
+    final CameraImageBuffer firstExpected = new CameraImageBuffer();
+    final CameraImageBuffer secondExpected = new CameraImageBuffer();
+    assertTrue(new EdgeDetector().detect(firstExpected, first));
+    assertTrue(new EdgeDetector().detect(secondExpected, second));
+
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final boolean useFirst = t % 2 == 0;
+      threads[t] =
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                EdgeDetector detector = new EdgeDetector();
+                CameraImageBuffer output = new CameraImageBuffer();
+                for (int i = 0; i < 50; i++) {
+                  assertTrue(detector.detect(output, useFirst ? first : second));
+                  TestImages.assertImagesEqual(useFirst ? firstExpected : secondExpected, output);
+                }
+              } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+              }
+            }
+          };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+  }
+
+  @Test
+  public void detect_directAndHeapInputsMatch() {
+    CameraImageBuffer direct = TestImages.noisyGradient(97, 53, 3, true);
+    CameraImageBuffer heap = TestImages.copy(direct, false);
+    // A heap buffer whose array does not start at offset 0.
+    ByteBuffer padded = ByteBuffer.allocate(direct.width * direct.height + 5);
+    padded.position(5);
+    CameraImageBuffer sliced =
+        new CameraImageBuffer(direct.width, direct.height, direct.format, padded.slice());
+    sliced.buffer.put(heap.buffer.duplicate());
+
+    EdgeDetector detector = new EdgeDetector();
+    CameraImageBuffer expected = new CameraImageBuffer();
+    CameraImageBuffer actual = new CameraImageBuffer();
+    assertTrue(detector.detect(expected, direct));
+    assertTrue(detector.detect(actual, heap));
+    TestImages.assertImagesEqual(expected, actual);
+    assertTrue(detector.detect(actual, sliced));
+    TestImages.assertImagesEqual(expected, actual);
+  }
+
+  @Test
+  public void benchmark_inPlaceVersusCopy() {
+    Benchmarks.assumeEnabled();
+    final int width = 1024;
+    final int height = 512;
+    final EdgeDetector detector = new EdgeDetector();
+    final CameraImageBuffer output = new CameraImageBuffer();
+    final byte[] copy = new byte[width * height];
+    final CameraImageBuffer copyImage =
+        new CameraImageBuffer(
+            width, height, CameraImageBuffer.IMAGE_FORMAT_I8, ByteBuffer.wrap(copy));
+    for (final boolean direct : new boolean[] {true, false}) {
+      final CameraImageBuffer input = TestImages.noisyGradient(width, height, 1, direct);
+      String kind = direct ? "direct" : "heap";
+      Benchmarks.time(
+          "Sobel in place, " + kind + " input",
+          new Runnable() {
+            @Override
+            public void run() {
+              detector.detect(output, input);
+            }
+          });
+      // The previous path: copy the whole frame into an array, then process the array.
+      Benchmarks.time(
+          "Sobel after copy, " + kind + " input",
+          new Runnable() {
+            @Override
+            public void run() {
+              ByteBuffer source = input.buffer.duplicate();
+              source.get(copy);
+              detector.detect(output, copyImage);
+            }
+          });
+    }
+  }
+
+  @Test
+  public void detect_heapAndDirectOutputsAreBitIdentical() {
+    CameraImageBuffer input = TestImages.noisyGradient(101, 67, 4, true);
+    int[] modes = {
+      EdgeDetector.MODE_BINARY, EdgeDetector.MODE_MAGNITUDE, EdgeDetector.MODE_ORIENTATION
+    };
+    for (int mode : modes) {
+      EdgeDetector detector = new EdgeDetector(mode);
+      CameraImageBuffer heap = TestImages.create(input.width, input.height, false);
+      CameraImageBuffer direct = TestImages.create(input.width, input.height, true);
+      ByteBuffer heapBuffer = heap.buffer;
+      ByteBuffer directBuffer = direct.buffer;
+      assertTrue(detector.detect(heap, input));
+      assertTrue(detector.detect(direct, input));
+
+      // The caller's buffers are written, not replaced.
+      assertSame(heapBuffer, heap.buffer);
+      assertSame(directBuffer, direct.buffer);
+      TestImages.assertImagesEqual(heap, direct);
+    }
+  }
+
+  @Test
+  public void detect_writesIntoPooledOutputs() {
+    CameraImageBufferPool pool = new CameraImageBufferPool();
+    CameraImageBuffer input = TestImages.checkerboard(64, 48, 5, false);
+    CameraImageBuffer expected = TestImages.create(input.width, input.height, false);
+    EdgeDetector detector = new EdgeDetector();
+    assertTrue(detector.detect(expected, input));
+
+    CameraImageBuffer pooled = pool.acquire(input.width, input.height, input.format);
+    ByteBuffer pooledBuffer = pooled.buffer;
+    assertTrue(detector.detect(pooled, input));
+    assertSame(pooledBuffer, pooled.buffer);
+    TestImages.assertImagesEqual(expected, pooled);
+
+    // A recycled buffer from a larger image is reused for a smaller one.
+    pool.release(pooled);
+    CameraImageBuffer small = TestImages.checkerboard(32, 24, 5, true);
+    CameraImageBuffer recycled = pool.acquire(small.width, small.height, small.format);
+    assertSame(pooledBuffer, recycled.buffer);
+    CameraImageBuffer smallExpected = new CameraImageBuffer();
+    assertTrue(detector.detect(smallExpected, small));
+    assertTrue(detector.detect(recycled, small));
+    assertSame(pooledBuffer, recycled.buffer);
+    TestImages.assertImagesEqual(smallExpected, recycled);
+  }
+
+  @Test
+  public void detect_replacesReadOnlyOutput() {
+    CameraImageBuffer input = TestImages.noisyGradient(16, 16, 5, false);
+    CameraImageBuffer output =
+        new CameraImageBuffer(
+            16,
+            16,
+            CameraImageBuffer.IMAGE_FORMAT_I8,
+            ByteBuffer.allocateDirect(256).asReadOnlyBuffer());
+    ByteBuffer readOnly = output.buffer;
+    assertTrue(new EdgeDetector().detect(output, input));
+    assertNotSame(readOnly, output.buffer);
+    assertTrue(output.buffer.isDirect());
+  }
+
+  @Test
+  public void detect_readsPixelsAboveSignedRangeAsUnsigned() {
+    // A vertical step from 0 to 200. Read as signed bytes, 200 would be -56.
+    CameraImageBuffer input = TestImages.create(5, 3, false);
+    for (int j = 0; j < 3; j++) {
+      for (int i = 0; i < 5; i++) {
+        input.buffer.put(j * 5 + i, i < 2 ? 0 : (byte) 200);
+      }
+    }
+    CameraImageBuffer binary = new CameraImageBuffer();
+    CameraImageBuffer magnitude = new CameraImageBuffer();
+    CameraImageBuffer orientation = new CameraImageBuffer();
+    assertTrue(new EdgeDetector(EdgeDetector.MODE_BINARY).detect(binary, input));
+    assertTrue(new EdgeDetector(EdgeDetector.MODE_MAGNITUDE).detect(magnitude, input));
+    assertTrue(new EdgeDetector(EdgeDetector.MODE_ORIENTATION).detect(orientation, input));
+
+    // Columns 1 and 2 straddle the step with gx = 800; column 3 is flat.
+    int[] expectedBinary = {0xFF, 0xFF, 0x1F};
+    int[] expectedMagnitude = {255, 255, 0};
+    int[] expectedOrientation = {1, 1, 0};
+    for (int i = 1; i <= 3; i++) {
+      assertEquals(expectedBinary[i - 1], TestImages.get(binary, i, 1));
+      assertEquals(expectedMagnitude[i - 1], TestImages.get(magnitude, i, 1));
+      assertEquals(expectedOrientation[i - 1], TestImages.get(orientation, i, 1));
+    }
+  }
+
+  @Test
+  public void detect_magnitudeOfRampIsExact() {
+    // Horizontal ramps of slope 10 and 20 give |gx| = 80 and 160.
+    for (int slope = 10; slope <= 20; slope += 10) {
+      CameraImageBuffer input = TestImages.create(6, 4, false);
+      for (int j = 0; j < 4; j++) {
+        for (int i = 0; i < 6; i++) {
+          input.buffer.put(j * 6 + i, (byte) (100 + slope * i));
+        }
+      }
+      CameraImageBuffer magnitude = new CameraImageBuffer();
+      CameraImageBuffer binary = new CameraImageBuffer();
+      assertTrue(new EdgeDetector(EdgeDetector.MODE_MAGNITUDE).detect(magnitude, input));
+      assertTrue(new EdgeDetector(EdgeDetector.MODE_BINARY).detect(binary, input));
+      for (int j = 1; j < 3; j++) {
+        for (int i = 1; i < 5; i++) {
+          assertEquals(8 * slope, TestImages.get(magnitude, i, j));
+          assertEquals(slope == 10 ? 0x1F : 0xFF, TestImages.get(binary, i, j));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void detect_orientationOfEightDirections() {
+    // Planes rising towards each multiple of 45 degrees, counted counter-clockwise from the right
+    // with 90 degrees pointing up. Values span 88 to 168, across the signed byte range.
+    int[][] directions = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+    EdgeDetector detector = new EdgeDetector(EdgeDetector.MODE_ORIENTATION);
+    CameraImageBuffer output = new CameraImageBuffer();
+    for (int k = 0; k < directions.length; k++) {
+      int dx = directions[k][0];
+      int dy = directions[k][1];
+      CameraImageBuffer input = TestImages.create(3, 3, false);
+      for (int j = 0; j < 3; j++) {
+        for (int i = 0; i < 3; i++) {
+          input.buffer.put(j * 3 + i, (byte) (128 + 20 * (dx * (i - 1) - dy * (j - 1))));
+        }
+      }
+      assertTrue(detector.detect(output, input));
+      assertEquals("Direction " + k, 1 + k, TestImages.get(output, 1, 1));
+    }
+  }
+
+  @Test
+  public void benchmark_versusOriginalLoop() {
+    Benchmarks.assumeEnabled();
+    final int width = 1024;
+    final int height = 512;
+    final CameraImageBuffer input = TestImages.noisyGradient(width, height, 1, true);
+    final byte[] scratch = new byte[width * height];
+    final byte[] outputPixels = new byte[width * height];
+    Benchmarks.time(
+        "Original signed, branching loop",
+        new Runnable() {
+          @Override
+          public void run() {
+            originalSobel(outputPixels, scratch, input.buffer, width, height);
+          }
+        });
+    String[] names = {"binary", "magnitude", "orientation"};
+    for (int mode = 0; mode < names.length; mode++) {
+      final EdgeDetector detector = new EdgeDetector(mode);
+      final CameraImageBuffer output = new CameraImageBuffer();
+      Benchmarks.time(
+          "EdgeDetector, " + names[mode],
+          new Runnable() {
+            @Override
+            public void run() {
+              detector.detect(output, input);
+            }
+          });
+    }
+  }
+
+  @Test
+  public void detect_bordersMatchReference() {
+    Random random = new Random(2);
+    int[][] sizes = {{1, 1}, {2, 3}, {3, 2}, {5, 1}, {1, 4}, {17, 9}, {64, 33}};
+    int[] borders = {
+      EdgeDetector.BORDER_REPLICATE, EdgeDetector.BORDER_REFLECT, EdgeDetector.BORDER_ZERO
+    };
+    for (int[] size : sizes) {
+      CameraImageBuffer input = TestImages.noisyGradient(size[0], size[1], random.nextLong(), true);
+      for (int border : borders) {
+        int threshold = random.nextInt(300);
+        EdgeDetector binary = new EdgeDetector(EdgeDetector.MODE_BINARY, border);
+        binary.setThreshold(threshold);
+        EdgeDetector magnitude = new EdgeDetector(EdgeDetector.MODE_MAGNITUDE, border);
+        CameraImageBuffer binaryOutput = new CameraImageBuffer();
+        CameraImageBuffer magnitudeOutput = new CameraImageBuffer();
+        assertTrue(binary.detect(binaryOutput, input));
+        assertTrue(magnitude.detect(magnitudeOutput, input));
+
+        for (int y = 0; y < size[1]; y++) {
+          for (int x = 0; x < size[0]; x++) {
+            int[] gradient = referenceGradient(input, x, y, border);
+            int gx = gradient[0];
+            int gy = gradient[1];
+            String where = size[0] + "x" + size[1] + ", border " + border + ", at " + x + "," + y;
+            boolean edge = gx * gx + gy * gy > threshold * threshold;
+            assertEquals(where, edge ? 0xFF : 0x1F, TestImages.get(binaryOutput, x, y));
+            assertEquals(
+                where,
+                Math.min(255, Math.abs(gx) + Math.abs(gy)),
+                TestImages.get(magnitudeOutput, x, y));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void detect_replicateBorderMatchesGpuReference() {
+    CameraImageBuffer input = TestImages.noisyGradient(40, 30, 3, false);
+    CameraImageBuffer expected = new CameraImageBuffer();
+    CameraImageBuffer actual = new CameraImageBuffer();
+    assertTrue(
+        GpuEdgeReference.detect(
+            expected, input, TextureReader.FILTER_SOBEL, CameraImageBuffer.IMAGE_FORMAT_I8));
+    assertTrue(new EdgeDetector().detect(actual, input));
+    TestImages.assertImagesEqual(expected, actual);
+  }
+
+  @Test
+  public void setThreshold_appliesToNextDetection() {
+    // A ramp of slope 20 has a gradient magnitude of 160 everywhere inside.
+    CameraImageBuffer input = TestImages.create(6, 4, false);
+    for (int j = 0; j < 4; j++) {
+      for (int i = 0; i < 6; i++) {
+        input.buffer.put(j * 6 + i, (byte) (20 * i));
+      }
+    }
+    EdgeDetector detector = new EdgeDetector();
+    assertEquals(EdgeDetector.DEFAULT_THRESHOLD, detector.getThreshold());
+    CameraImageBuffer output = new CameraImageBuffer();
+    int[][] thresholds = {{159, 0xFF}, {160, 0x1F}, {0, 0xFF}};
+    for (int[] threshold : thresholds) {
+      detector.setThreshold(threshold[0]);
+      assertTrue(detector.detect(output, input));
+      assertEquals(threshold[1], TestImages.get(output, 2, 1));
+    }
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void setThreshold_rejectsNegativeThreshold() {
+    new EdgeDetector().setThreshold(-1);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void setThreshold_rejectsThresholdAboveMaximumGradient() {
+    new EdgeDetector().setThreshold(1444);
+  }
+
+  @Test
+  public void benchmark_borderPolicies() {
+    Benchmarks.assumeEnabled();
+    final int width = 1024;
+    final int height = 512;
+    final CameraImageBuffer input = TestImages.noisyGradient(width, height, 1, true);
+    final byte[] scratch = new byte[width * height];
+    final byte[] outputPixels = new byte[width * height];
+    Benchmarks.time(
+        "Original loop, border left unwritten",
+        new Runnable() {
+          @Override
+          public void run() {
+            originalSobel(outputPixels, scratch, input.buffer, width, height);
+          }
+        });
+    String[] names = {"replicate", "reflect", "zero"};
+    for (int border = 0; border < names.length; border++) {
+      final EdgeDetector detector = new EdgeDetector(EdgeDetector.MODE_BINARY, border);
+      final CameraImageBuffer output = new CameraImageBuffer();
+      Benchmarks.time(
+          "EdgeDetector, border " + names[border],
+          new Runnable() {
+            @Override
+            public void run() {
+              detector.detect(output, input);
+            }
+          });
+    }
+  }
+
+  @Test
+  public void detect_rejectsInvalidImages() {
+    EdgeDetector detector = new EdgeDetector();
+    CameraImageBuffer rgba = new CameraImageBuffer();
+    assertEquals(false, detector.detect(new CameraImageBuffer(), rgba));
+    assertEquals(false, detector.detect(null, TestImages.create(4, 4, false)));
+    assertEquals(false, detector.detect(new CameraImageBuffer(), null));
+  }
+
+  /**
+   * Computes the Sobel gradient of a pixel directly, reading the neighbours outside of the image
+   * according to the border policy.
+   *
+   * @return gx and gy.
+   */
+  private static int[] referenceGradient(CameraImageBuffer image, int x, int y, int border) {
+    int[] g = new int[9];
+    for (int k = 0; k < 9; k++) {
+      g[k] = referencePixel(image, x + k % 3 - 1, y + k / 3 - 1, border);
+    }
+    int gx = -g[0] - 2 * g[3] - g[6] + g[2] + 2 * g[5] + g[8];
+    int gy = g[0] + 2 * g[1] + g[2] - g[6] - 2 * g[7] - g[8];
+    return new int[] {gx, gy};
+  }
+
+  private static int referencePixel(CameraImageBuffer image, int x, int y, int border) {
+    int width = image.width;
+    int height = image.height;
+    if (border == EdgeDetector.BORDER_ZERO && (x < 0 || y < 0 || x >= width || y >= height)) {
+      return 0;
+    }
+    if (border == EdgeDetector.BORDER_REFLECT) {
+      // Images one pixel thin cannot be reflected and fall back to replication.
+      if (width > 1) {
+        x = x < 0 ? -x : (x >= width ? 2 * width - 2 - x : x);
+      }
+      if (height > 1) {
+        y = y < 0 ? -y : (y >= height ? 2 * height - 2 - y : y);
+      }
+    }
+    x = Math.max(0, Math.min(width - 1, x));
+    y = Math.max(0, Math.min(height - 1, y));
+    return TestImages.get(image, x, y);
+  }
+
+  /**
+   * The Sobel loop EdgeDetector started from, for comparison: it copies the frame, reads the pixels
+   * as signed bytes, branches per pixel and skips the border.
+   */
+  private static void originalSobel(
+      byte[] outputPixel, byte[] imageBuffer, ByteBuffer inputBuffer, int width, int height) {
+    ByteBuffer source = inputBuffer.duplicate();
+    source.position(0);
+    source.get(imageBuffer, 0, width * height);
+    int threshold = 128 * 128;
+    for (int j = 1; j < height - 1; j++) {
+      for (int i = 1; i < width - 1; i++) {
+        int offset = (j * width) + i;
+        int a00 = imageBuffer[offset - width - 1];
+        int a01 = imageBuffer[offset - width];
+        int a02 = imageBuffer[offset - width + 1];
+        int a10 = imageBuffer[offset - 1];
+        int a12 = imageBuffer[offset + 1];
+        int a20 = imageBuffer[offset + width - 1];
+        int a21 = imageBuffer[offset + width];
+        int a22 = imageBuffer[offset + width + 1];
+        int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+        int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+        if ((xSum * xSum) + (ySum * ySum) > threshold) {
+          outputPixel[offset] = (byte) 0xFF;
+        } else {
+          outputPixel[offset] = (byte) 0x1F;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+
+/** Tests for {@link FastCornerDetector}. */
+public class FastCornerDetectorTest {
+  private static final int[] CIRCLE_X = {0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3, -3, -3, -2, -1};
+  private static final int[] CIRCLE_Y = {-3, -3, -2, -1, 0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3};
+
+  private FastCornerDetector detector;
+
+  @After
+  public void tearDown() {
+    if (detector != null) {
+      detector.release();
+    }
+  }
+
+  @Test
+  public void detect_findsSquareCorners() {
+    detector = new FastCornerDetector(FastCornerDetector.DEFAULT_THRESHOLD, 8, 1);
+    CameraImageBuffer input = TestImages.create(64, 64, false);
+    for (int y = 0; y < 64; y++) {
+      for (int x = 0; x < 64; x++) {
+        boolean bright = x >= 16 && x < 36 && y >= 16 && y < 36;
+        input.buffer.put(y * 64 + x, bright ? (byte) 210 : (byte) 40);
+      }
+    }
+    Keypoints keypoints = new Keypoints(detector.getMaxKeypointCount(64, 64));
+    assertTrue(detector.detect(keypoints, input));
+
+    int[][] corners = {{16, 16}, {35, 16}, {16, 35}, {35, 35}};
+    for (int[] corner : corners) {
+      assertTrue(
+          "No keypoint near " + corner[0] + "," + corner[1],
+          hasKeypointNear(keypoints, corner[0], corner[1]));
+    }
+    for (int k = 0; k < keypoints.count; k++) {
+      assertTrue(keypoints.score[k] > 0);
+    }
+  }
+
+  @Test
+  public void detect_flatImageHasNoCorners() {
+    detector = new FastCornerDetector(FastCornerDetector.DEFAULT_THRESHOLD, 8, 1);
+    CameraImageBuffer input = TestImages.create(40, 30, false);
+    for (int i = 0; i < 40 * 30; i++) {
+      input.buffer.put(i, (byte) 90);
+    }
+    Keypoints keypoints = new Keypoints(detector.getMaxKeypointCount(40, 30));
+    keypoints.count = 5;
+    assertTrue(detector.detect(keypoints, input));
+    assertEquals(0, keypoints.count);
+  }
+
+  @Test
+  public void detect_matchesReferenceDetector() {
+    Random random = new Random(6);
+    for (int threadCount = 1; threadCount <= 3; threadCount++) {
+      for (int iteration = 0; iteration < 6; iteration++) {
+        int width = 10 + random.nextInt(120);
+        int height = 10 + random.nextInt(90);
+        int cellSize = 4 + random.nextInt(20);
+        int threshold = 10 + random.nextInt(30);
+        CameraImageBuffer input = TestImages.create(width, height, iteration % 2 == 0);
+        for (int i = 0; i < width * height; i++) {
+          input.buffer.put(i, (byte) random.nextInt(256));
+        }
+
+        detector = new FastCornerDetector(threshold, cellSize, threadCount);
+        Keypoints keypoints = new Keypoints(detector.getMaxKeypointCount(width, height));
+        assertTrue(detector.detect(keypoints, input));
+        detector.release();
+        detector = null;
+
+        Keypoints expected = new Keypoints(keypoints.getCapacity());
+        referenceDetect(expected, input, threshold, cellSize);
+        assertKeypointsEqual(expected, keypoints);
+      }
+    }
+  }
+
+  @Test
+  public void detect_keypointsAreBoundedByGridCells() {
+    detector = new FastCornerDetector(10, 16, 1);
+    CameraImageBuffer input = TestImages.create(100, 70, false);
+    Random random = new Random(4);
+    for (int i = 0; i < 100 * 70; i++) {
+      input.buffer.put(i, (byte) random.nextInt(256));
+    }
+    int maxCount = detector.getMaxKeypointCount(100, 70);
+    assertEquals(7 * 5, maxCount);
+
+    Keypoints keypoints = new Keypoints(maxCount);
+    assertTrue(detector.detect(keypoints, input));
+    assertTrue(keypoints.count > 0);
+    assertTrue(keypoints.count <= maxCount);
+    boolean[] usedCells = new boolean[maxCount];
+    for (int k = 0; k < keypoints.count; k++) {
+      int cell = (keypoints.y[k] / 16) * 7 + keypoints.x[k] / 16;
+      assertFalse("Two keypoints in cell " + cell, usedCells[cell]);
+      usedCells[cell] = true;
+    }
+
+    // A smaller capacity keeps the keypoints of the first cells.
+    Keypoints firstKeypoints = new Keypoints(3);
+    assertTrue(detector.detect(firstKeypoints, input));
+    assertEquals(Math.min(3, keypoints.count), firstKeypoints.count);
+    for (int k = 0; k < firstKeypoints.count; k++) {
+      assertEquals(keypoints.x[k], firstKeypoints.x[k]);
+      assertEquals(keypoints.y[k], firstKeypoints.y[k]);
+    }
+  }
+
+  @Test
+  public void detect_parallelMatchesSingleThread() {
+    CameraImageBuffer input = squares(320, 240, 20, 48, true);
+    FastCornerDetector singleThread = new FastCornerDetector(20, 16, 1);
+    Keypoints expected = new Keypoints(singleThread.getMaxKeypointCount(320, 240));
+    assertTrue(singleThread.detect(expected, input));
+    singleThread.release();
+    assertTrue(expected.count > 0);
+
+    detector = new FastCornerDetector(20, 16, 4);
+    Keypoints keypoints = new Keypoints(expected.getCapacity());
+    assertTrue(detector.detect(keypoints, input));
+    assertKeypointsEqual(expected, keypoints);
+    assertTrue(detector.detect(keypoints, TestImages.copy(input, false)));
+    assertKeypointsEqual(expected, keypoints);
+  }
+
+  @Test
+  public void detect_handlesImagesSmallerThanTheCircle() {
+    detector = new FastCornerDetector(FastCornerDetector.DEFAULT_THRESHOLD, 4, 2);
+    int[][] sizes = {{1, 1}, {6, 6}, {7, 3}, {3, 7}};
+    for (int[] size : sizes) {
+      Keypoints keypoints = new Keypoints(detector.getMaxKeypointCount(size[0], size[1]));
+      assertTrue(
+          detector.detect(keypoints, TestImages.noisyGradient(size[0], size[1], 1, true)));
+      assertEquals(0, keypoints.count);
+    }
+  }
+
+  @Test
+  public void detect_doesNotAllocateAfterWarmUp() {
+    for (final boolean direct : new boolean[] {false, true}) {
+      final FastCornerDetector singleThread = new FastCornerDetector(20, 16, 1);
+      final CameraImageBuffer input = squares(256, 128, 20, 48, direct);
+      final Keypoints keypoints = new Keypoints(singleThread.getMaxKeypointCount(256, 128));
+      long bytes =
+          AllocationCounter.measure(
+              new Runnable() {
+                @Override
+                public void run() {
+                  singleThread.detect(keypoints, input);
+                }
+              });
+      singleThread.release();
+      assertEquals(0, bytes);
+    }
+  }
+
+  @Test
+  public void detect_rejectsInvalidInput() {
+    detector = new FastCornerDetector(FastCornerDetector.DEFAULT_THRESHOLD, 8, 1);
+    Keypoints keypoints = new Keypoints(4);
+    assertFalse(detector.detect(keypoints, null));
+    assertFalse(detector.detect(keypoints, new CameraImageBuffer()));
+    assertFalse(detector.detect(null, TestImages.create(8, 8, false)));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void constructor_rejectsInvalidThreshold() {
+    new FastCornerDetector(0, 8, 1);
+  }
+
+  @Test
+  public void benchmark_checkerboards() {
+    Benchmarks.assumeEnabled();
+    int[][] sizes = {{640, 480}, {1024, 512}, {1920, 1080}};
+    int threadCount = Runtime.getRuntime().availableProcessors();
+    for (int[] size : sizes) {
+      CameraImageBuffer[] inputs = {
+        TestImages.checkerboard(size[0], size[1], 32, true), squares(size[0], size[1], 20, 48, true)
+      };
+      String[] names = {"checkerboard", "squares"};
+      for (int i = 0; i < inputs.length; i++) {
+        for (int threads = 1; threads <= threadCount; threads *= 2) {
+          final FastCornerDetector benchmarked = new FastCornerDetector(20, 16, threads);
+          final CameraImageBuffer input = inputs[i];
+          final Keypoints keypoints =
+              new Keypoints(benchmarked.getMaxKeypointCount(size[0], size[1]));
+          Benchmarks.time(
+              "FAST " + names[i] + " " + size[0] + "x" + size[1] + ", " + threads + " threads",
+              new Runnable() {
+                @Override
+                public void run() {
+                  benchmarked.detect(keypoints, input);
+                }
+              });
+          benchmarked.release();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a sparse checkerboard: bright squares of the given size on a dark background, repeating
+   * with the given period. Unlike a full checkerboard, whose crossings have no 9 pixel arc, every
+   * square corner is a FAST corner.
+   */
+  private static CameraImageBuffer squares(
+      int width, int height, int squareSize, int period, boolean direct) {
+    CameraImageBuffer image = TestImages.create(width, height, direct);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        boolean bright = x % period < squareSize && y % period < squareSize;
+        image.buffer.put(y * width + x, bright ? (byte) 210 : (byte) 40);
+      }
+    }
+    return image;
+  }
+
+  /** Tests every pixel of every cell with the plain FAST-9 definition. */
+  private static void referenceDetect(
+      Keypoints keypoints, CameraImageBuffer image, int threshold, int cellSize) {
+    int cellColumns = (image.width + cellSize - 1) / cellSize;
+    int cellRows = (image.height + cellSize - 1) / cellSize;
+    keypoints.count = 0;
+    for (int cellY = 0; cellY < cellRows; cellY++) {
+      for (int cellX = 0; cellX < cellColumns; cellX++) {
+        int bestScore = 0;
+        int bestX = -1;
+        int bestY = -1;
+        int endY = Math.min((cellY + 1) * cellSize, image.height - 3);
+        int endX = Math.min((cellX + 1) * cellSize, image.width - 3);
+        for (int y = Math.max(cellY * cellSize, 3); y < endY; y++) {
+          for (int x = Math.max(cellX * cellSize, 3); x < endX; x++) {
+            int score = referenceScore(image, x, y, threshold);
+            if (score > bestScore) {
+              bestScore = score;
+              bestX = x;
+              bestY = y;
+            }
+          }
+        }
+        if (bestScore > 0) {
+          keypoints.x[keypoints.count] = bestX;
+          keypoints.y[keypoints.count] = bestY;
+          keypoints.score[keypoints.count] = bestScore;
+          keypoints.count++;
+        }
+      }
+    }
+  }
+
+  /** Returns the corner score of a pixel, or 0 if it is no corner. */
+  private static int referenceScore(CameraImageBuffer image, int x, int y, int threshold) {
+    int center = TestImages.get(image, x, y);
+    boolean corner = false;
+    for (int sign = -1; sign <= 1; sign += 2) {
+      for (int start = 0; start < 16; start++) {
+        boolean arc = true;
+        for (int k = 0; k < 9 && arc; k++) {
+          int index = (start + k) % 16;
+          int value = TestImages.get(image, x + CIRCLE_X[index], y + CIRCLE_Y[index]);
+          arc = sign > 0 ? value > center + threshold : value < center - threshold;
+        }
+        corner |= arc;
+      }
+    }
+    if (!corner) {
+      return 0;
+    }
+    int brightScore = 0;
+    int darkScore = 0;
+    for (int k = 0; k < 16; k++) {
+      int value = TestImages.get(image, x + CIRCLE_X[k], y + CIRCLE_Y[k]);
+      if (value > center + threshold) {
+        brightScore += value - center - threshold;
+      } else if (value < center - threshold) {
+        darkScore += center - threshold - value;
+      }
+    }
+    return Math.max(brightScore, darkScore);
+  }
+
+  private static boolean hasKeypointNear(Keypoints keypoints, int x, int y) {
+    for (int k = 0; k < keypoints.count; k++) {
+      if (Math.abs(keypoints.x[k] - x) <= 3 && Math.abs(keypoints.y[k] - y) <= 3) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void assertKeypointsEqual(Keypoints expected, Keypoints actual) {
+    assertEquals(expected.count, actual.count);
+    for (int k = 0; k < expected.count; k++) {
+      assertEquals("x of keypoint " + k, expected.x[k], actual.x[k]);
+      assertEquals("y of keypoint " + k, expected.y[k], actual.y[k]);
+      assertEquals("score of keypoint " + k, expected.score[k], actual.score[k], 0.0f);
+    }
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/** Tests for {@link FrameRing}, with fences which are signaled by the test instead of a GPU. */
+public class FrameRingTest {
+  /** Fences which are signaled by calling signal(), and which track their deletion. */
+  private static class FakeFence implements FrameFence {
+    private long nextFence = 1;
+    final Set<Long> live = new HashSet<>();
+    final Set<Long> signaled = new HashSet<>();
+    boolean failInsert = false;
+
+    @Override
+    public long insert() {
+      if (failInsert) {
+        return 0;
+      }
+      long fence = nextFence++;
+      live.add(fence);
+      return fence;
+    }
+
+    @Override
+    public boolean isSignaled(long fence) {
+      assertTrue("Polled a deleted fence.", live.contains(fence));
+      return signaled.contains(fence);
+    }
+
+    @Override
+    public void delete(long fence) {
+      assertTrue("Deleted a fence twice.", live.remove(fence));
+    }
+
+    /** Signals all fences inserted so far. */
+    void signalAll() {
+      signaled.addAll(live);
+    }
+  }
+
+  @Test
+  public void submit_handsOutBuffersInRingOrder() throws InterruptedException {
+    FrameRing ring = new FrameRing(3, new FakeFence());
+    assertEquals(0, ring.submit(FrameRing.FULL_POLICY_SKIP));
+    assertEquals(1, ring.submit(FrameRing.FULL_POLICY_SKIP));
+    acquireAndRelease(ring, 0);
+    // Buffer 0 is free again, but the ring continues with buffer 2.
+    assertEquals(2, ring.submit(FrameRing.FULL_POLICY_SKIP));
+    assertEquals(0, ring.submit(FrameRing.FULL_POLICY_SKIP));
+  }
+
+  @Test
+  public void isReady_waitsForFence() throws InterruptedException {
+    FakeFence fence = new FakeFence();
+    FrameRing ring = new FrameRing(2, fence);
+    int index = ring.submit(FrameRing.FULL_POLICY_SKIP);
+    ring.insertFence(index);
+    assertFalse(ring.isReady(index));
+    assertFalse(ring.isReady(index));
+
+    fence.signalAll();
+    assertTrue(ring.isReady(index));
+    // The fence is deleted once it has been seen signaled, and the buffer stays ready.
+    assertTrue(fence.live.isEmpty());
+    assertTrue(ring.isReady(index));
+  }
+
+  @Test
+  public void isReady_withoutFenceIsReady() throws InterruptedException {
+    FakeFence fence = new FakeFence();
+    fence.failInsert = true;
+    FrameRing ring = new FrameRing(1, fence);
+    int index = ring.submit(FrameRing.FULL_POLICY_SKIP);
+    ring.insertFence(index);
+    assertTrue(ring.isReady(index));
+  }
+
+  @Test
+  public void submit_skipsWhenFull() throws InterruptedException {
+    FrameRing ring = new FrameRing(2, new FakeFence());
+    ring.submit(FrameRing.FULL_POLICY_SKIP);
+    ring.submit(FrameRing.FULL_POLICY_SKIP);
+    assertEquals(-1, ring.submit(FrameRing.FULL_POLICY_SKIP));
+  }
+
+  @Test
+  public void submit_dropsOldestSubmittedFrame() throws InterruptedException {
+    FakeFence fence = new FakeFence();
+    FrameRing ring = new FrameRing(3, fence);
+    int first = ring.submit(FrameRing.FULL_POLICY_DROP_OLDEST);
+    ring.insertFence(first);
+    int second = ring.submit(FrameRing.FULL_POLICY_DROP_OLDEST);
+    ring.insertFence(second);
+    int third = ring.submit(FrameRing.FULL_POLICY_DROP_OLDEST);
+    ring.insertFence(third);
+    fence.signalAll();
+    assertTrue(ring.isReady(first));
+    ring.acquire(first);
+
+    // The first buffer is acquired, so the second is the oldest one which can be dropped. Its
+    // fence is deleted with it.
+    assertEquals(second, ring.submit(FrameRing.FULL_POLICY_DROP_OLDEST));
+    assertEquals(1, fence.live.size());
+    assertEquals(FrameRing.STATE_ACQUIRED, ring.getState(first));
+    assertEquals(FrameRing.STATE_SUBMITTED, ring.getState(second));
+
+    // With every buffer acquired, nothing can be dropped.
+    ring.isReady(third);
+    ring.acquire(third);
+    ring.insertFence(second);
+    fence.signalAll();
+    ring.isReady(second);
+    ring.acquire(second);
+    assertEquals(-1, ring.submit(FrameRing.FULL_POLICY_DROP_OLDEST));
+  }
+
+  @Test
+  public void release_fromOtherThreadNeedsFinishRelease() throws InterruptedException {
+    FrameRing ring = new FrameRing(1, new FakeFence());
+    int index = ring.submit(FrameRing.FULL_POLICY_SKIP);
+    ring.acquire(index);
+    assertTrue(ring.release(index, /*onGlThread=*/ false));
+    assertEquals(FrameRing.STATE_RELEASED, ring.getState(index));
+    assertEquals(-1, ring.submit(FrameRing.FULL_POLICY_SKIP));
+
+    assertTrue(ring.finishRelease(index));
+    assertEquals(FrameRing.STATE_FREE, ring.getState(index));
+    assertEquals(index, ring.submit(FrameRing.FULL_POLICY_SKIP));
+  }
+
+  @Test
+  public void release_ofSubmittedBufferNeedsNoUnmap() throws InterruptedException {
+    FakeFence fence = new FakeFence();
+    FrameRing ring = new FrameRing(1, fence);
+    int index = ring.submit(FrameRing.FULL_POLICY_SKIP);
+    ring.insertFence(index);
+    assertFalse(ring.release(index, /*onGlThread=*/ true));
+    assertEquals(FrameRing.STATE_FREE, ring.getState(index));
+    assertTrue(fence.live.isEmpty());
+  }
+
+  @Test
+  public void submit_blocksUntilReleased() throws Exception {
+    final FrameRing ring = new FrameRing(1, new FakeFence());
+    final int index = ring.submit(FrameRing.FULL_POLICY_BLOCK);
+    ring.acquire(index);
+
+    final AtomicInteger result = new AtomicInteger(-2);
+    Thread submitter =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              result.set(ring.submit(FrameRing.FULL_POLICY_BLOCK));
+            } catch (InterruptedException e) {
+              result.set(-3);
+            }
+          }
+        };
+    submitter.start();
+    awaitWaiting(submitter);
+    assertEquals(-2, result.get());
+
+    // A release on the OpenGL thread frees the buffer, and the blocked submission takes it.
+    ring.release(index, /*onGlThread=*/ true);
+    submitter.join(5000);
+    assertEquals(index, result.get());
+  }
+
+  @Test
+  public void submit_blockedSubmissionReturnsForReleasedBuffer() throws Exception {
+    final FrameRing ring = new FrameRing(1, new FakeFence());
+    final int index = ring.submit(FrameRing.FULL_POLICY_BLOCK);
+    ring.acquire(index);
+
+    final AtomicInteger result = new AtomicInteger(-2);
+    Thread submitter =
+        new Thread() {
+          @Override
+          public void run() {
+            try {
+              result.set(ring.submit(FrameRing.FULL_POLICY_BLOCK));
+            } catch (InterruptedException e) {
+              result.set(-3);
+            }
+          }
+        };
+    submitter.start();
+    awaitWaiting(submitter);
+
+    // A release from another thread wakes the submission, which returns so that the caller can
+    // unmap the buffer on the OpenGL thread.
+    ring.release(index, /*onGlThread=*/ false);
+    submitter.join(5000);
+    assertEquals(-1, result.get());
+    ring.finishRelease(index);
+    assertEquals(index, ring.submit(FrameRing.FULL_POLICY_BLOCK));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void submit_blockingWithoutAcquiredBufferThrows() throws InterruptedException {
+    FrameRing ring = new FrameRing(1, new FakeFence());
+    ring.submit(FrameRing.FULL_POLICY_BLOCK);
+    ring.submit(FrameRing.FULL_POLICY_BLOCK);
+  }
+
+  @Test
+  public void deleteFences_deletesPendingFences() throws InterruptedException {
+    FakeFence fence = new FakeFence();
+    FrameRing ring = new FrameRing(2, fence);
+    ring.insertFence(ring.submit(FrameRing.FULL_POLICY_SKIP));
+    ring.insertFence(ring.submit(FrameRing.FULL_POLICY_SKIP));
+    assertEquals(2, fence.live.size());
+    ring.deleteFences();
+    assertTrue(fence.live.isEmpty());
+  }
+
+  /** Waits until a thread blocks in Object.wait(). */
+  private static void awaitWaiting(Thread thread) throws InterruptedException {
+    while (thread.getState() != Thread.State.WAITING) {
+      assertTrue(thread.isAlive());
+      Thread.sleep(1);
+    }
+  }
+
+  private static void acquireAndRelease(FrameRing ring, int index) {
+    assertTrue(ring.isReady(index));
+    ring.acquire(index);
+    ring.release(index, /*onGlThread=*/ true);
+  }
+}
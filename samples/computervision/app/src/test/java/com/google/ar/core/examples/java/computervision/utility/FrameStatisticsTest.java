@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+
+/** Tests for {@link FrameStatistics}. */
+public class FrameStatisticsTest {
+  private FrameStatistics statistics;
+
+  @After
+  public void tearDown() {
+    if (statistics != null) {
+      statistics.release();
+    }
+  }
+
+  @Test
+  public void compute_uniformImage() {
+    statistics = new FrameStatistics(1);
+    statistics.setStride(1);
+    assertTrue(statistics.compute(uniform(20, 10, 77)));
+
+    int[] histogram = new int[256];
+    statistics.getHistogram(histogram);
+    assertEquals(200, histogram[77]);
+    assertEquals(200, statistics.getSampleCount());
+    assertEquals(77, statistics.getMean(), 0);
+    assertEquals(0, statistics.getStandardDeviation(), 0);
+    assertEquals(77, statistics.getPercentile(0));
+    assertEquals(77, statistics.getPercentile(1));
+    assertEquals(0, statistics.getContrast(), 0);
+    assertEquals(0, statistics.getSharpness(), 0);
+  }
+
+  @Test
+  public void compute_twoHalves() {
+    // The left half is 50, the right half 150.
+    CameraImageBuffer input = TestImages.create(20, 10, false);
+    for (int y = 0; y < 10; y++) {
+      for (int x = 0; x < 20; x++) {
+        input.buffer.put(y * 20 + x, (byte) (x < 10 ? 50 : 150));
+      }
+    }
+    statistics = new FrameStatistics(1);
+    statistics.setStride(1);
+    assertTrue(statistics.compute(input));
+
+    assertEquals(100, statistics.getMean(), 1e-4f);
+    assertEquals(50, statistics.getStandardDeviation(), 1e-3f);
+    assertEquals(50, statistics.getPercentile(0.5f));
+    assertEquals(150, statistics.getPercentile(0.51f));
+    assertEquals(100 / 255.0f, statistics.getContrast(), 1e-6f);
+    assertTrue(statistics.getSharpness() > 0);
+  }
+
+  @Test
+  public void compute_matchesReference() {
+    Random random = new Random(5);
+    for (int threadCount = 1; threadCount <= 3; threadCount++) {
+      for (int stride = 1; stride <= 3; stride++) {
+        for (boolean direct : new boolean[] {false, true}) {
+          int width = 1 + random.nextInt(60);
+          int height = 1 + random.nextInt(40);
+          CameraImageBuffer input = TestImages.create(width, height, direct);
+          for (int i = 0; i < width * height; i++) {
+            input.buffer.put(i, (byte) random.nextInt(256));
+          }
+
+          FrameStatistics computed = new FrameStatistics(threadCount);
+          computed.setStride(stride);
+          assertTrue(computed.compute(input));
+          computed.release();
+
+          String name = width + "x" + height + ", stride " + stride + ", threads " + threadCount;
+          int[] histogram = new int[256];
+          computed.getHistogram(histogram);
+          int[] expectedHistogram = new int[256];
+          double[] expected = reference(input, stride, expectedHistogram);
+          assertArrayEquals(name, expectedHistogram, histogram);
+          assertEquals(name, (int) expected[0], computed.getSampleCount());
+          assertEquals(name, expected[1], computed.getMean(), 1e-3);
+          assertEquals(name, expected[2], computed.getStandardDeviation(), 1e-2);
+          assertEquals(name, expected[3], computed.getSharpness(), expected[3] * 1e-5 + 1e-3);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void compute_defaultStrideSamplesQuarter() {
+    statistics = new FrameStatistics(2);
+    assertEquals(FrameStatistics.DEFAULT_STRIDE, statistics.getStride());
+    assertTrue(statistics.compute(TestImages.noisyGradient(64, 32, 1, true)));
+    assertEquals(32 * 16, statistics.getSampleCount());
+  }
+
+  @Test
+  public void compute_doesNotAllocateAfterWarmUp() {
+    for (boolean direct : new boolean[] {false, true}) {
+      final FrameStatistics computed = new FrameStatistics(1);
+      final CameraImageBuffer input = TestImages.noisyGradient(256, 128, 1, direct);
+      long bytes =
+          AllocationCounter.measure(
+              new Runnable() {
+                @Override
+                public void run() {
+                  computed.compute(input);
+                }
+              });
+      computed.release();
+      assertEquals(0, bytes);
+    }
+  }
+
+  @Test
+  public void compute_rejectsInvalidImages() {
+    statistics = new FrameStatistics(1);
+    assertFalse(statistics.compute(null));
+    assertFalse(statistics.compute(new CameraImageBuffer()));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void setStride_rejectsZero() {
+    statistics = new FrameStatistics(1);
+    statistics.setStride(0);
+  }
+
+  @Test
+  public void benchmark_strides() {
+    Benchmarks.assumeEnabled();
+    final CameraImageBuffer input = TestImages.noisyGradient(1024, 512, 1, true);
+    for (int stride = 1; stride <= 2; stride++) {
+      final FrameStatistics computed = new FrameStatistics(1);
+      computed.setStride(stride);
+      Benchmarks.time(
+          "FrameStatistics 1024x512, stride " + stride,
+          new Runnable() {
+            @Override
+            public void run() {
+              computed.compute(input);
+            }
+          });
+      computed.release();
+    }
+  }
+
+  private static CameraImageBuffer uniform(int width, int height, int value) {
+    CameraImageBuffer image = TestImages.create(width, height, false);
+    for (int i = 0; i < width * height; i++) {
+      image.buffer.put(i, (byte) value);
+    }
+    return image;
+  }
+
+  /**
+   * Computes the statistics of the sampled pixels one by one. Returns the sample count, mean,
+   * standard deviation and Laplacian variance, and fills the histogram.
+   */
+  private static double[] reference(CameraImageBuffer image, int stride, int[] histogram) {
+    long count = 0;
+    double sum = 0;
+    double squareSum = 0;
+    long laplacianCount = 0;
+    double laplacianSum = 0;
+    double laplacianSquareSum = 0;
+    for (int y = 0; y < image.height; y += stride) {
+      for (int x = 0; x < image.width; x += stride) {
+        int value = TestImages.get(image, x, y);
+        histogram[value]++;
+        count++;
+        sum += value;
+        squareSum += (double) value * value;
+        if (x > 0 && y > 0 && x < image.width - 1 && y < image.height - 1) {
+          int laplacian =
+              4 * value
+                  - TestImages.get(image, x - 1, y)
+                  - TestImages.get(image, x + 1, y)
+                  - TestImages.get(image, x, y - 1)
+                  - TestImages.get(image, x, y + 1);
+          laplacianCount++;
+          laplacianSum += laplacian;
+          laplacianSquareSum += (double) laplacian * laplacian;
+        }
+      }
+    }
+    double mean = sum / count;
+    double laplacianMean = laplacianCount > 0 ? laplacianSum / laplacianCount : 0;
+    return new double[] {
+      count,
+      mean,
+      Math.sqrt(Math.max(squareSum / count - mean * mean, 0)),
+      laplacianCount > 0 ? laplacianSquareSum / laplacianCount - laplacianMean * laplacianMean : 0
+    };
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Tests for {@link ImageFilterPipeline}. */
+public class ImageFilterPipelineTest {
+  @Test
+  public void process_fusedMatchesUnfused() {
+    CameraImageBuffer input = TestImages.noisyGradient(75, 49, 1, true);
+    ImageFilter[][] chains = {
+      {new DownscaleFilter(), new ThresholdFilter(100)},
+      {new BoxBlurFilter(), new ThresholdFilter(90), new ThresholdFilter(3)},
+      {new DownscaleFilter(), invert(), new BoxBlurFilter(), invert(), new ThresholdFilter(120)},
+      {new EdgeDetector(EdgeDetector.MODE_MAGNITUDE), new ThresholdFilter(64)},
+      {new ThresholdFilter(50), invert()},
+    };
+    for (ImageFilter[] chain : chains) {
+      ImageFilterPipeline pipeline = new ImageFilterPipeline();
+      for (ImageFilter stage : chain) {
+        pipeline.addStage(stage);
+      }
+      CameraImageBuffer fused = pipeline.process(input);
+      assertNotNull(fused);
+      TestImages.assertImagesEqual(runUnfused(chain, input), fused);
+    }
+  }
+
+  @Test
+  public void process_doesNotModifyInput() {
+    CameraImageBuffer input = TestImages.noisyGradient(40, 30, 2, false);
+    CameraImageBuffer original = TestImages.copy(input, false);
+    ImageFilterPipeline pipeline =
+        new ImageFilterPipeline().addStage(new ThresholdFilter(128)).addStage(invert());
+    assertNotNull(pipeline.process(input));
+    TestImages.assertImagesEqual(original, input);
+  }
+
+  @Test
+  public void process_withoutStagesReturnsInput() {
+    CameraImageBuffer input = TestImages.create(8, 8, false);
+    assertSame(input, new ImageFilterPipeline().process(input));
+  }
+
+  @Test
+  public void process_returnsNullWhenStageFails() {
+    ImageFilterPipeline pipeline = new ImageFilterPipeline().addStage(new BoxBlurFilter());
+    assertNull(pipeline.process(new CameraImageBuffer()));
+  }
+
+  @Test
+  public void process_doesNotAllocateAfterWarmUp() {
+    final CameraImageBuffer input = TestImages.noisyGradient(160, 120, 3, true);
+    final ImageFilterPipeline pipeline =
+        new ImageFilterPipeline()
+            .addStage(new DownscaleFilter())
+            .addStage(new BoxBlurFilter())
+            .addStage(new ThresholdFilter(100))
+            .addStage(new EdgeDetector())
+            .addStage(new ThresholdFilter(128));
+    long bytes =
+        AllocationCounter.measure(
+            new Runnable() {
+              @Override
+              public void run() {
+                assertNotNull(pipeline.process(input));
+              }
+            });
+    assertEquals(0, bytes);
+  }
+
+  @Test
+  public void fuse_appliesLookupTableInWriteLoop() {
+    CameraImageBuffer input = TestImages.noisyGradient(33, 21, 4, false);
+    LookupTableFilter threshold = new ThresholdFilter(77);
+    ImageFilter fused = new BoxBlurFilter().fuse(threshold);
+    CameraImageBuffer output = TestImages.create(1, 1, true);
+    assertTrue(fused.process(output, input));
+    TestImages.assertImagesEqual(
+        runUnfused(new ImageFilter[] {new BoxBlurFilter(), threshold}, input), output);
+  }
+
+  @Test
+  public void benchmark_fusedVersusUnfused() {
+    Benchmarks.assumeEnabled();
+    final CameraImageBuffer input = TestImages.noisyGradient(1024, 512, 1, true);
+    final ImageFilter[] chain = {
+      new DownscaleFilter(), new BoxBlurFilter(), new ThresholdFilter(100)
+    };
+    final ImageFilterPipeline pipeline = new ImageFilterPipeline();
+    for (ImageFilter stage : chain) {
+      pipeline.addStage(stage);
+    }
+    final CameraImageBuffer downscaled = TestImages.create(1, 1, true);
+    final CameraImageBuffer blurred = TestImages.create(1, 1, true);
+    Benchmarks.time(
+        "Pipeline, threshold fused into blur",
+        new Runnable() {
+          @Override
+          public void run() {
+            pipeline.process(input);
+          }
+        });
+    Benchmarks.time(
+        "Stages run one by one",
+        new Runnable() {
+          @Override
+          public void run() {
+            chain[0].process(downscaled, input);
+            chain[1].process(blurred, downscaled);
+            chain[2].process(blurred, blurred);
+          }
+        });
+  }
+
+  /** Runs each stage on its own, without any fusion. */
+  private static CameraImageBuffer runUnfused(ImageFilter[] chain, CameraImageBuffer input) {
+    CameraImageBuffer current = input;
+    for (ImageFilter stage : chain) {
+      CameraImageBuffer next = TestImages.create(1, 1, false);
+      assertTrue(stage.process(next, current));
+      current = next;
+    }
+    return current;
+  }
+
+  private static LookupTableFilter invert() {
+    byte[] table = new byte[256];
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (byte) (255 - i);
+    }
+    return new LookupTableFilter(table);
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/** Tests for the CPU packing and unpacking of {@link ImageFormatConverter}. */
+public class ImageFormatConverterTest {
+  private static final int[] PACKED_FORMATS = {
+    CameraImageBuffer.IMAGE_FORMAT_I8,
+    CameraImageBuffer.IMAGE_FORMAT_NV21,
+    CameraImageBuffer.IMAGE_FORMAT_I420,
+    CameraImageBuffer.IMAGE_FORMAT_RGB565
+  };
+
+  @Test
+  public void pack_matchesBt601FullRange() {
+    int[][] colors = {
+      {0, 0, 0}, {255, 255, 255}, {255, 0, 0}, {0, 255, 0}, {0, 0, 255}, {90, 160, 30}
+    };
+    for (int[] color : colors) {
+      CameraImageBuffer rgba = solid(2, 2, color);
+      CameraImageBuffer i420 = new CameraImageBuffer();
+      ImageFormatConverter.pack(i420, rgba, CameraImageBuffer.IMAGE_FORMAT_I420);
+
+      double r = color[0];
+      double g = color[1];
+      double b = color[2];
+      assertNear(0.299 * r + 0.587 * g + 0.114 * b, i420.buffer.get(0));
+      assertNear(-0.168736 * r - 0.331264 * g + 0.5 * b + 128, i420.buffer.get(4));
+      assertNear(0.5 * r - 0.418688 * g - 0.081312 * b + 128, i420.buffer.get(5));
+    }
+  }
+
+  @Test
+  public void pack_nv21InterleavesVThenU() {
+    CameraImageBuffer rgba = solid(4, 2, new int[] {255, 0, 0});
+    CameraImageBuffer nv21 = new CameraImageBuffer();
+    CameraImageBuffer i420 = new CameraImageBuffer();
+    ImageFormatConverter.pack(nv21, rgba, CameraImageBuffer.IMAGE_FORMAT_NV21);
+    ImageFormatConverter.pack(i420, rgba, CameraImageBuffer.IMAGE_FORMAT_I420);
+
+    assertEquals(CameraImageBuffer.IMAGE_FORMAT_NV21, nv21.format);
+    assertEquals(8 + 4, nv21.buffer.limit());
+    // I420: U plane at 8, V plane at 10. NV21: V, U pairs at 8.
+    for (int chroma = 0; chroma < 2; chroma++) {
+      assertEquals(i420.buffer.get(10 + chroma), nv21.buffer.get(8 + 2 * chroma));
+      assertEquals(i420.buffer.get(8 + chroma), nv21.buffer.get(8 + 2 * chroma + 1));
+    }
+  }
+
+  @Test
+  public void pack_averagesChromaOverBlocksIncludingPartialOnes() {
+    // 3x3 image: the right column and bottom row blocks only cover 2 or 1 pixels.
+    CameraImageBuffer rgba = createRgba(3, 3);
+    int[][] pixels = {
+      {0, 0, 0}, {255, 255, 255}, {10, 200, 30},
+      {255, 255, 255}, {0, 0, 0}, {10, 200, 30},
+      {200, 10, 10}, {200, 10, 10}, {0, 0, 255}
+    };
+    for (int p = 0; p < pixels.length; p++) {
+      setPixel(rgba, p, pixels[p]);
+    }
+    CameraImageBuffer i420 = new CameraImageBuffer();
+    ImageFormatConverter.pack(i420, rgba, CameraImageBuffer.IMAGE_FORMAT_I420);
+    assertEquals(9 + 2 * 4, i420.buffer.limit());
+
+    // Each block has the chroma of its average color; equal colors give equal chroma.
+    CameraImageBuffer expected = new CameraImageBuffer();
+    int[][] averages = {{128, 128, 128}, {10, 200, 30}, {200, 10, 10}, {0, 0, 255}};
+    for (int block = 0; block < 4; block++) {
+      ImageFormatConverter.pack(
+          expected, solid(1, 1, averages[block]), CameraImageBuffer.IMAGE_FORMAT_I420);
+      assertEquals("U of block " + block, expected.buffer.get(1), i420.buffer.get(9 + block));
+      assertEquals("V of block " + block, expected.buffer.get(2), i420.buffer.get(13 + block));
+    }
+  }
+
+  @Test
+  public void pack_rgb565IsLittleEndian() {
+    CameraImageBuffer rgb565 = new CameraImageBuffer();
+    ImageFormatConverter.pack(
+        rgb565, solid(1, 1, new int[] {255, 0, 0}), CameraImageBuffer.IMAGE_FORMAT_RGB565);
+    assertEquals(0x00, rgb565.buffer.get(0) & 0xFF);
+    assertEquals(0xF8, rgb565.buffer.get(1) & 0xFF);
+
+    ImageFormatConverter.pack(
+        rgb565, solid(1, 1, new int[] {0, 255, 255}), CameraImageBuffer.IMAGE_FORMAT_RGB565);
+    assertEquals(0xFF, rgb565.buffer.get(0) & 0xFF);
+    assertEquals(0x07, rgb565.buffer.get(1) & 0xFF);
+  }
+
+  @Test
+  public void unpack_grayRoundTripIsExact() {
+    CameraImageBuffer gray = TestImages.create(16, 16, false);
+    for (int i = 0; i < 256; i++) {
+      gray.buffer.put(i, (byte) i);
+    }
+    CameraImageBuffer rgba = new CameraImageBuffer();
+    CameraImageBuffer back = new CameraImageBuffer();
+    ImageFormatConverter.unpack(rgba, gray);
+    for (int i = 0; i < 256; i++) {
+      assertEquals(i, rgba.buffer.get(4 * i) & 0xFF);
+      assertEquals(i, rgba.buffer.get(4 * i + 1) & 0xFF);
+      assertEquals(i, rgba.buffer.get(4 * i + 2) & 0xFF);
+      assertEquals(0xFF, rgba.buffer.get(4 * i + 3) & 0xFF);
+    }
+    ImageFormatConverter.pack(back, rgba, CameraImageBuffer.IMAGE_FORMAT_I8);
+    TestImages.assertImagesEqual(gray, back);
+  }
+
+  @Test
+  public void unpack_roundTripsStayClose() {
+    int[][] sizes = {{8, 4}, {7, 5}, {1, 1}, {16, 9}};
+    for (int[] size : sizes) {
+      // Colors are constant over each 2x2 block, so that subsampled chroma loses nothing.
+      CameraImageBuffer rgba = createRgba(size[0], size[1]);
+      for (int j = 0; j < size[1]; j++) {
+        for (int i = 0; i < size[0]; i++) {
+          int s = (j / 2) * 31 + (i / 2) * 17;
+          setPixel(
+              rgba, j * size[0] + i, new int[] {(s * 7) & 0xFF, (s * 13) & 0xFF, (s * 3) & 0xFF});
+        }
+      }
+      for (int format : PACKED_FORMATS) {
+        if (format == CameraImageBuffer.IMAGE_FORMAT_I8) {
+          continue;
+        }
+        CameraImageBuffer packed = new CameraImageBuffer();
+        CameraImageBuffer unpacked = new CameraImageBuffer();
+        ImageFormatConverter.pack(packed, rgba, format);
+        assertEquals(
+            CameraImageBuffer.getBufferSize(size[0], size[1], format), packed.buffer.limit());
+        ImageFormatConverter.unpack(unpacked, packed);
+        int maxError = format == CameraImageBuffer.IMAGE_FORMAT_RGB565 ? 4 : 3;
+        for (int p = 0; p < size[0] * size[1]; p++) {
+          for (int c = 0; c < 3; c++) {
+            int expected = rgba.buffer.get(4 * p + c) & 0xFF;
+            int error = Math.abs(expected - (unpacked.buffer.get(4 * p + c) & 0xFF));
+            assertTrue(
+                "Format " + format + ", pixel " + p + ", channel " + c + ": error " + error,
+                error <= maxError);
+          }
+        }
+      }
+    }
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void pack_rejectsNonRgbaInput() {
+    ImageFormatConverter.pack(
+        new CameraImageBuffer(),
+        TestImages.create(2, 2, false),
+        CameraImageBuffer.IMAGE_FORMAT_NV21);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void pack_rejectsBinaryOutput() {
+    ImageFormatConverter.pack(
+        new CameraImageBuffer(),
+        solid(8, 1, new int[] {0, 0, 0}),
+        CameraImageBuffer.IMAGE_FORMAT_BINARY);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void unpack_rejectsRgbaInput() {
+    ImageFormatConverter.unpack(new CameraImageBuffer(), solid(2, 2, new int[] {0, 0, 0}));
+  }
+
+  private static CameraImageBuffer solid(int width, int height, int[] color) {
+    CameraImageBuffer image = createRgba(width, height);
+    for (int p = 0; p < width * height; p++) {
+      setPixel(image, p, color);
+    }
+    return image;
+  }
+
+  private static void assertNear(double expected, byte actual) {
+    double clamped = Math.min(Math.max(expected, 0), 255);
+    assertTrue(
+        "Expected " + clamped + " but was " + (actual & 0xFF),
+        Math.abs(clamped - (actual & 0xFF)) <= 1);
+  }
+
+  private static CameraImageBuffer createRgba(int width, int height) {
+    return new CameraImageBuffer(
+        width,
+        height,
+        CameraImageBuffer.IMAGE_FORMAT_RGBA,
+        ByteBuffer.allocate(width * height * 4));
+  }
+
+  private static void setPixel(CameraImageBuffer image, int pixel, int[] color) {
+    image.buffer.put(4 * pixel, (byte) color[0]);
+    image.buffer.put(4 * pixel + 1, (byte) color[1]);
+    image.buffer.put(4 * pixel + 2, (byte) color[2]);
+    image.buffer.put(4 * pixel + 3, (byte) 0xFF);
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** Tests for {@link IntegralImage}. */
+public class IntegralImageTest {
+
+  @Test
+  public void build_matchesBruteForceOnRandomBoxes() {
+    Random random = new Random(8);
+    for (int threadCount = 1; threadCount <= 3; threadCount++) {
+      for (boolean direct : new boolean[] {false, true}) {
+        int width = 1 + random.nextInt(70);
+        int height = 1 + random.nextInt(50);
+        CameraImageBuffer input = randomImage(width, height, direct, random);
+        IntegralImage integral = new IntegralImage(threadCount);
+        assertTrue(integral.build(input));
+        assertEquals(width, integral.getWidth());
+        assertEquals(height, integral.getHeight());
+
+        for (int box = 0; box < 200; box++) {
+          int x = random.nextInt(width);
+          int y = random.nextInt(height);
+          int boxWidth = 1 + random.nextInt(width - x);
+          int boxHeight = 1 + random.nextInt(height - y);
+          assertBox(input, integral, x, y, boxWidth, boxHeight);
+        }
+        integral.release();
+      }
+    }
+  }
+
+  @Test
+  public void build_matchesBruteForceOnEdgeBoxes() {
+    Random random = new Random(9);
+    int width = 37;
+    int height = 23;
+    CameraImageBuffer input = randomImage(width, height, false, random);
+    IntegralImage integral = new IntegralImage(2);
+    assertTrue(integral.build(input));
+
+    // The whole image, single pixels in the corners, and full rows and columns at the borders.
+    int[][] boxes = {
+      {0, 0, width, height},
+      {0, 0, 1, 1},
+      {width - 1, 0, 1, 1},
+      {0, height - 1, 1, 1},
+      {width - 1, height - 1, 1, 1},
+      {0, 0, width, 1},
+      {0, height - 1, width, 1},
+      {0, 0, 1, height},
+      {width - 1, 0, 1, height},
+      {1, 1, width - 2, height - 2},
+    };
+    for (int[] box : boxes) {
+      assertBox(input, integral, box[0], box[1], box[2], box[3]);
+    }
+    assertEquals(0, integral.getSum(5, 5, 0, 3));
+    assertEquals(0, integral.getSquareSum(5, 5, 3, 0));
+    integral.release();
+  }
+
+  @Test
+  public void build_rebuildsSmallerImage() {
+    Random random = new Random(10);
+    IntegralImage integral = new IntegralImage();
+    assertTrue(integral.build(randomImage(40, 30, false, random)));
+    CameraImageBuffer input = randomImage(13, 7, true, random);
+    assertTrue(integral.build(input));
+    assertBox(input, integral, 0, 0, 13, 7);
+    assertBox(input, integral, 3, 2, 9, 5);
+    integral.release();
+  }
+
+  @Test
+  public void getSum_staysExactWhenTableWraps() {
+    // 4100 x 2100 pixels of 255 sum to 2195527500, which wraps the int table.
+    int width = 4100;
+    int height = 2100;
+    CameraImageBuffer input = TestImages.create(width, height, false);
+    for (int i = 0; i < width * height; i++) {
+      input.buffer.put(i, (byte) 255);
+    }
+    IntegralImage integral = new IntegralImage(2);
+    assertTrue(integral.build(input));
+
+    // Boxes whose own sum fits in an int are exact, even where the table has wrapped.
+    assertEquals(255 * 100, integral.getSum(width - 10, height - 10, 10, 10));
+    assertEquals(255 * 8000000, integral.getSum(50, 50, 4000, 2000));
+    assertEquals(255, integral.getMean(50, 50, 4000, 2000), 0);
+    assertEquals(255L * 255 * width * height, integral.getSquareSum(0, 0, width, height));
+    assertEquals(0, integral.getVariance(50, 50, 4000, 2000), 0);
+    assertEquals(0, integral.getVariance(width - 10, height - 10, 10, 10), 0);
+    integral.release();
+  }
+
+  @Test
+  public void build_doesNotAllocateAfterWarmUp() {
+    final IntegralImage integral = new IntegralImage();
+    final CameraImageBuffer input = TestImages.noisyGradient(256, 128, 1, true);
+    long bytes =
+        AllocationCounter.measure(
+            new Runnable() {
+              @Override
+              public void run() {
+                integral.build(input);
+              }
+            });
+    integral.release();
+    assertEquals(0, bytes);
+  }
+
+  @Test
+  public void build_rejectsInvalidImages() {
+    IntegralImage integral = new IntegralImage();
+    assertFalse(integral.build(null));
+    assertFalse(integral.build(new CameraImageBuffer()));
+    integral.release();
+  }
+
+  private static CameraImageBuffer randomImage(
+      int width, int height, boolean direct, Random random) {
+    CameraImageBuffer image = TestImages.create(width, height, direct);
+    for (int i = 0; i < width * height; i++) {
+      image.buffer.put(i, (byte) random.nextInt(256));
+    }
+    return image;
+  }
+
+  /** Compares the queries of a box with sums over its pixels. */
+  private static void assertBox(
+      CameraImageBuffer image, IntegralImage integral, int x, int y, int boxWidth, int boxHeight) {
+    long sum = 0;
+    long squareSum = 0;
+    for (int j = y; j < y + boxHeight; j++) {
+      for (int i = x; i < x + boxWidth; i++) {
+        int value = TestImages.get(image, i, j);
+        sum += value;
+        squareSum += value * value;
+      }
+    }
+    int area = boxWidth * boxHeight;
+    double mean = (double) sum / area;
+    double variance = (double) squareSum / area - mean * mean;
+
+    String name = "Box " + x + "," + y + " " + boxWidth + "x" + boxHeight;
+    assertEquals(name, sum, integral.getSum(x, y, boxWidth, boxHeight));
+    assertEquals(name, squareSum, integral.getSquareSum(x, y, boxWidth, boxHeight));
+    assertEquals(name, mean, integral.getMean(x, y, boxWidth, boxHeight), 1e-3);
+    assertEquals(name, variance, integral.getVariance(x, y, boxWidth, boxHeight), 1e-2);
+  }
+}
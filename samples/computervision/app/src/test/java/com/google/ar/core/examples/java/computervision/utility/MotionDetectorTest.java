@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Tests for {@link MotionDetector}. */
+public class MotionDetectorTest {
+  private static final int MOVING = 0xFF;
+  private static final int STATIC = 0x00;
+
+  // Frames of 64 x 32 pixels are downscaled by 2 to 32 x 16, giving a mask of 8 x 4 blocks.
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 32;
+  private static final int SCALE = 2;
+  private static final int BLOCK_SIZE = 4;
+
+  @Test
+  public void detect_firstFrameIsMovingEverywhere() {
+    MotionDetector detector = new MotionDetector(1, SCALE, BLOCK_SIZE, 4);
+    CameraImageBuffer mask = new CameraImageBuffer();
+    assertTrue(detector.detect(mask, frame(-1, -1, false)));
+    assertEquals(8, mask.width);
+    assertEquals(4, mask.height);
+    assertMask(mask, MOVING, -1, -1);
+    assertEquals(1, detector.getMotionScore(), 0);
+  }
+
+  @Test
+  public void detect_staticFrameHasNoMotion() {
+    MotionDetector detector = new MotionDetector(1, SCALE, BLOCK_SIZE, 4);
+    CameraImageBuffer mask = new CameraImageBuffer();
+    assertTrue(detector.detect(mask, frame(8, 8, false)));
+    assertTrue(detector.detect(mask, frame(8, 8, true)));
+    assertMask(mask, STATIC, -1, -1);
+    assertEquals(0, detector.getMotionScore(), 0);
+    assertEquals(0, detector.getMeanDifference(), 0);
+  }
+
+  @Test
+  public void detect_movedSquareMarksOldAndNewBlocks() {
+    MotionDetector detector = new MotionDetector(1, SCALE, BLOCK_SIZE, 4);
+    CameraImageBuffer mask = new CameraImageBuffer();
+    assertTrue(detector.detect(mask, frame(8, 8, false)));
+    // The square covers block (1, 1) before and block (3, 1) after the move.
+    assertTrue(detector.detect(mask, frame(24, 8, false)));
+    assertMask(mask, STATIC, 1 * 8 + 1, 1 * 8 + 3);
+    assertEquals(2.0f / 32, detector.getMotionScore(), 1e-6f);
+    // Two blocks of 16 downscaled pixels changed by 160.
+    assertEquals(2 * 16 * 160.0f / (32 * 16), detector.getMeanDifference(), 1e-3f);
+  }
+
+  @Test
+  public void detect_thresholdSeparatesSmallChanges() {
+    CameraImageBuffer dim = uniform(WIDTH, HEIGHT, 100);
+    CameraImageBuffer brighter = uniform(WIDTH, HEIGHT, 105);
+    CameraImageBuffer mask = new CameraImageBuffer();
+
+    MotionDetector sensitive = new MotionDetector(1, SCALE, BLOCK_SIZE, 4);
+    assertTrue(sensitive.detect(mask, dim));
+    assertTrue(sensitive.detect(mask, brighter));
+    assertEquals(1, sensitive.getMotionScore(), 0);
+
+    MotionDetector tolerant = new MotionDetector(1, SCALE, BLOCK_SIZE, 5);
+    assertTrue(tolerant.detect(mask, dim));
+    assertTrue(tolerant.detect(mask, brighter));
+    assertEquals(0, tolerant.getMotionScore(), 0);
+  }
+
+  @Test
+  public void detect_partialBorderBlockCountsLikeFullBlock() {
+    // 36 x 32 pixels are 18 x 16 downscaled, so the last block column is 2 pixels wide.
+    MotionDetector detector = new MotionDetector(1, SCALE, BLOCK_SIZE, 4);
+    CameraImageBuffer mask = new CameraImageBuffer();
+    CameraImageBuffer changed = uniform(36, 32, 100);
+    for (int y = 0; y < 8; y++) {
+      for (int x = 32; x < 36; x++) {
+        changed.buffer.put(y * 36 + x, (byte) 120);
+      }
+    }
+    assertTrue(detector.detect(mask, uniform(36, 32, 100)));
+    assertTrue(detector.detect(mask, changed));
+    assertEquals(5, mask.width);
+    assertMask(mask, STATIC, 4, -1);
+  }
+
+  @Test
+  public void detect_comparesWithOldestFrameOfHistory() {
+    MotionDetector detector = new MotionDetector(2, SCALE, BLOCK_SIZE, 4);
+    CameraImageBuffer mask = new CameraImageBuffer();
+    assertTrue(detector.detect(mask, frame(8, 8, false)));
+    assertTrue(detector.detect(mask, frame(24, 8, false)));
+    assertEquals(2.0f / 32, detector.getMotionScore(), 1e-6f);
+    // The previous frame is the same, but the reference is two frames back.
+    assertTrue(detector.detect(mask, frame(24, 8, false)));
+    assertEquals(2.0f / 32, detector.getMotionScore(), 1e-6f);
+    assertTrue(detector.detect(mask, frame(24, 8, false)));
+    assertEquals(0, detector.getMotionScore(), 0);
+  }
+
+  @Test
+  public void detect_sizeChangeOrResetRestartsHistory() {
+    MotionDetector detector = new MotionDetector(1, SCALE, BLOCK_SIZE, 4);
+    CameraImageBuffer mask = new CameraImageBuffer();
+    assertTrue(detector.detect(mask, frame(8, 8, false)));
+    assertTrue(detector.detect(mask, uniform(32, 32, 0)));
+    assertEquals(1, detector.getMotionScore(), 0);
+    assertTrue(detector.detect(mask, uniform(32, 32, 0)));
+    assertEquals(0, detector.getMotionScore(), 0);
+    detector.reset();
+    assertTrue(detector.detect(mask, uniform(32, 32, 0)));
+    assertEquals(1, detector.getMotionScore(), 0);
+  }
+
+  @Test
+  public void detect_doesNotAllocateAfterWarmUp() {
+    final MotionDetector detector = new MotionDetector(3, 8, 8, 6);
+    final CameraImageBuffer mask = new CameraImageBuffer();
+    final CameraImageBuffer first = TestImages.noisyGradient(1024, 512, 1, true);
+    final CameraImageBuffer second = TestImages.noisyGradient(1024, 512, 2, true);
+    long bytes =
+        AllocationCounter.measure(
+            new Runnable() {
+              @Override
+              public void run() {
+                detector.detect(mask, first);
+                detector.detect(mask, second);
+              }
+            });
+    assertEquals(0, bytes);
+  }
+
+  @Test
+  public void detect_rejectsInvalidImages() {
+    MotionDetector detector = new MotionDetector(1, SCALE, BLOCK_SIZE, 4);
+    CameraImageBuffer input = uniform(8, 8, 0);
+    assertFalse(detector.detect(new CameraImageBuffer(), new CameraImageBuffer()));
+    assertFalse(detector.detect(input, input));
+    assertFalse(detector.detect(null, input));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void constructor_rejectsEmptyHistory() {
+    new MotionDetector(0, SCALE, BLOCK_SIZE, 4);
+  }
+
+  /**
+   * Returns a dark frame with a bright 8 x 8 pixel square at the given position, or none if x is
+   * negative. At multiples of 8, the square covers exactly one block.
+   */
+  private static CameraImageBuffer frame(int x, int y, boolean direct) {
+    CameraImageBuffer image = TestImages.create(WIDTH, HEIGHT, direct);
+    for (int j = 0; j < HEIGHT; j++) {
+      for (int i = 0; i < WIDTH; i++) {
+        boolean inside = x >= 0 && i >= x && i < x + 8 && j >= y && j < y + 8;
+        image.buffer.put(j * WIDTH + i, inside ? (byte) 200 : (byte) 40);
+      }
+    }
+    return image;
+  }
+
+  private static CameraImageBuffer uniform(int width, int height, int value) {
+    CameraImageBuffer image = TestImages.create(width, height, false);
+    for (int i = 0; i < width * height; i++) {
+      image.buffer.put(i, (byte) value);
+    }
+    return image;
+  }
+
+  /** Asserts that all blocks have the given value, except for the given two, which differ. */
+  private static void assertMask(
+      CameraImageBuffer mask, int value, int otherBlock, int secondOtherBlock) {
+    for (int block = 0; block < mask.width * mask.height; block++) {
+      boolean other = block == otherBlock || block == secondOtherBlock;
+      int expected = other ? MOVING + STATIC - value : value;
+      assertEquals("Block " + block, expected, mask.buffer.get(block) & 0xFF);
+    }
+  }
+}
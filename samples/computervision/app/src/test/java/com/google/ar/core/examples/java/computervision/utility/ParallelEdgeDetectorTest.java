@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Tests for {@link ParallelEdgeDetector}, against the single threaded {@link EdgeDetector}. */
+public class ParallelEdgeDetectorTest {
+  private static final int[] MODES = {
+    EdgeDetector.MODE_BINARY, EdgeDetector.MODE_MAGNITUDE, EdgeDetector.MODE_ORIENTATION
+  };
+  private static final int[] BORDERS = {
+    EdgeDetector.BORDER_REPLICATE, EdgeDetector.BORDER_REFLECT, EdgeDetector.BORDER_ZERO
+  };
+
+  @Test
+  public void detect_matchesScalarDetector() {
+    CameraImageBuffer input = TestImages.noisyGradient(67, 41, 1, true);
+    for (int mode : MODES) {
+      for (int border : BORDERS) {
+        for (int threadCount = 1; threadCount <= 4; threadCount++) {
+          assertMatchesScalar(input, threadCount, mode, border);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void detect_matchesScalarDetectorWithMoreBandsThanRows() {
+    for (int height = 1; height <= 5; height++) {
+      CameraImageBuffer input = TestImages.noisyGradient(13, height, height, false);
+      assertMatchesScalar(input, 4, EdgeDetector.MODE_MAGNITUDE, EdgeDetector.BORDER_REFLECT);
+    }
+  }
+
+  @Test
+  public void detect_reusesDetectorAcrossImageSizes() {
+    ParallelEdgeDetector detector = new ParallelEdgeDetector(3);
+    try {
+      CameraImageBuffer output = new CameraImageBuffer();
+      int[][] sizes = {{32, 16}, {80, 45}, {8, 8}};
+      for (int[] size : sizes) {
+        CameraImageBuffer input = TestImages.noisyGradient(size[0], size[1], size[0], true);
+        CameraImageBuffer expected = new CameraImageBuffer();
+        assertTrue(new EdgeDetector().detect(expected, input));
+        assertTrue(detector.detect(output, input));
+        TestImages.assertImagesEqual(expected, output);
+      }
+    } finally {
+      detector.release();
+    }
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void detect_throwsAfterRelease() {
+    ParallelEdgeDetector detector = new ParallelEdgeDetector(2);
+    detector.release();
+    detector.detect(new CameraImageBuffer(), TestImages.noisyGradient(8, 8, 1, false));
+  }
+
+  @Test
+  public void benchmark_scalarVersusParallel() {
+    Benchmarks.assumeEnabled();
+    int[][] sizes = {{640, 480}, {1024, 512}, {1920, 1080}};
+    int[] threadCounts = {2, 4};
+    for (int[] size : sizes) {
+      final CameraImageBuffer input = TestImages.noisyGradient(size[0], size[1], 1, true);
+      final CameraImageBuffer output = new CameraImageBuffer();
+      final EdgeDetector scalar = new EdgeDetector();
+      Benchmarks.time(
+          "EdgeDetector " + size[0] + "x" + size[1],
+          new Runnable() {
+            @Override
+            public void run() {
+              scalar.detect(output, input);
+            }
+          });
+      for (int threadCount : threadCounts) {
+        final ParallelEdgeDetector parallel = new ParallelEdgeDetector(threadCount);
+        try {
+          Benchmarks.time(
+              "ParallelEdgeDetector " + size[0] + "x" + size[1] + ", " + threadCount + " threads",
+              new Runnable() {
+                @Override
+                public void run() {
+                  parallel.detect(output, input);
+                }
+              });
+        } finally {
+          parallel.release();
+        }
+      }
+    }
+  }
+
+  private static void assertMatchesScalar(
+      CameraImageBuffer input, int threadCount, int mode, int border) {
+    CameraImageBuffer expected = new CameraImageBuffer();
+    assertTrue(new EdgeDetector(mode, border).detect(expected, input));
+
+    ParallelEdgeDetector detector = new ParallelEdgeDetector(threadCount, mode, border);
+    try {
+      CameraImageBuffer actual = new CameraImageBuffer();
+      assertTrue(detector.detect(actual, input));
+      TestImages.assertImagesEqual(expected, actual);
+    } finally {
+      detector.release();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision.utility;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/** Synthetic grayscale images for the image processing tests. */
+final class TestImages {
+  private TestImages() {}
+
+  /** Returns an empty I8 image with a heap or direct buffer. */
+  static CameraImageBuffer create(int width, int height, boolean direct) {
+    ByteBuffer buffer =
+        direct ? ByteBuffer.allocateDirect(width * height) : ByteBuffer.allocate(width * height);
+    return new CameraImageBuffer(width, height, CameraImageBuffer.IMAGE_FORMAT_I8, buffer);
+  }
+
+  /**
+   * Returns an I8 image of smooth gradients with random noise on a quarter of the pixels, so that
+   * it has both weak and strong edges in every direction.
+   */
+  static CameraImageBuffer noisyGradient(int width, int height, long seed, boolean direct) {
+    CameraImageBuffer image = create(width, height, direct);
+    Random random = new Random(seed);
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < width; i++) {
+        int value = random.nextInt(4) == 0 ? random.nextInt(256) : i * 4 + j * 3;
+        image.buffer.put(j * width + i, (byte) value);
+      }
+    }
+    return image;
+  }
+
+  /** Returns an I8 checkerboard of dark and bright squares. */
+  static CameraImageBuffer checkerboard(int width, int height, int squareSize, boolean direct) {
+    CameraImageBuffer image = create(width, height, direct);
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < width; i++) {
+        boolean bright = ((i / squareSize) + (j / squareSize)) % 2 == 0;
+        image.buffer.put(j * width + i, bright ? (byte) 200 : (byte) 40);
+      }
+    }
+    return image;
+  }
+
+  /** Returns a copy of an I8 image with a heap or direct buffer. */
+  static CameraImageBuffer copy(CameraImageBuffer image, boolean direct) {
+    CameraImageBuffer copy = create(image.width, image.height, direct);
+    for (int i = 0; i < image.width * image.height; i++) {
+      copy.buffer.put(i, image.buffer.get(i));
+    }
+    return copy;
+  }
+
+  /** Returns the unsigned value of a pixel. */
+  static int get(CameraImageBuffer image, int x, int y) {
+    return image.buffer.get(y * image.width + x) & 0xFF;
+  }
+
+  /** Fails unless both images have the same size, format and pixels. */
+  static void assertImagesEqual(CameraImageBuffer expected, CameraImageBuffer actual) {
+    assertEquals("width", expected.width, actual.width);
+    assertEquals("height", expected.height, actual.height);
+    assertEquals("format", expected.format, actual.format);
+    int size = CameraImageBuffer.getBufferSize(expected.width, expected.height, expected.format);
+    for (int i = 0; i < size; i++) {
+      if (expected.buffer.get(i) != actual.buffer.get(i)) {
+        throw new AssertionError(
+            "Pixel "
+                + i
+                + " differs: expected "
+                + (expected.buffer.get(i) & 0xFF)
+                + " but was "
+                + (actual.buffer.get(i) & 0xFF));
+      }
+    }
+  }
+}
@@ -256,6 +256,7 @@ public class HelloArActivity extends AppCompatActivity implements GLSurfaceView.
     } catch (IOException e) {
       Log.e(TAG, "Failed to read obj file");
     }
+    planeRenderer.setBatched(true);
     try {
       planeRenderer.createOnGlThread(/*context=*/ this, "trigrid.png");
     } catch (IOException e) {
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.helloar.rendering;
+
+/**
+ * Hands out ranges of a buffer which is shared by many owners, such as a vertex buffer object
+ * holding the meshes of all planes. Offsets and sizes are in whatever unit the caller uses, for
+ * example vertices or indices. The allocator only does the bookkeeping; it does not touch OpenGL.
+ *
+ * <p>The free ranges are kept sorted by offset in two parallel arrays. An allocation takes the
+ * front of the first free range which is large enough, and a freed range is merged with the free
+ * ranges next to it. The capacity can grow, which adds free space at the end, so existing offsets
+ * stay valid. No objects are allocated except when the free list itself has to grow.
+ */
+class BufferAllocator {
+  private static final int INITIAL_FREE_RANGES = 8;
+
+  private int capacity;
+  private int allocatedSize = 0;
+
+  private int[] freeOffsets = new int[INITIAL_FREE_RANGES];
+  private int[] freeSizes = new int[INITIAL_FREE_RANGES];
+  private int freeCount = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity the initial size of the buffer. Everything is free.
+   */
+  BufferAllocator(int capacity) {
+    if (capacity < 0) {
+      throw new RuntimeException("Invalid buffer capacity.");
+    }
+    this.capacity = capacity;
+    if (capacity > 0) {
+      insertRange(0, 0, capacity);
+    }
+  }
+
+  /**
+   * Allocates a range.
+   *
+   * @param size the size of the range, greater than 0.
+   * @return the offset of the range, or -1 if no free range is large enough. The caller may then
+   *     grow() the buffer and try again.
+   */
+  int allocate(int size) {
+    if (size <= 0) {
+      throw new RuntimeException("Invalid allocation size.");
+    }
+    for (int i = 0; i < freeCount; ++i) {
+      if (freeSizes[i] >= size) {
+        int offset = freeOffsets[i];
+        if (freeSizes[i] == size) {
+          removeRange(i);
+        } else {
+          freeOffsets[i] += size;
+          freeSizes[i] -= size;
+        }
+        allocatedSize += size;
+        return offset;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Frees a range returned by allocate(). Throws if the range is outside the buffer or overlaps
+   * free space, which catches most double frees.
+   *
+   * @param offset the offset returned by allocate().
+   * @param size the size passed to allocate().
+   */
+  void free(int offset, int size) {
+    if (size <= 0 || offset < 0 || offset > capacity - size) {
+      throw new RuntimeException("Invalid range.");
+    }
+
+    // The first free range after the freed one.
+    int next = 0;
+    while (next < freeCount && freeOffsets[next] < offset) {
+      ++next;
+    }
+    int previous = next - 1;
+    if ((previous >= 0 && freeOffsets[previous] + freeSizes[previous] > offset)
+        || (next < freeCount && offset + size > freeOffsets[next])) {
+      throw new RuntimeException("Range is already free.");
+    }
+
+    boolean mergePrevious = previous >= 0 && freeOffsets[previous] + freeSizes[previous] == offset;
+    boolean mergeNext = next < freeCount && offset + size == freeOffsets[next];
+    if (mergePrevious && mergeNext) {
+      freeSizes[previous] += size + freeSizes[next];
+      removeRange(next);
+    } else if (mergePrevious) {
+      freeSizes[previous] += size;
+    } else if (mergeNext) {
+      freeOffsets[next] = offset;
+      freeSizes[next] += size;
+    } else {
+      insertRange(next, offset, size);
+    }
+    allocatedSize -= size;
+  }
+
+  /**
+   * Grows the buffer. The added space is free, and allocated ranges keep their offsets.
+   *
+   * @param newCapacity the new size of the buffer, at least the current capacity.
+   */
+  void grow(int newCapacity) {
+    if (newCapacity < capacity) {
+      throw new RuntimeException("Invalid buffer capacity.");
+    }
+    int added = newCapacity - capacity;
+    if (added == 0) {
+      return;
+    }
+    int last = freeCount - 1;
+    if (last >= 0 && freeOffsets[last] + freeSizes[last] == capacity) {
+      freeSizes[last] += added;
+    } else {
+      insertRange(freeCount, capacity, added);
+    }
+    capacity = newCapacity;
+  }
+
+  /** Returns the size of the buffer. */
+  int getCapacity() {
+    return capacity;
+  }
+
+  /** Returns the total size of the allocated ranges. */
+  int getAllocatedSize() {
+    return allocatedSize;
+  }
+
+  /** Returns the number of free ranges, a measure of fragmentation. */
+  int getFreeRangeCount() {
+    return freeCount;
+  }
+
+  private void insertRange(int index, int offset, int size) {
+    if (freeCount == freeOffsets.length) {
+      int[] offsets = new int[freeCount * 2];
+      int[] sizes = new int[freeCount * 2];
+      System.arraycopy(freeOffsets, 0, offsets, 0, freeCount);
+      System.arraycopy(freeSizes, 0, sizes, 0, freeCount);
+      freeOffsets = offsets;
+      freeSizes = sizes;
+    }
+    System.arraycopy(freeOffsets, index, freeOffsets, index + 1, freeCount - index);
+    System.arraycopy(freeSizes, index, freeSizes, index + 1, freeCount - index);
+    freeOffsets[index] = offset;
+    freeSizes[index] = size;
+    ++freeCount;
+  }
+
+  private void removeRange(int index) {
+    System.arraycopy(freeOffsets, index + 1, freeOffsets, index, freeCount - index - 1);
+    System.arraycopy(freeSizes, index + 1, freeSizes, index, freeCount - index - 1);
+    --freeCount;
+  }
+}
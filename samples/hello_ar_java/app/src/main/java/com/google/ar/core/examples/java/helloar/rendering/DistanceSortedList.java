@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.helloar.rendering;
+
+/**
+ * Items with a distance, such as the planes to draw in a frame, which can be visited in order of
+ * increasing distance. The items are sorted through an index array, so they keep their slots. The
+ * arrays only grow, so once they are large enough, filling and sorting the list does not allocate.
+ *
+ * @param <T> the type of the items.
+ */
+class DistanceSortedList<T> {
+  private Object[] items;
+  private float[] distances;
+  private int[] sortedIndices;
+  private int size = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity the initial number of items the list can hold without growing.
+   */
+  DistanceSortedList(int capacity) {
+    if (capacity <= 0) {
+      throw new RuntimeException("Invalid capacity.");
+    }
+    items = new Object[capacity];
+    distances = new float[capacity];
+    sortedIndices = new int[capacity];
+  }
+
+  /** Removes all items, without keeping references to them. */
+  void clear() {
+    for (int i = 0; i < size; ++i) {
+      items[i] = null;
+    }
+    size = 0;
+  }
+
+  /**
+   * Appends an item. The order is undefined until the next sort().
+   *
+   * @param item the item.
+   * @param distance the distance the item is sorted by.
+   */
+  void add(T item, float distance) {
+    if (size == items.length) {
+      int capacity = size * 2;
+      Object[] newItems = new Object[capacity];
+      float[] newDistances = new float[capacity];
+      System.arraycopy(items, 0, newItems, 0, size);
+      System.arraycopy(distances, 0, newDistances, 0, size);
+      items = newItems;
+      distances = newDistances;
+      sortedIndices = new int[capacity];
+    }
+    items[size] = item;
+    distances[size] = distance;
+    ++size;
+  }
+
+  /**
+   * Sorts the items by increasing distance. Insertion sort is stable and fast for the few dozen
+   * planes of a scene, and it sorts in place.
+   */
+  void sort() {
+    for (int i = 0; i < size; ++i) {
+      float distance = distances[i];
+      int j = i - 1;
+      while (j >= 0 && distances[sortedIndices[j]] > distance) {
+        sortedIndices[j + 1] = sortedIndices[j];
+        --j;
+      }
+      sortedIndices[j + 1] = i;
+    }
+  }
+
+  /** Returns the number of items. */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns an item in sorted order.
+   *
+   * @param i the position in sorted order, 0 being the closest item.
+   */
+  @SuppressWarnings("unchecked")
+  T get(int i) {
+    return (T) items[sortedIndices[i]];
+  }
+
+  /** Returns the distance of an item in sorted order. */
+  float getDistance(int i) {
+    return distances[sortedIndices[i]];
+  }
+}
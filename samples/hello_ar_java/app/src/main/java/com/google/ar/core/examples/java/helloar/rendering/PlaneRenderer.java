@@ -33,11 +33,10 @@ import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -62,6 +61,15 @@ public class PlaneRenderer {
           * INDICES_PER_BOUNDARY_VERT
           * INITIAL_BUFFER_BOUNDARY_VERTS;
 
+  // Batched vertices: x, y, z, color index, u, v, alpha. Batches are indexed with shorts.
+  private static final int FLOATS_PER_BATCH_VERTEX = 7;
+  private static final int MAX_BATCH_VERTICES = 1 << 16;
+
+  private static final int INITIAL_VISIBLE_PLANES = 16;
+
+  // Initial size of the buffers shared by all plane meshes.
+  private static final int INITIAL_SHARED_BUFFER_BOUNDARY_VERTS = 1024;
+
   private static final float FADE_RADIUS_M = 0.25f;
   private static final float DOTS_PER_METER = 10.0f;
   private static final float EQUILATERAL_TRIANGLE_SCALE = (float) (1 / Math.sqrt(3));
@@ -86,6 +94,16 @@ public class PlaneRenderer {
   private int gridControlUniform;
   private int planeUvMatrixUniform;
 
+  private int batchProgram;
+  private int batchPositionColorIndexAttribute;
+  private int batchTexCoordAlphaAttribute;
+  private int batchViewProjectionUniform;
+  private int batchPlaneColorsUniform;
+  private int batchTextureUniform;
+  private int batchGridControlUniform;
+
+  private boolean batched = false;
+
   private FloatBuffer vertexBuffer =
       ByteBuffer.allocateDirect(INITIAL_VERTEX_BUFFER_SIZE_BYTES)
           .order(ByteOrder.nativeOrder())
@@ -96,14 +114,42 @@ public class PlaneRenderer {
           .asShortBuffer();
 
   // Temporary lists/matrices allocated here to reduce number of allocations for each frame.
-  private final float[] modelMatrix = new float[16];
   private final float[] modelViewMatrix = new float[16];
   private final float[] modelViewProjectionMatrix = new float[16];
   private final float[] planeColor = new float[4];
   private final float[] planeAngleUvMatrix =
       new float[4]; // 2x2 rotation matrix applied to uv coords.
-
-  private final Map<Plane, Integer> planeIndexMap = new HashMap<>();
+  private final float[] viewProjectionMatrix = new float[16];
+  private final float[] cameraPoseMatrix = new float[16];
+  private final float[] cameraView = new float[16];
+  private final float[] normal = new float[3];
+
+  // The meshes of the planes to draw this frame, sorted by their distance from the camera.
+  private final DistanceSortedList<PlaneMesh> visiblePlanes =
+      new DistanceSortedList<>(INITIAL_VISIBLE_PLANES);
+
+  // World space vertices and strip indices of the batch being assembled.
+  private float[] batchVertices = new float[0];
+  private short[] batchIndices = new short[0];
+  private int batchVertexCount = 0;
+  private int batchIndexCount = 0;
+
+  // Triangulated meshes of the planes, kept until the plane stops tracking or is subsumed. The
+  // list holds the same meshes, so that they can be visited without allocating an iterator.
+  private final Map<Plane, PlaneMesh> planeMeshes = new HashMap<>();
+  private final List<PlaneMesh> planeMeshList = new ArrayList<>();
+  private int nextPlaneIndex = 0;
+
+  // Vertex and index buffer objects holding the meshes of all planes, and the ranges in them.
+  private int sharedVertexBufferId;
+  private int sharedIndexBufferId;
+  // Vertex and index buffer objects the batches are streamed through.
+  private int batchVertexBufferId;
+  private int batchIndexBufferId;
+  private final BufferAllocator vertexAllocator =
+      new BufferAllocator(VERTS_PER_BOUNDARY_VERT * INITIAL_SHARED_BUFFER_BOUNDARY_VERTS);
+  private final BufferAllocator indexAllocator =
+      new BufferAllocator(INDICES_PER_BOUNDARY_VERT * INITIAL_SHARED_BUFFER_BOUNDARY_VERTS);
 
   public PlaneRenderer() {}
 
@@ -157,24 +203,125 @@ public class PlaneRenderer {
     planeUvMatrixUniform = GLES20.glGetUniformLocation(planeProgram, "u_PlaneUvMatrix");
 
     ShaderUtil.checkGLError(TAG, "Program parameters");
+
+    int batchVertexShader =
+        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, R.raw.plane_batch_vertex);
+    int batchFragmentShader =
+        ShaderUtil.loadGLShader(
+            TAG, context, GLES20.GL_FRAGMENT_SHADER, R.raw.plane_batch_fragment);
+
+    batchProgram = GLES20.glCreateProgram();
+    GLES20.glAttachShader(batchProgram, batchVertexShader);
+    GLES20.glAttachShader(batchProgram, batchFragmentShader);
+    GLES20.glLinkProgram(batchProgram);
+    GLES20.glUseProgram(batchProgram);
+
+    ShaderUtil.checkGLError(TAG, "Batch program creation");
+
+    batchPositionColorIndexAttribute =
+        GLES20.glGetAttribLocation(batchProgram, "a_PositionColorIndex");
+    batchTexCoordAlphaAttribute = GLES20.glGetAttribLocation(batchProgram, "a_TexCoordAlpha");
+
+    batchViewProjectionUniform = GLES20.glGetUniformLocation(batchProgram, "u_ViewProjection");
+    batchPlaneColorsUniform = GLES20.glGetUniformLocation(batchProgram, "u_PlaneColors");
+    batchTextureUniform = GLES20.glGetUniformLocation(batchProgram, "u_Texture");
+    batchGridControlUniform = GLES20.glGetUniformLocation(batchProgram, "u_gridControl");
+
+    // The plane colors never change, so they are set once.
+    float[] planeColors = new float[4 * PLANE_COLORS_RGBA.length];
+    for (int i = 0; i < PLANE_COLORS_RGBA.length; ++i) {
+      colorRgbaToFloat(planeColor, PLANE_COLORS_RGBA[i]);
+      System.arraycopy(planeColor, 0, planeColors, 4 * i, 4);
+    }
+    GLES20.glUniform4fv(batchPlaneColorsUniform, PLANE_COLORS_RGBA.length, planeColors, 0);
+
+    ShaderUtil.checkGLError(TAG, "Batch program parameters");
+
+    int[] buffers = new int[4];
+    GLES20.glGenBuffers(4, buffers, 0);
+    sharedVertexBufferId = buffers[0];
+    sharedIndexBufferId = buffers[1];
+    batchVertexBufferId = buffers[2];
+    batchIndexBufferId = buffers[3];
+
+    // Buffers of a previous context are gone, so this also uploads the meshes again.
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, sharedVertexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER,
+        BYTES_PER_FLOAT * COORDS_PER_VERTEX * vertexAllocator.getCapacity(),
+        null,
+        GLES20.GL_DYNAMIC_DRAW);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, sharedIndexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER,
+        BYTES_PER_SHORT * indexAllocator.getCapacity(),
+        null,
+        GLES20.GL_DYNAMIC_DRAW);
+    for (PlaneMesh mesh : planeMeshList) {
+      if (mesh.uploaded) {
+        uploadPlaneMeshVertices(mesh);
+        uploadPlaneMeshIndices(mesh);
+      }
+    }
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+    ShaderUtil.checkGLError(TAG, "Buffer allocation");
+  }
+
+  /**
+   * Selects whether planes are drawn in batches. Batched planes are transformed into world space on
+   * the CPU and streamed to the GPU every frame, so that all of them are drawn with one draw call,
+   * or a few if they have more than 65536 vertices. Otherwise each plane is drawn with its own draw
+   * call from the shared buffers, which only upload the meshes that changed. Batching pays off when
+   * many planes are visible.
+   *
+   * @param batched True to draw planes in batches.
+   */
+  public void setBatched(boolean batched) {
+    this.batched = batched;
+  }
+
+  /** Returns the mesh of a plane, after updating it. Creates the mesh of a new plane. */
+  private PlaneMesh getPlaneMesh(Plane plane) {
+    // The mesh also assigns same indices to same planes.
+    PlaneMesh mesh = planeMeshes.get(plane);
+    if (mesh == null) {
+      mesh = new PlaneMesh(plane, nextPlaneIndex++);
+      planeMeshes.put(plane, mesh);
+      planeMeshList.add(mesh);
+    }
+    updatePlaneMesh(mesh, plane.getExtentX(), plane.getExtentZ(), plane.getPolygon());
+    return mesh;
   }
 
-  /** Updates the plane model transform matrix and extents. */
-  private void updatePlaneParameters(
-      float[] planeMatrix, float extentX, float extentZ, FloatBuffer boundary) {
-    System.arraycopy(planeMatrix, 0, modelMatrix, 0, 16);
-    if (boundary == null) {
-      vertexBuffer.limit(0);
-      indexBuffer.limit(0);
+  /**
+   * Updates the mesh of a plane if its polygon or extents changed since the mesh was built. Unless
+   * drawing in batches, also uploads it into its ranges of the shared buffers.
+   */
+  private void updatePlaneMesh(PlaneMesh mesh, float extentX, float extentZ, FloatBuffer boundary) {
+    if (!mesh.matches(extentX, extentZ, boundary)) {
+      mesh.setPolygon(extentX, extentZ, boundary);
+      triangulatePlaneMesh(mesh, extentX, extentZ);
+      mesh.uploaded = false;
+    }
+    if (batched || mesh.uploaded || mesh.indexCount == 0) {
       return;
     }
+    allocatePlaneMesh(mesh);
+    uploadPlaneMeshVertices(mesh);
+    uploadPlaneMeshIndices(mesh);
+    mesh.uploaded = true;
+  }
 
+  /** Builds the vertices and triangle strip indices of a mesh from its polygon. */
+  private void triangulatePlaneMesh(PlaneMesh mesh, float extentX, float extentZ) {
     // Generate a new set of vertices and a corresponding triangle strip index set so that
     // the plane boundary polygon has a fading edge. This is done by making a copy of the
     // boundary polygon vertices and scaling it down around center to push it inwards. Then
     // the index buffer is setup accordingly.
-    boundary.rewind();
-    int boundaryVertices = boundary.limit() / 2;
+    float[] boundary = mesh.polygon;
+    int boundaryVertices = mesh.polygonLength / 2;
     int numVertices;
     int numIndices;
 
@@ -182,9 +329,144 @@ public class PlaneRenderer {
     // drawn as GL_TRIANGLE_STRIP with 3n-2 triangles (n-2 for fill, 2n for perimeter).
     numIndices = boundaryVertices * INDICES_PER_BOUNDARY_VERT;
 
-    if (vertexBuffer.capacity() < numVertices * COORDS_PER_VERTEX) {
+    if (mesh.vertices.length < numVertices * COORDS_PER_VERTEX) {
+      mesh.vertices = new float[numVertices * COORDS_PER_VERTEX];
+    }
+    if (mesh.indices.length < numIndices) {
+      mesh.indices = new short[numIndices];
+    }
+    mesh.vertexCount = numVertices;
+    mesh.indexCount = numIndices;
+    if (boundaryVertices == 0) {
+      return;
+    }
+
+    // Note: when either dimension of the bounding box is smaller than 2*FADE_RADIUS_M we
+    // generate a bunch of 0-area triangles.  These don't get rendered though so it works
+    // out ok.
+    float xScale = Math.max((extentX - 2 * FADE_RADIUS_M) / extentX, 0.0f);
+    float zScale = Math.max((extentZ - 2 * FADE_RADIUS_M) / extentZ, 0.0f);
+
+    float[] vertices = mesh.vertices;
+    int v = 0;
+    for (int i = 0; i < boundaryVertices; ++i) {
+      float x = boundary[i * 2];
+      float z = boundary[i * 2 + 1];
+      vertices[v++] = x;
+      vertices[v++] = z;
+      vertices[v++] = 0.0f;
+      vertices[v++] = x * xScale;
+      vertices[v++] = z * zScale;
+      vertices[v++] = 1.0f;
+    }
+
+    short[] indices = mesh.indices;
+    int n = 0;
+    // step 1, perimeter
+    indices[n++] = (short) ((boundaryVertices - 1) * 2);
+    for (int i = 0; i < boundaryVertices; ++i) {
+      indices[n++] = (short) (i * 2);
+      indices[n++] = (short) (i * 2 + 1);
+    }
+    indices[n++] = (short) 1;
+    // This leaves us on the interior edge of the perimeter between the inset vertices
+    // for boundary verts n-1 and 0.
+
+    // step 2, interior:
+    for (int i = 1; i < boundaryVertices / 2; ++i) {
+      indices[n++] = (short) ((boundaryVertices - 1 - i) * 2 + 1);
+      indices[n++] = (short) (i * 2 + 1);
+    }
+    if (boundaryVertices % 2 != 0) {
+      indices[n++] = (short) ((boundaryVertices / 2) * 2 + 1);
+    }
+    mesh.indexCount = n;
+  }
+
+  /**
+   * Makes sure the ranges of a mesh in the shared buffers are large enough, moving the mesh to
+   * new ranges, and growing the buffers, if needed. Ranges are rounded up to a power of two, so a
+   * growing polygon moves only now and then.
+   */
+  private void allocatePlaneMesh(PlaneMesh mesh) {
+    if (mesh.vertexCount > mesh.vertexCapacity) {
+      if (mesh.vertexCapacity > 0) {
+        vertexAllocator.free(mesh.vertexOffset, mesh.vertexCapacity);
+      }
+      mesh.vertexCapacity = Integer.highestOneBit(mesh.vertexCount * 2 - 1);
+      mesh.vertexOffset = vertexAllocator.allocate(mesh.vertexCapacity);
+      if (mesh.vertexOffset < 0) {
+        growSharedVertexBuffer(mesh.vertexCapacity);
+        mesh.vertexOffset = vertexAllocator.allocate(mesh.vertexCapacity);
+      }
+    }
+    if (mesh.indexCount > mesh.indexCapacity) {
+      if (mesh.indexCapacity > 0) {
+        indexAllocator.free(mesh.indexOffset, mesh.indexCapacity);
+      }
+      mesh.indexCapacity = Integer.highestOneBit(mesh.indexCount * 2 - 1);
+      mesh.indexOffset = indexAllocator.allocate(mesh.indexCapacity);
+      if (mesh.indexOffset < 0) {
+        growSharedIndexBuffer(mesh.indexCapacity);
+        mesh.indexOffset = indexAllocator.allocate(mesh.indexCapacity);
+      }
+    }
+  }
+
+  /** Frees the ranges of a mesh in the shared buffers. */
+  private void freePlaneMesh(PlaneMesh mesh) {
+    if (mesh.vertexCapacity > 0) {
+      vertexAllocator.free(mesh.vertexOffset, mesh.vertexCapacity);
+      mesh.vertexCapacity = 0;
+    }
+    if (mesh.indexCapacity > 0) {
+      indexAllocator.free(mesh.indexOffset, mesh.indexCapacity);
+      mesh.indexCapacity = 0;
+    }
+  }
+
+  /**
+   * Grows the shared vertex buffer so that a range of the given size fits, and uploads the meshes
+   * again, since resizing a buffer object drops its contents.
+   */
+  private void growSharedVertexBuffer(int vertexCount) {
+    int capacity = vertexAllocator.getCapacity();
+    vertexAllocator.grow(Math.max(capacity * 2, capacity + vertexCount));
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, sharedVertexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER,
+        BYTES_PER_FLOAT * COORDS_PER_VERTEX * vertexAllocator.getCapacity(),
+        null,
+        GLES20.GL_DYNAMIC_DRAW);
+    for (PlaneMesh mesh : planeMeshList) {
+      if (mesh.uploaded) {
+        uploadPlaneMeshVertices(mesh);
+      }
+    }
+  }
+
+  /** Grows the shared index buffer, like growSharedVertexBuffer(). */
+  private void growSharedIndexBuffer(int indexCount) {
+    int capacity = indexAllocator.getCapacity();
+    indexAllocator.grow(Math.max(capacity * 2, capacity + indexCount));
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, sharedIndexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER,
+        BYTES_PER_SHORT * indexAllocator.getCapacity(),
+        null,
+        GLES20.GL_DYNAMIC_DRAW);
+    for (PlaneMesh mesh : planeMeshList) {
+      if (mesh.uploaded) {
+        uploadPlaneMeshIndices(mesh);
+      }
+    }
+  }
+
+  /** Copies floats into the staging vertex buffer, growing it if needed. */
+  private void stageVertices(float[] vertices, int floatCount) {
+    if (vertexBuffer.capacity() < floatCount) {
       int size = vertexBuffer.capacity();
-      while (size < numVertices * COORDS_PER_VERTEX) {
+      while (size < floatCount) {
         size *= 2;
       }
       vertexBuffer =
@@ -192,12 +474,16 @@ public class PlaneRenderer {
               .order(ByteOrder.nativeOrder())
               .asFloatBuffer();
     }
+    vertexBuffer.clear();
+    vertexBuffer.put(vertices, 0, floatCount);
     vertexBuffer.rewind();
-    vertexBuffer.limit(numVertices * COORDS_PER_VERTEX);
+  }
 
-    if (indexBuffer.capacity() < numIndices) {
+  /** Copies shorts into the staging index buffer, growing it if needed. */
+  private void stageIndices(short[] indices, int indexCount) {
+    if (indexBuffer.capacity() < indexCount) {
       int size = indexBuffer.capacity();
-      while (size < numIndices) {
+      while (size < indexCount) {
         size *= 2;
       }
       indexBuffer =
@@ -205,86 +491,153 @@ public class PlaneRenderer {
               .order(ByteOrder.nativeOrder())
               .asShortBuffer();
     }
+    indexBuffer.clear();
+    indexBuffer.put(indices, 0, indexCount);
     indexBuffer.rewind();
-    indexBuffer.limit(numIndices);
-
-    // Note: when either dimension of the bounding box is smaller than 2*FADE_RADIUS_M we
-    // generate a bunch of 0-area triangles.  These don't get rendered though so it works
-    // out ok.
-    float xScale = Math.max((extentX - 2 * FADE_RADIUS_M) / extentX, 0.0f);
-    float zScale = Math.max((extentZ - 2 * FADE_RADIUS_M) / extentZ, 0.0f);
+  }
 
-    while (boundary.hasRemaining()) {
-      float x = boundary.get();
-      float z = boundary.get();
-      vertexBuffer.put(x);
-      vertexBuffer.put(z);
-      vertexBuffer.put(0.0f);
-      vertexBuffer.put(x * xScale);
-      vertexBuffer.put(z * zScale);
-      vertexBuffer.put(1.0f);
-    }
+  /** Copies the vertices of a mesh into its range of the shared vertex buffer. */
+  private void uploadPlaneMeshVertices(PlaneMesh mesh) {
+    int floatCount = mesh.vertexCount * COORDS_PER_VERTEX;
+    stageVertices(mesh.vertices, floatCount);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, sharedVertexBufferId);
+    GLES20.glBufferSubData(
+        GLES20.GL_ARRAY_BUFFER,
+        BYTES_PER_FLOAT * COORDS_PER_VERTEX * mesh.vertexOffset,
+        BYTES_PER_FLOAT * floatCount,
+        vertexBuffer);
+    ShaderUtil.checkGLError(TAG, "Uploading plane vertices");
+  }
 
-    // step 1, perimeter
-    indexBuffer.put((short) ((boundaryVertices - 1) * 2));
-    for (int i = 0; i < boundaryVertices; ++i) {
-      indexBuffer.put((short) (i * 2));
-      indexBuffer.put((short) (i * 2 + 1));
-    }
-    indexBuffer.put((short) 1);
-    // This leaves us on the interior edge of the perimeter between the inset vertices
-    // for boundary verts n-1 and 0.
+  /** Copies the indices of a mesh into its range of the shared index buffer. */
+  private void uploadPlaneMeshIndices(PlaneMesh mesh) {
+    stageIndices(mesh.indices, mesh.indexCount);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, sharedIndexBufferId);
+    GLES20.glBufferSubData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER,
+        BYTES_PER_SHORT * mesh.indexOffset,
+        BYTES_PER_SHORT * mesh.indexCount,
+        indexBuffer);
+    ShaderUtil.checkGLError(TAG, "Uploading plane indices");
+  }
 
-    // step 2, interior:
-    for (int i = 1; i < boundaryVertices / 2; ++i) {
-      indexBuffer.put((short) ((boundaryVertices - 1 - i) * 2 + 1));
-      indexBuffer.put((short) (i * 2 + 1));
-    }
-    if (boundaryVertices % 2 != 0) {
-      indexBuffer.put((short) ((boundaryVertices / 2) * 2 + 1));
+  /** Frees the meshes of planes which will not be drawn again. */
+  private void evictPlaneMeshes() {
+    for (int i = planeMeshList.size() - 1; i >= 0; --i) {
+      PlaneMesh mesh = planeMeshList.get(i);
+      Plane plane = mesh.plane;
+      if (plane.getTrackingState() == TrackingState.STOPPED || plane.getSubsumedBy() != null) {
+        freePlaneMesh(mesh);
+        planeMeshes.remove(plane);
+        // Move the last mesh into the gap; the order of the list does not matter.
+        PlaneMesh last = planeMeshList.remove(planeMeshList.size() - 1);
+        if (last != mesh) {
+          planeMeshList.set(i, last);
+        }
+      }
     }
   }
 
-  private void draw(float[] cameraView, float[] cameraPerspective) {
+  private void draw(PlaneMesh mesh, float[] cameraView, float[] cameraPerspective) {
     // Build the ModelView and ModelViewProjection matrices
     // for calculating cube position and light.
-    Matrix.multiplyMM(modelViewMatrix, 0, cameraView, 0, modelMatrix, 0);
+    Matrix.multiplyMM(modelViewMatrix, 0, cameraView, 0, mesh.modelMatrix, 0);
     Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraPerspective, 0, modelViewMatrix, 0);
 
-    // Set the position of the plane
-    vertexBuffer.rewind();
+    // Set the position of the plane within the shared vertex buffer.
     GLES20.glVertexAttribPointer(
         planeXZPositionAlphaAttribute,
         COORDS_PER_VERTEX,
         GLES20.GL_FLOAT,
         false,
         BYTES_PER_FLOAT * COORDS_PER_VERTEX,
-        vertexBuffer);
+        BYTES_PER_FLOAT * COORDS_PER_VERTEX * mesh.vertexOffset);
 
     // Set the Model and ModelViewProjection matrices in the shader.
-    GLES20.glUniformMatrix4fv(planeModelUniform, 1, false, modelMatrix, 0);
+    GLES20.glUniformMatrix4fv(planeModelUniform, 1, false, mesh.modelMatrix, 0);
     GLES20.glUniformMatrix4fv(
         planeModelViewProjectionUniform, 1, false, modelViewProjectionMatrix, 0);
 
-    indexBuffer.rewind();
     GLES20.glDrawElements(
-        GLES20.GL_TRIANGLE_STRIP, indexBuffer.limit(), GLES20.GL_UNSIGNED_SHORT, indexBuffer);
+        GLES20.GL_TRIANGLE_STRIP,
+        mesh.indexCount,
+        GLES20.GL_UNSIGNED_SHORT,
+        BYTES_PER_SHORT * mesh.indexOffset);
     ShaderUtil.checkGLError(TAG, "Drawing plane");
   }
 
-  static class SortablePlane {
-    final float distance;
+  /**
+   * The fade-edge mesh of a plane in the plane's coordinate system. A copy of the vertices and
+   * indices is kept, along with their ranges in the shared buffers, and the polygon and extents
+   * the mesh was built from are kept to detect changes.
+   */
+  static class PlaneMesh {
     final Plane plane;
-
-    SortablePlane(float distance, Plane plane) {
-      this.distance = distance;
+    final int planeIndex;
+
+    // The center pose of the plane in the current frame.
+    final float[] modelMatrix = new float[16];
+
+    float[] vertices = new float[0];
+    short[] indices = new short[0];
+    int vertexCount;
+    int indexCount;
+
+    // Ranges in the shared buffers, in vertices and indices. The capacity is 0 if there is none.
+    // The ranges only hold the current mesh if it was uploaded since it was last built.
+    boolean uploaded;
+    int vertexOffset;
+    int vertexCapacity;
+    int indexOffset;
+    int indexCapacity;
+
+    private float extentX;
+    private float extentZ;
+    private float[] polygon = new float[0];
+    private int polygonLength = -1; // -1 until the first update, 0 for a null polygon.
+
+    PlaneMesh(Plane plane, int planeIndex) {
       this.plane = plane;
+      this.planeIndex = planeIndex;
+    }
+
+    /** Returns whether the mesh was built from the given extents and polygon. */
+    boolean matches(float extentX, float extentZ, FloatBuffer boundary) {
+      int length = boundary == null ? 0 : boundary.limit();
+      if (length != polygonLength || extentX != this.extentX || extentZ != this.extentZ) {
+        return false;
+      }
+      for (int i = 0; i < length; ++i) {
+        if (boundary.get(i) != polygon[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /** Records the extents and polygon the mesh is built from. */
+    void setPolygon(float extentX, float extentZ, FloatBuffer boundary) {
+      this.extentX = extentX;
+      this.extentZ = extentZ;
+      polygonLength = boundary == null ? 0 : boundary.limit();
+      if (polygon.length < polygonLength) {
+        polygon = new float[polygonLength];
+      }
+      for (int i = 0; i < polygonLength; ++i) {
+        polygon[i] = boundary.get(i);
+      }
     }
   }
 
   /**
    * Draws the collection of tracked planes, with closer planes hiding more distant ones.
    *
+   * <p>Apart from what ARCore allocates, drawing does not allocate once the buffers are large
+   * enough. ARCore allocates the center pose of every tracked plane, and the polygon of every
+   * visible plane, on every frame; each is fetched once per plane and frame. A {@link RandomAccess}
+   * list of planes is visited by index; other collections are visited with an iterator, which is
+   * allocated.
+   *
    * @param allPlanes The collection of planes to draw.
    * @param cameraPose The pose of the camera, as returned by {@link Camera#getPose()}
    * @param cameraPerspective The projection matrix, as returned by {@link
@@ -293,40 +646,26 @@ public class PlaneRenderer {
   public void drawPlanes(Collection<Plane> allPlanes, Pose cameraPose, float[] cameraPerspective) {
     // Planes must be sorted by distance from camera so that we draw closer planes first, and
     // they occlude the farther planes.
-    List<SortablePlane> sortedPlanes = new ArrayList<>();
-    float[] normal = new float[3];
+    evictPlaneMeshes();
+
+    visiblePlanes.clear();
     float cameraX = cameraPose.tx();
     float cameraY = cameraPose.ty();
     float cameraZ = cameraPose.tz();
-    for (Plane plane : allPlanes) {
-      if (plane.getTrackingState() != TrackingState.TRACKING || plane.getSubsumedBy() != null) {
-        continue;
+    if (allPlanes instanceof List && allPlanes instanceof RandomAccess) {
+      List<Plane> planeList = (List<Plane>) allPlanes;
+      for (int i = 0; i < planeList.size(); ++i) {
+        addIfVisible(planeList.get(i), cameraX, cameraY, cameraZ);
       }
-
-      Pose center = plane.getCenterPose();
-      // Get transformed Y axis of plane's coordinate system.
-      center.getTransformedAxis(1, 1.0f, normal, 0);
-      // Compute dot product of plane's normal with vector from camera to plane center.
-      float distance =
-          (cameraX - center.tx()) * normal[0]
-              + (cameraY - center.ty()) * normal[1]
-              + (cameraZ - center.tz()) * normal[2];
-      if (distance < 0) { // Plane is back-facing.
-        continue;
+    } else {
+      for (Plane plane : allPlanes) {
+        addIfVisible(plane, cameraX, cameraY, cameraZ);
       }
-      sortedPlanes.add(new SortablePlane(distance, plane));
     }
-    Collections.sort(
-        sortedPlanes,
-        new Comparator<SortablePlane>() {
-          @Override
-          public int compare(SortablePlane a, SortablePlane b) {
-            return Float.compare(a.distance, b.distance);
-          }
-        });
+    visiblePlanes.sort();
 
-    float[] cameraView = new float[16];
-    cameraPose.inverse().toMatrix(cameraView, 0);
+    cameraPose.toMatrix(cameraPoseMatrix, 0);
+    Matrix.invertM(cameraView, 0, cameraPoseMatrix, 0);
 
     // Planes are drawn with additive blending, masked by the alpha channel for occlusion.
 
@@ -345,12 +684,56 @@ public class PlaneRenderer {
         GLES20.GL_DST_ALPHA, GLES20.GL_ONE, // RGB (src, dest)
         GLES20.GL_ZERO, GLES20.GL_ONE_MINUS_SRC_ALPHA); // ALPHA (src, dest)
 
-    // Set up the shader.
-    GLES20.glUseProgram(planeProgram);
-
     // Attach the texture.
     GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+
+    if (batched) {
+      drawPlanesBatched(cameraView, cameraPerspective);
+    } else {
+      drawPlanesSeparately(cameraView, cameraPerspective);
+    }
+
+    // Clean up the state we set
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    GLES20.glDisable(GLES20.GL_BLEND);
+    GLES20.glDepthMask(true);
+
+    ShaderUtil.checkGLError(TAG, "Cleaning up after drawing planes");
+
+    // Do not keep evicted meshes, and their planes, alive until the next frame.
+    visiblePlanes.clear();
+  }
+
+  /**
+   * Adds the mesh of a plane to the visible planes if the plane is tracked and faces the camera.
+   * The mesh is updated, and its model matrix set from the center pose.
+   */
+  private void addIfVisible(Plane plane, float cameraX, float cameraY, float cameraZ) {
+    if (plane.getTrackingState() != TrackingState.TRACKING || plane.getSubsumedBy() != null) {
+      return;
+    }
+
+    Pose center = plane.getCenterPose();
+    // Get transformed Y axis of plane's coordinate system.
+    center.getTransformedAxis(1, 1.0f, normal, 0);
+    // Compute dot product of plane's normal with vector from camera to plane center.
+    float distance =
+        (cameraX - center.tx()) * normal[0]
+            + (cameraY - center.ty()) * normal[1]
+            + (cameraZ - center.tz()) * normal[2];
+    if (distance < 0) { // Plane is back-facing.
+      return;
+    }
+    PlaneMesh mesh = getPlaneMesh(plane);
+    center.toMatrix(mesh.modelMatrix, 0);
+    visiblePlanes.add(mesh, distance);
+  }
+
+  /** Draws the sorted planes with one draw call each, from the shared buffers. */
+  private void drawPlanesSeparately(float[] cameraView, float[] cameraPerspective) {
+    // Set up the shader.
+    GLES20.glUseProgram(planeProgram);
     GLES20.glUniform1i(textureUniform, 0);
 
     // Shared fragment uniforms.
@@ -358,51 +741,200 @@ public class PlaneRenderer {
 
     // Enable vertex arrays
     GLES20.glEnableVertexAttribArray(planeXZPositionAlphaAttribute);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, sharedVertexBufferId);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, sharedIndexBufferId);
 
     ShaderUtil.checkGLError(TAG, "Setting up to draw planes");
 
-    for (SortablePlane sortedPlane : sortedPlanes) {
-      Plane plane = sortedPlane.plane;
-      float[] planeMatrix = new float[16];
-      plane.getCenterPose().toMatrix(planeMatrix, 0);
-
-      updatePlaneParameters(
-          planeMatrix, plane.getExtentX(), plane.getExtentZ(), plane.getPolygon());
-
-      // Get plane index. Keep a map to assign same indices to same planes.
-      Integer planeIndex = planeIndexMap.get(plane);
-      if (planeIndex == null) {
-        planeIndex = planeIndexMap.size();
-        planeIndexMap.put(plane, planeIndex);
+    for (int i = 0; i < visiblePlanes.size(); ++i) {
+      PlaneMesh mesh = visiblePlanes.get(i);
+      if (mesh.indexCount == 0) {
+        continue;
       }
 
       // Set plane color. Computed deterministically from the Plane index.
-      int colorIndex = planeIndex % PLANE_COLORS_RGBA.length;
+      int colorIndex = mesh.planeIndex % PLANE_COLORS_RGBA.length;
       colorRgbaToFloat(planeColor, PLANE_COLORS_RGBA[colorIndex]);
       GLES20.glUniform4fv(lineColorUniform, 1, planeColor, 0);
       GLES20.glUniform4fv(dotColorUniform, 1, planeColor, 0);
 
-      // Each plane will have its own angle offset from others, to make them easier to
-      // distinguish. Compute a 2x2 rotation matrix from the angle.
-      float angleRadians = planeIndex * 0.144f;
-      float uScale = DOTS_PER_METER;
-      float vScale = DOTS_PER_METER * EQUILATERAL_TRIANGLE_SCALE;
-      planeAngleUvMatrix[0] = +(float) Math.cos(angleRadians) * uScale;
-      planeAngleUvMatrix[1] = -(float) Math.sin(angleRadians) * vScale;
-      planeAngleUvMatrix[2] = +(float) Math.sin(angleRadians) * uScale;
-      planeAngleUvMatrix[3] = +(float) Math.cos(angleRadians) * vScale;
+      computePlaneUvMatrix(planeAngleUvMatrix, mesh.planeIndex);
       GLES20.glUniformMatrix2fv(planeUvMatrixUniform, 1, false, planeAngleUvMatrix, 0);
 
-      draw(cameraView, cameraPerspective);
+      draw(mesh, cameraView, cameraPerspective);
     }
 
-    // Clean up the state we set
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
     GLES20.glDisableVertexAttribArray(planeXZPositionAlphaAttribute);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-    GLES20.glDisable(GLES20.GL_BLEND);
-    GLES20.glDepthMask(true);
+  }
 
-    ShaderUtil.checkGLError(TAG, "Cleaning up after drawing planes");
+  /**
+   * Draws the sorted planes in batches. The triangle strips of the planes are joined into one
+   * strip with degenerate triangles. Primitives are blended in the order they are submitted, even
+   * within a draw call, so closer planes still occlude farther ones.
+   */
+  private void drawPlanesBatched(float[] cameraView, float[] cameraPerspective) {
+    GLES20.glUseProgram(batchProgram);
+    GLES20.glUniform1i(batchTextureUniform, 0);
+    GLES20.glUniform4fv(batchGridControlUniform, 1, GRID_CONTROL, 0);
+    Matrix.multiplyMM(viewProjectionMatrix, 0, cameraPerspective, 0, cameraView, 0);
+    GLES20.glUniformMatrix4fv(batchViewProjectionUniform, 1, false, viewProjectionMatrix, 0);
+
+    GLES20.glEnableVertexAttribArray(batchPositionColorIndexAttribute);
+    GLES20.glEnableVertexAttribArray(batchTexCoordAlphaAttribute);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, batchVertexBufferId);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, batchIndexBufferId);
+
+    ShaderUtil.checkGLError(TAG, "Setting up to draw plane batches");
+
+    batchVertexCount = 0;
+    batchIndexCount = 0;
+    for (int i = 0; i < visiblePlanes.size(); ++i) {
+      PlaneMesh mesh = visiblePlanes.get(i);
+      if (mesh.indexCount == 0) {
+        continue;
+      }
+      if (batchVertexCount + mesh.vertexCount > MAX_BATCH_VERTICES) {
+        drawBatch();
+      }
+      addToBatch(mesh, mesh.modelMatrix);
+    }
+    drawBatch();
+
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    GLES20.glDisableVertexAttribArray(batchPositionColorIndexAttribute);
+    GLES20.glDisableVertexAttribArray(batchTexCoordAlphaAttribute);
+  }
+
+  /** Transforms a mesh into world space and appends it to the batch. */
+  private void addToBatch(PlaneMesh mesh, float[] planeMatrix) {
+    int floatCount = (batchVertexCount + mesh.vertexCount) * FLOATS_PER_BATCH_VERTEX;
+    if (batchVertices.length < floatCount) {
+      float[] vertices = new float[Math.max(floatCount, batchVertices.length * 2)];
+      System.arraycopy(
+          batchVertices, 0, vertices, 0, batchVertexCount * FLOATS_PER_BATCH_VERTEX);
+      batchVertices = vertices;
+    }
+    // Up to three indices join the strips.
+    int indexCount = batchIndexCount + mesh.indexCount + 3;
+    if (batchIndices.length < indexCount) {
+      short[] indices = new short[Math.max(indexCount, batchIndices.length * 2)];
+      System.arraycopy(batchIndices, 0, indices, 0, batchIndexCount);
+      batchIndices = indices;
+    }
+
+    // Columns of the plane's model matrix. The plane's local y coordinate is 0.
+    float m0 = planeMatrix[0];
+    float m1 = planeMatrix[1];
+    float m2 = planeMatrix[2];
+    float m8 = planeMatrix[8];
+    float m9 = planeMatrix[9];
+    float m10 = planeMatrix[10];
+    float m12 = planeMatrix[12];
+    float m13 = planeMatrix[13];
+    float m14 = planeMatrix[14];
+    computePlaneUvMatrix(planeAngleUvMatrix, mesh.planeIndex);
+    float uv0 = planeAngleUvMatrix[0];
+    float uv1 = planeAngleUvMatrix[1];
+    float uv2 = planeAngleUvMatrix[2];
+    float uv3 = planeAngleUvMatrix[3];
+    float colorIndex = mesh.planeIndex % PLANE_COLORS_RGBA.length;
+
+    float[] vertices = mesh.vertices;
+    int v = batchVertexCount * FLOATS_PER_BATCH_VERTEX;
+    for (int i = 0; i < mesh.vertexCount * COORDS_PER_VERTEX; i += COORDS_PER_VERTEX) {
+      float x = vertices[i];
+      float z = vertices[i + 1];
+      float worldX = m0 * x + m8 * z + m12;
+      float worldY = m1 * x + m9 * z + m13;
+      float worldZ = m2 * x + m10 * z + m14;
+      batchVertices[v++] = worldX;
+      batchVertices[v++] = worldY;
+      batchVertices[v++] = worldZ;
+      batchVertices[v++] = colorIndex;
+      // Same as u_PlaneUvMatrix applied to the world xz coordinates in plane_vertex.
+      batchVertices[v++] = uv0 * worldX + uv2 * worldZ;
+      batchVertices[v++] = uv1 * worldX + uv3 * worldZ;
+      batchVertices[v++] = vertices[i + 2];
+    }
+
+    short[] indices = mesh.indices;
+    int base = batchVertexCount;
+    int n = batchIndexCount;
+    if (n > 0) {
+      // Repeat the last and the first index, and keep the new strip at an even position so its
+      // triangles keep their winding.
+      batchIndices[n] = batchIndices[n - 1];
+      batchIndices[n + 1] = (short) (base + indices[0]);
+      n += 2;
+      if (n % 2 != 0) {
+        batchIndices[n] = batchIndices[n - 1];
+        ++n;
+      }
+    }
+    for (int i = 0; i < mesh.indexCount; ++i) {
+      batchIndices[n++] = (short) (base + indices[i]);
+    }
+    batchVertexCount += mesh.vertexCount;
+    batchIndexCount = n;
+  }
+
+  /** Streams the batch to the GPU, draws it, and starts a new one. */
+  private void drawBatch() {
+    if (batchIndexCount == 0) {
+      return;
+    }
+
+    // Replacing the whole buffer lets the driver orphan the storage of the previous batch.
+    stageVertices(batchVertices, batchVertexCount * FLOATS_PER_BATCH_VERTEX);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER,
+        BYTES_PER_FLOAT * batchVertexCount * FLOATS_PER_BATCH_VERTEX,
+        vertexBuffer,
+        GLES20.GL_STREAM_DRAW);
+    stageIndices(batchIndices, batchIndexCount);
+    GLES20.glBufferData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER,
+        BYTES_PER_SHORT * batchIndexCount,
+        indexBuffer,
+        GLES20.GL_STREAM_DRAW);
+
+    GLES20.glVertexAttribPointer(
+        batchPositionColorIndexAttribute,
+        4,
+        GLES20.GL_FLOAT,
+        false,
+        BYTES_PER_FLOAT * FLOATS_PER_BATCH_VERTEX,
+        0);
+    GLES20.glVertexAttribPointer(
+        batchTexCoordAlphaAttribute,
+        3,
+        GLES20.GL_FLOAT,
+        false,
+        BYTES_PER_FLOAT * FLOATS_PER_BATCH_VERTEX,
+        BYTES_PER_FLOAT * 4);
+
+    GLES20.glDrawElements(GLES20.GL_TRIANGLE_STRIP, batchIndexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+    ShaderUtil.checkGLError(TAG, "Drawing plane batch");
+
+    batchVertexCount = 0;
+    batchIndexCount = 0;
+  }
+
+  /**
+   * Computes the 2x2 rotation matrix applied to the uv coordinates of a plane. Each plane has its
+   * own angle offset from others, to make them easier to distinguish.
+   */
+  private static void computePlaneUvMatrix(float[] uvMatrix, int planeIndex) {
+    float angleRadians = planeIndex * 0.144f;
+    float uScale = DOTS_PER_METER;
+    float vScale = DOTS_PER_METER * EQUILATERAL_TRIANGLE_SCALE;
+    uvMatrix[0] = +(float) Math.cos(angleRadians) * uScale;
+    uvMatrix[1] = -(float) Math.sin(angleRadians) * vScale;
+    uvMatrix[2] = +(float) Math.sin(angleRadians) * uScale;
+    uvMatrix[3] = +(float) Math.cos(angleRadians) * vScale;
   }
 
   private static void colorRgbaToFloat(float[] planeColor, int colorRgba) {
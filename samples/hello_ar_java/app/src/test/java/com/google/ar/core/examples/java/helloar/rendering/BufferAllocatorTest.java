@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.helloar.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/** Tests for {@link BufferAllocator}. */
+public class BufferAllocatorTest {
+  @Test
+  public void allocate_takesFrontOfFirstLargeEnoughRange() {
+    BufferAllocator allocator = new BufferAllocator(100);
+    assertEquals(0, allocator.allocate(10));
+    assertEquals(10, allocator.allocate(20));
+    assertEquals(30, allocator.allocate(30));
+    assertEquals(60, allocator.allocate(10));
+
+    // Free ranges [0, 10) and [30, 60), plus the tail [70, 100).
+    allocator.free(0, 10);
+    allocator.free(30, 30);
+    assertEquals(3, allocator.getFreeRangeCount());
+
+    // 20 does not fit into the first range, so it goes to the front of the second one.
+    assertEquals(30, allocator.allocate(20));
+    // 5 fits into the first range.
+    assertEquals(0, allocator.allocate(5));
+    // An exact fit removes the range.
+    assertEquals(5, allocator.allocate(5));
+    assertEquals(2, allocator.getFreeRangeCount());
+    assertEquals(60, allocator.getAllocatedSize());
+  }
+
+  @Test
+  public void allocate_returnsMinusOneWhenNothingFits() {
+    BufferAllocator allocator = new BufferAllocator(10);
+    assertEquals(0, allocator.allocate(6));
+    assertEquals(-1, allocator.allocate(5));
+    assertEquals(6, allocator.getAllocatedSize());
+  }
+
+  @Test
+  public void free_coalescesWithPreviousRange() {
+    BufferAllocator allocator = new BufferAllocator(30);
+    int a = allocator.allocate(10);
+    int b = allocator.allocate(10);
+    allocator.allocate(10);
+    allocator.free(a, 10);
+    allocator.free(b, 10);
+    assertEquals(1, allocator.getFreeRangeCount());
+    assertEquals(0, allocator.allocate(20));
+  }
+
+  @Test
+  public void free_coalescesWithNextRange() {
+    BufferAllocator allocator = new BufferAllocator(30);
+    allocator.allocate(10);
+    int b = allocator.allocate(10);
+    // Free the range before the free tail.
+    allocator.free(b, 10);
+    assertEquals(1, allocator.getFreeRangeCount());
+    assertEquals(10, allocator.allocate(20));
+  }
+
+  @Test
+  public void free_coalescesWithBothNeighbours() {
+    BufferAllocator allocator = new BufferAllocator(40);
+    int a = allocator.allocate(10);
+    int b = allocator.allocate(10);
+    int c = allocator.allocate(10);
+    allocator.allocate(10);
+    allocator.free(a, 10);
+    allocator.free(c, 10);
+    assertEquals(2, allocator.getFreeRangeCount());
+
+    allocator.free(b, 10);
+    assertEquals(1, allocator.getFreeRangeCount());
+    assertEquals(10, allocator.getAllocatedSize());
+    assertEquals(0, allocator.allocate(30));
+  }
+
+  @Test
+  public void grow_extendsFreeTailRange() {
+    BufferAllocator allocator = new BufferAllocator(20);
+    assertEquals(0, allocator.allocate(10));
+    allocator.grow(50);
+    assertEquals(50, allocator.getCapacity());
+    assertEquals(1, allocator.getFreeRangeCount());
+    // The tail [10, 50) is one range.
+    assertEquals(10, allocator.allocate(40));
+  }
+
+  @Test
+  public void grow_addsTailRangeWhenBufferIsFull() {
+    BufferAllocator allocator = new BufferAllocator(10);
+    assertEquals(0, allocator.allocate(10));
+    assertEquals(-1, allocator.allocate(5));
+    allocator.grow(15);
+    assertEquals(1, allocator.getFreeRangeCount());
+    assertEquals(10, allocator.allocate(5));
+  }
+
+  @Test
+  public void grow_keepsFreeListBeyondInitialSize() {
+    // Alternate allocated and free ranges so that the free list has to grow.
+    BufferAllocator allocator = new BufferAllocator(0);
+    final int count = 20;
+    allocator.grow(2 * count);
+    for (int i = 0; i < 2 * count; i++) {
+      assertEquals(i, allocator.allocate(1));
+    }
+    for (int i = 0; i < count; i++) {
+      allocator.free(2 * i, 1);
+    }
+    assertEquals(count, allocator.getFreeRangeCount());
+    for (int i = 0; i < count; i++) {
+      allocator.free(2 * i + 1, 1);
+    }
+    assertEquals(1, allocator.getFreeRangeCount());
+    assertEquals(0, allocator.getAllocatedSize());
+  }
+
+  @Test
+  public void free_detectsDoubleFree() {
+    BufferAllocator allocator = new BufferAllocator(30);
+    int a = allocator.allocate(10);
+    allocator.allocate(10);
+    allocator.free(a, 10);
+    try {
+      allocator.free(a, 10);
+      fail("Double free not detected.");
+    } catch (RuntimeException e) {
+      // Expected.
+    }
+    assertEquals(10, allocator.getAllocatedSize());
+  }
+
+  @Test
+  public void free_detectsOverlapWithFreeTail() {
+    BufferAllocator allocator = new BufferAllocator(30);
+    allocator.allocate(10);
+    try {
+      allocator.free(5, 10);
+      fail("Overlap with free space not detected.");
+    } catch (RuntimeException e) {
+      // Expected.
+    }
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void free_rejectsRangeOutsideBuffer() {
+    BufferAllocator allocator = new BufferAllocator(10);
+    allocator.allocate(10);
+    allocator.free(5, 10);
+  }
+}
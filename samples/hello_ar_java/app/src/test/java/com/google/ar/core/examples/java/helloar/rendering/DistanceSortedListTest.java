@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.helloar.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests for {@link DistanceSortedList}, which orders the visible planes in {@link PlaneRenderer}.
+ * ARCore planes cannot be created outside of a session, so the tests use fake planes.
+ */
+public class DistanceSortedListTest {
+  /** Stands in for an ARCore plane. */
+  private static class FakePlane {
+    final float distance;
+
+    FakePlane(float distance) {
+      this.distance = distance;
+    }
+  }
+
+  @Test
+  public void sort_ordersByIncreasingDistance() {
+    DistanceSortedList<FakePlane> list = new DistanceSortedList<>(4);
+    Random random = new Random(1);
+    FakePlane[] planes = new FakePlane[50];
+    for (int i = 0; i < planes.length; ++i) {
+      planes[i] = new FakePlane(random.nextFloat() * 10);
+      list.add(planes[i], planes[i].distance);
+    }
+    list.sort();
+
+    assertEquals(planes.length, list.size());
+    for (int i = 1; i < list.size(); ++i) {
+      assertEquals(list.get(i).distance, list.getDistance(i), 0);
+      if (list.getDistance(i - 1) > list.getDistance(i)) {
+        throw new AssertionError("Planes " + (i - 1) + " and " + i + " are out of order.");
+      }
+    }
+  }
+
+  @Test
+  public void sort_keepsOrderOfEqualDistances() {
+    DistanceSortedList<FakePlane> list = new DistanceSortedList<>(4);
+    FakePlane first = new FakePlane(1);
+    FakePlane second = new FakePlane(1);
+    FakePlane closest = new FakePlane(0);
+    list.add(first, first.distance);
+    list.add(second, second.distance);
+    list.add(closest, closest.distance);
+    list.sort();
+
+    assertSame(closest, list.get(0));
+    assertSame(first, list.get(1));
+    assertSame(second, list.get(2));
+  }
+
+  @Test
+  public void clear_releasesPlanes() {
+    DistanceSortedList<FakePlane> list = new DistanceSortedList<>(4);
+    FakePlane plane = new FakePlane(1);
+    WeakReference<FakePlane> reference = new WeakReference<>(plane);
+    list.add(plane, plane.distance);
+    list.clear();
+    plane = null;
+    assertEquals(0, list.size());
+
+    for (int i = 0; i < 10 && reference.get() != null; ++i) {
+      System.gc();
+    }
+    assertEquals(null, reference.get());
+  }
+
+  @Test
+  public void frame_doesNotAllocateOnceGrown() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+    assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+
+    Random random = new Random(2);
+    FakePlane[] planes = new FakePlane[40];
+    for (int i = 0; i < planes.length; ++i) {
+      planes[i] = new FakePlane(random.nextFloat() * 10);
+    }
+    DistanceSortedList<FakePlane> list = new DistanceSortedList<>(4);
+
+    // Warm up, which also grows the list to its final size.
+    for (int frame = 0; frame < 20000; ++frame) {
+      simulateFrame(list, planes, frame);
+    }
+
+    long threadId = Thread.currentThread().getId();
+    long before = threadBean.getThreadAllocatedBytes(threadId);
+    for (int frame = 0; frame < 1000; ++frame) {
+      simulateFrame(list, planes, frame);
+    }
+    long after = threadBean.getThreadAllocatedBytes(threadId);
+    assertEquals(0, after - before);
+  }
+
+  /** Fills and sorts the list like PlaneRenderer.drawPlanes(), with a varying number of planes. */
+  private static void simulateFrame(
+      DistanceSortedList<FakePlane> list, FakePlane[] planes, int frame) {
+    list.clear();
+    int count = planes.length - frame % 8;
+    for (int i = 0; i < count; ++i) {
+      list.add(planes[i], planes[i].distance);
+    }
+    list.sort();
+    for (int i = 0; i < list.size(); ++i) {
+      if (list.get(i) == null) {
+        throw new AssertionError("Missing plane.");
+      }
+    }
+    list.clear();
+  }
+}